@@ -19,6 +19,7 @@ public final class Constants
     public static final int    TICKS_SECOND                     = 20;
     public static final int    SECONDS_A_MINUTE                 = 60;
     public static final int    UPDATE_FLAG                      = BlockFlags.NOTIFY_NEIGHBORS | BlockFlags.BLOCK_UPDATE;
+    public static final int    DEFERRED_UPDATE_FLAG             = BlockFlags.BLOCK_UPDATE | BlockFlags.UPDATE_NEIGHBORS; // 16 suppresses neighbor shape updates
     public static final double HALF_BLOCK                       = 0.5D;
     public static final String MINECOLONIES_MOD_ID              = "minecolonies";
     public static final String GROUNDLEVEL_TAG                  = "groundlevel";
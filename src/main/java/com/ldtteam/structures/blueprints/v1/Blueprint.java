@@ -9,6 +9,15 @@ import com.ldtteam.structurize.blocks.interfaces.IBlueprintDataProvider;
 import com.ldtteam.structurize.util.BlockInfo;
 import com.ldtteam.structurize.util.BlockUtils;
 import com.ldtteam.structurize.util.BlueprintPositionInfo;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectRBTreeMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectSortedMap;
+import it.unimi.dsi.fastutil.ints.IntRBTreeSet;
+import it.unimi.dsi.fastutil.ints.IntSortedSet;
+import it.unimi.dsi.fastutil.objects.Object2ShortMap;
+import it.unimi.dsi.fastutil.objects.Object2ShortOpenHashMap;
 import net.minecraft.block.AirBlock;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
@@ -29,6 +38,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.ldtteam.structurize.api.util.constant.Constants.NINETY_DEGREES;
@@ -44,6 +55,11 @@ public class Blueprint
      */
     private static final String ENTITY_POS = "Pos";
 
+    /**
+     * Shared result for positions without entities.
+     */
+    private static final CompoundNBT[] NO_ENTITIES = new CompoundNBT[0];
+
     /**
      * The list of required mods.
      */
@@ -64,6 +80,21 @@ public class Blueprint
      */
     private List<BlockState> palette;
 
+    /**
+     * Hash index of the palette, maps a state to its first index in the {@link Blueprint#palette}. Built lazily.
+     */
+    private Object2ShortMap<BlockState> paletteIndex = null;
+
+    /**
+     * Depth of nested bulk edits, cache invalidation is deferred while this is above zero.
+     */
+    private int bulkEditDepth = 0;
+
+    /**
+     * If an edit happened during the current bulk edit.
+     */
+    private boolean bulkEditDirty = false;
+
     /**
      * The name of the blueprint.
      */
@@ -82,12 +113,29 @@ public class Blueprint
     /**
      * The Schematic Data, each short represents an entry in the {@link Blueprint#palette}
      */
-    private short[][][] structure;
+    private PalettedBlockStorage structure;
+
+    /**
+     * If the {@link #structure} is shared with another blueprint and has to be copied before writing to it.
+     */
+    private boolean structureShared = false;
+
+    /**
+     * Mapping from local (rotated and mirrored) coordinates to coordinates in the {@link #structure}.
+     * sourceX = xFromX * x + xFromZ * z + xOffset, sourceZ = zFromX * x + zFromZ * z + zOffset, y is never transformed.
+     */
+    private int xFromX = 1, xFromZ = 0, xOffset = 0;
+    private int zFromX = 0, zFromZ = 1, zOffset = 0;
+
+    /**
+     * If structure void entries should read as palette index 0, set once the blueprint got rotated or mirrored.
+     */
+    private boolean stripStructureVoid = false;
 
     /**
-     * The tileentities.
+     * The tileentities, keyed by packed local position (see {@link #getLocalIndex(int, int, int)}) in y, z, x order.
      */
-    private CompoundNBT[][][] tileEntities;
+    private Int2ObjectSortedMap<CompoundNBT> tileEntities;
 
     /**
      * The entities.
@@ -95,10 +143,49 @@ public class Blueprint
     private CompoundNBT[] entities = new CompoundNBT[0];
 
     /**
-     * Various caches for storing block data in prepared structures
+     * Raw payloads of the tileEntity and entity data and their decoders, decoded on first access. Null once decoded.
+     */
+    private Supplier<ListNBT>                pendingTileEntities = null;
+    private Function<ListNBT, CompoundNBT[]> tileEntityDecoder   = null;
+    private Supplier<ListNBT>                pendingEntities     = null;
+    private Function<ListNBT, CompoundNBT[]> entityDecoder       = null;
+
+    /**
+     * Hashes of the tileEntity and entity data in their stored form, updated whenever they are replaced or transformed.
+     * Pending data is hashed from its payload, either by the fingerprint or right before it is decoded, so the order of access doesn't matter.
+     */
+    private long    tileEntityHash        = 0;
+    private long    entityHash            = 0;
+    private boolean tileEntityHashPending = false;
+    private boolean entityHashPending     = false;
+
+    /**
+     * Hash of the blocks per orientation, built on first access and updated on every block edit. See {@link #getBlockHash()}.
+     */
+    private OrientedBlockHash blockHashes = null;
+
+    /**
+     * The hash of the blocks in local order and the fingerprint, combined on first access and reset on every edit or rotation.
+     */
+    private long    blockHash        = 0;
+    private boolean blockHashValid   = false;
+    private long    fingerprint      = 0;
+    private boolean fingerprintValid = false;
+
+    /**
+     * Lazy views on the block data, resolved from the packed storage on access.
+     */
+    private final List<BlockInfo> blockInfoView = new BlockInfoList();
+    private final Map<BlockPos, BlockInfo> blockInfoMapView = new BlockInfoMap();
+
+    /**
+     * Entities indexed by packed local position, see {@link #getLocalIndex(int, int, int)}.
+     */
+    private Int2ObjectMap<CompoundNBT[]> entityIndex = null;
+
+    /**
+     * Cache for storing the entities by position, only positions with entities are present.
      */
-    private List<BlockInfo> cacheBlockInfo = null;
-    private Map<BlockPos, BlockInfo> cacheBlockInfoMap = null;
     private Map<BlockPos, CompoundNBT[]> cacheEntitiesMap = null;
 
     /**
@@ -128,7 +215,7 @@ public class Blueprint
         short sizeZ,
         short palleteSize,
         List<BlockState> pallete,
-        short[][][] structure,
+        PalettedBlockStorage structure,
         CompoundNBT[] tileEntities,
         List<String> requiredMods)
     {
@@ -138,16 +225,32 @@ public class Blueprint
         this.palleteSize = palleteSize;
         this.palette = pallete;
         this.structure = structure;
-        this.tileEntities = new CompoundNBT[sizeY][sizeZ][sizeX];
+        this.tileEntities = new Int2ObjectRBTreeMap<>();
+        putTileEntities(tileEntities);
+        this.tileEntityHash = hashTileEntities(this.tileEntities);
+        this.requiredMods = requiredMods;
+    }
 
+    /**
+     * Add tileEntities to the tileEntity map by their local position, tileEntities outside of the blueprint are dropped.
+     *
+     * @param tileEntities the tileEntities.
+     */
+    private void putTileEntities(final CompoundNBT[] tileEntities)
+    {
         for (final CompoundNBT te : tileEntities)
         {
             if (te != null)
             {
-                this.tileEntities[te.getShort("y")][te.getShort("z")][te.getShort("x")] = te;
+                final short x = te.getShort("x");
+                final short y = te.getShort("y");
+                final short z = te.getShort("z");
+                if (isInside(x, y, z))
+                {
+                    this.tileEntities.put(getLocalIndex(x, y, z), te);
+                }
             }
         }
-        this.requiredMods = requiredMods;
     }
 
     /**
@@ -162,8 +265,8 @@ public class Blueprint
         this.sizeX = sizeX;
         this.sizeY = sizeY;
         this.sizeZ = sizeZ;
-        this.structure = new short[sizeY][sizeZ][sizeX];
-        this.tileEntities = new CompoundNBT[sizeY][sizeZ][sizeX];
+        this.structure = new PalettedBlockStorage(sizeX, sizeY, sizeZ);
+        this.tileEntities = new Int2ObjectRBTreeMap<>();
 
         this.requiredMods = new ArrayList<>();
         this.palette = new ArrayList<>();
@@ -171,6 +274,67 @@ public class Blueprint
         this.palleteSize = 1;
     }
 
+    /**
+     * Create a copy of another blueprint which shares the block storage until one of them is edited.
+     *
+     * @param other the blueprint to copy.
+     */
+    private Blueprint(final Blueprint other)
+    {
+        this.sizeX = other.sizeX;
+        this.sizeY = other.sizeY;
+        this.sizeZ = other.sizeZ;
+        this.palleteSize = other.palleteSize;
+        this.palette = new ArrayList<>(other.palette);
+        this.name = other.name;
+        this.architects = other.architects;
+        this.missingMods = other.missingMods;
+        this.requiredMods = new ArrayList<>(other.requiredMods);
+
+        other.structureShared = true;
+        this.structure = other.structure;
+        this.structureShared = true;
+        this.xFromX = other.xFromX;
+        this.xFromZ = other.xFromZ;
+        this.xOffset = other.xOffset;
+        this.zFromX = other.zFromX;
+        this.zFromZ = other.zFromZ;
+        this.zOffset = other.zOffset;
+        this.stripStructureVoid = other.stripStructureVoid;
+
+        this.tileEntities = new Int2ObjectRBTreeMap<>();
+        for (final Int2ObjectMap.Entry<CompoundNBT> entry : other.getTileEntityMap().int2ObjectEntrySet())
+        {
+            this.tileEntities.put(entry.getIntKey(), entry.getValue().copy());
+        }
+        final CompoundNBT[] otherEntities = other.getEntities();
+        this.entities = new CompoundNBT[otherEntities.length];
+        for (int i = 0; i < entities.length; i++)
+        {
+            this.entities[i] = otherEntities[i] == null ? null : otherEntities[i].copy();
+        }
+        this.tileEntityHash = other.tileEntityHash;
+        this.entityHash = other.entityHash;
+        this.blockHashes = other.blockHashes == null ? null : other.blockHashes.copy();
+        this.blockHash = other.blockHash;
+        this.blockHashValid = other.blockHashValid;
+        this.fingerprint = other.fingerprint;
+        this.fingerprintValid = other.fingerprintValid;
+        this.cachePrimaryOffset = other.cachePrimaryOffset;
+        this.renderSource = other.renderSource;
+    }
+
+    /**
+     * Create a copy of this blueprint, the block storage is shared until either of them is edited.
+     * Rotating or mirroring the copy leaves this blueprint untouched.
+     *
+     * @return the copy.
+     */
+    public Blueprint copy()
+    {
+        return new Blueprint(this);
+    }
+
     /**
      * @return the Size of the Structure on the X-Axis (without rotation and/or mirroring)
      */
@@ -219,41 +383,269 @@ public class Blueprint
      */
     public void addBlockState(final BlockPos pos, final BlockState state)
     {
-        int index = -1;
-        for (int i = 0; i < this.palette.size(); i++)
+        if (structureShared)
+        {
+            structure = structure.copy();
+            structureShared = false;
+        }
+        final int x = sourceX(pos.getX(), pos.getZ());
+        final int z = sourceZ(pos.getX(), pos.getZ());
+        final short index = getOrAddPaletteIndex(state);
+        if (blockHashes != null)
+        {
+            blockHashes.update(x, pos.getY(), z, structure.get(x, pos.getY(), z) & 0xFFFF, index & 0xFFFF);
+        }
+        this.structure.set(x, pos.getY(), z, index);
+        this.blockHashValid = false;
+        this.fingerprintValid = false;
+
+        if (bulkEditDepth > 0)
+        {
+            bulkEditDirty = true;
+        }
+        else
+        {
+            cacheReset(true);
+        }
+    }
+
+    /**
+     * Add a set of blockstates to the structure as one bulk edit.
+     *
+     * @param states the states by position.
+     */
+    public void addBlockStates(final Map<BlockPos, BlockState> states)
+    {
+        startBulkEdit();
+        try
+        {
+            states.forEach(this::addBlockState);
+        }
+        finally
         {
-            if (this.palette.get(i).equals(state))
+            endBulkEdit();
+        }
+    }
+
+    /**
+     * Start a bulk edit, caches are only invalidated once the matching {@link #endBulkEdit()} is called.
+     * Bulk edits may be nested.
+     */
+    public void startBulkEdit()
+    {
+        bulkEditDepth++;
+    }
+
+    /**
+     * End a bulk edit, invalidating the caches if anything changed during it.
+     */
+    public void endBulkEdit()
+    {
+        if (bulkEditDepth <= 0)
+        {
+            return;
+        }
+
+        bulkEditDepth--;
+        if (bulkEditDepth == 0 && bulkEditDirty)
+        {
+            bulkEditDirty = false;
+            cacheReset(true);
+        }
+    }
+
+    /**
+     * Get the palette index of a state, adding it to the palette if missing.
+     *
+     * @param state the state.
+     * @return the palette index.
+     */
+    private short getOrAddPaletteIndex(final BlockState state)
+    {
+        final Object2ShortMap<BlockState> index = getPaletteIndex();
+        final short existing = index.getShort(state);
+        if (existing != -1)
+        {
+            return existing;
+        }
+
+        final short newIndex = this.palleteSize;
+        this.palleteSize++;
+        this.palette.add(state);
+        index.put(state, newIndex);
+        return newIndex;
+    }
+
+    /**
+     * Get the hash index of the palette, building it if necessary.
+     *
+     * @return the index.
+     */
+    private Object2ShortMap<BlockState> getPaletteIndex()
+    {
+        if (paletteIndex == null)
+        {
+            final Object2ShortMap<BlockState> index = new Object2ShortOpenHashMap<>(palette.size());
+            index.defaultReturnValue((short) -1);
+            for (int i = 0; i < palette.size(); i++)
             {
-                index = i;
-                break;
+                if (!index.containsKey(palette.get(i)))
+                {
+                    index.put(palette.get(i), (short) i);
+                }
             }
+            paletteIndex = index;
         }
+        return paletteIndex;
+    }
+
+    /**
+     * @return the packed structure storage (without rotation and/or mirroring), each entry is an index into the palette.
+     * Use {@link #getPaletteIndex(int, int, int)} to read it in local coordinates.
+     */
+    public PalettedBlockStorage getStructure()
+    {
+        return this.structure;
+    }
 
-        if (index == -1)
+    /**
+     * Get the block storage in local coordinates.
+     * This is the backing storage unless the blueprint is rotated or mirrored, then a new storage is built.
+     *
+     * @return the storage, must not be modified.
+     */
+    public PalettedBlockStorage getLocalStructure()
+    {
+        if (xFromX == 1 && xFromZ == 0 && xOffset == 0 && zFromX == 0 && zFromZ == 1 && zOffset == 0 && !stripStructureVoid)
         {
-            index = this.palleteSize;
-            this.palleteSize++;
-            this.palette.add(state);
+            return structure;
         }
 
-        this.structure[pos.getY()][pos.getZ()][pos.getX()] = (short) index;
-        cacheReset(true);
+        final PalettedBlockStorage local = new PalettedBlockStorage(sizeX, sizeY, sizeZ);
+        for (int y = 0; y < sizeY; y++)
+        {
+            for (int z = 0; z < sizeZ; z++)
+            {
+                for (int x = 0; x < sizeX; x++)
+                {
+                    local.set(x, y, z, getPaletteIndex(x, y, z));
+                }
+            }
+        }
+        return local;
     }
 
     /**
-     * @return the structure (without rotation and/or mirroring) The Coordinate order is: y, z, x
+     * Get the palette index at a local position, which has to be inside of the blueprint.
+     *
+     * @param x the x pos.
+     * @param y the y pos.
+     * @param z the z pos.
+     * @return the index into the palette.
      */
-    public short[][][] getStructure()
+    public short getPaletteIndex(final int x, final int y, final int z)
     {
-        return this.structure;
+        final short value = structure.get(sourceX(x, z), y, sourceZ(x, z));
+        if (stripStructureVoid && palette.get(value & 0xFFFF).getBlock() == Blocks.STRUCTURE_VOID)
+        {
+            return 0;
+        }
+        return value;
     }
 
     /**
-     * @return an array of serialized TileEntities (posX, posY and posZ tags have been localized to coordinates within the structure)
+     * Map a local position to the x coordinate in the {@link #structure}.
+     *
+     * @param x the local x.
+     * @param z the local z.
+     * @return the source x.
+     */
+    private int sourceX(final int x, final int z)
+    {
+        return xFromX * x + xFromZ * z + xOffset;
+    }
+
+    /**
+     * Map a local position to the z coordinate in the {@link #structure}.
+     *
+     * @param x the local x.
+     * @param z the local z.
+     * @return the source z.
+     */
+    private int sourceZ(final int x, final int z)
+    {
+        return zFromX * x + zFromZ * z + zOffset;
+    }
+
+    /**
+     * Check if a local position is inside of the blueprint.
+     *
+     * @param x the x pos.
+     * @param y the y pos.
+     * @param z the z pos.
+     * @return true if so.
      */
-    public CompoundNBT[][][] getTileEntities()
+    private boolean isInside(final int x, final int y, final int z)
     {
-        return this.tileEntities;
+        return x >= 0 && y >= 0 && z >= 0 && x < sizeX && y < sizeY && z < sizeZ;
+    }
+
+    /**
+     * @return the serialized TileEntities in y, z, x order (posX, posY and posZ tags have been localized to coordinates within the structure)
+     */
+    public Collection<CompoundNBT> getTileEntities()
+    {
+        return Collections.unmodifiableCollection(getTileEntityMap().values());
+    }
+
+    /**
+     * Get the tileEntity map, decoding pending tileEntity data first.
+     *
+     * @return the tileEntities by packed local position.
+     */
+    private Int2ObjectSortedMap<CompoundNBT> getTileEntityMap()
+    {
+        if (pendingTileEntities != null)
+        {
+            final ListNBT payload = pendingTileEntities.get();
+            if (tileEntityHashPending)
+            {
+                tileEntityHash = hashTileEntities(payload);
+                tileEntityHashPending = false;
+            }
+            putTileEntities(tileEntityDecoder.apply(payload));
+            pendingTileEntities = null;
+            tileEntityDecoder = null;
+        }
+        return tileEntities;
+    }
+
+    /**
+     * Defer decoding of tileEntity data until it is first accessed.
+     *
+     * @param payload supplier of the raw tileEntity list, its positions must be local.
+     * @param decoder the decoder of the raw list.
+     */
+    void setPendingTileEntities(final Supplier<ListNBT> payload, final Function<ListNBT, CompoundNBT[]> decoder)
+    {
+        this.pendingTileEntities = payload;
+        this.tileEntityDecoder = decoder;
+        this.tileEntityHashPending = true;
+        this.fingerprintValid = false;
+    }
+
+    /**
+     * Defer decoding of entity data until it is first accessed.
+     *
+     * @param payload supplier of the raw entity list, its positions must be local.
+     * @param decoder the decoder of the raw list.
+     */
+    void setPendingEntities(final Supplier<ListNBT> payload, final Function<ListNBT, CompoundNBT[]> decoder)
+    {
+        this.pendingEntities = payload;
+        this.entityDecoder = decoder;
+        this.entityHashPending = true;
+        this.fingerprintValid = false;
     }
 
     /**
@@ -261,6 +653,18 @@ public class Blueprint
      */
     public CompoundNBT[] getEntities()
     {
+        if (pendingEntities != null)
+        {
+            final ListNBT payload = pendingEntities.get();
+            if (entityHashPending)
+            {
+                entityHash = hashEntities(toArray(payload));
+                entityHashPending = false;
+            }
+            this.entities = entityDecoder.apply(payload);
+            pendingEntities = null;
+            entityDecoder = null;
+        }
         return this.entities;
     }
 
@@ -269,7 +673,14 @@ public class Blueprint
      */
     public void setEntities(CompoundNBT[] entities)
     {
+        this.pendingEntities = null;
+        this.entityDecoder = null;
         this.entities = entities;
+        this.entityHash = hashEntities(entities);
+        this.entityHashPending = false;
+        this.fingerprintValid = false;
+        this.entityIndex = null;
+        this.cacheEntitiesMap = null;
     }
 
     /**
@@ -345,39 +756,63 @@ public class Blueprint
      */
     public final List<CompoundNBT> getEntitiesAsList()
     {
-        return Arrays.stream(entities).collect(Collectors.toList());
+        return Arrays.stream(getEntities()).collect(Collectors.toList());
     }
 
     /**
      * Get a list of all blockInfo objects in the blueprint.
+     * The list is a read-only view in y, z, x order, the entries are resolved on access.
      *
      * @return a list of all blockinfo (position, blockState, tileEntityData).
      */
     public final List<BlockInfo> getBlockInfoAsList()
     {
-        if (cacheBlockInfo == null)
-        {
-            buildBlockInfoCaches();
-        }
-        return cacheBlockInfo;
+        return blockInfoView;
     }
 
     /**
      * Get a map of all blockpos->blockInfo objects in the blueprint.
+     * The map is a read-only view, the entries are resolved on access.
      *
      * @return a map of all blockpos->blockInfo (position, blockState, tileEntityData).
      */
     public final Map<BlockPos, BlockInfo> getBlockInfoAsMap()
     {
-        if (cacheBlockInfoMap == null)
+        return blockInfoMapView;
+    }
+
+    /**
+     * Get the blockInfo at a local position.
+     *
+     * @param pos the local position.
+     * @return the blockInfo (position, blockState, tileEntityData) or null if outside of the blueprint.
+     */
+    @Nullable
+    public BlockInfo getBlockInfo(final BlockPos pos)
+    {
+        if (!isInside(pos.getX(), pos.getY(), pos.getZ()))
         {
-            buildBlockInfoCaches();
+            return null;
         }
-        return cacheBlockInfoMap;
+        return getBlockInfo(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    /**
+     * Resolve the blockInfo at a local position which is known to be inside of the blueprint.
+     *
+     * @param x the x pos.
+     * @param y the y pos.
+     * @param z the z pos.
+     * @return the blockInfo.
+     */
+    private BlockInfo getBlockInfo(final int x, final int y, final int z)
+    {
+        return new BlockInfo(new BlockPos(x, y, z), palette.get(getPaletteIndex(x, y, z) & 0xFFFF), getTileEntityMap().get(getLocalIndex(x, y, z)));
     }
 
     /**
      * Get a map of all entities by approx position.
+     * Only positions which contain entities are present in the map.
      *
      * @return the cached map of these.
      */
@@ -385,11 +820,85 @@ public class Blueprint
     {
         if (cacheEntitiesMap == null)
         {
-            buildBlockInfoCaches();
+            final Map<BlockPos, CompoundNBT[]> map = new HashMap<>(getEntityIndex().size());
+            for (final Int2ObjectMap.Entry<CompoundNBT[]> entry : getEntityIndex().int2ObjectEntrySet())
+            {
+                map.put(getLocalPos(entry.getIntKey()), entry.getValue());
+            }
+            cacheEntitiesMap = map;
         }
         return cacheEntitiesMap;
     }
 
+    /**
+     * Get the entities at a local position.
+     *
+     * @param pos the local position.
+     * @return the entities, an empty array if there are none.
+     */
+    public CompoundNBT[] getEntitiesAt(final BlockPos pos)
+    {
+        if (getEntities().length == 0 || !isInside(pos.getX(), pos.getY(), pos.getZ()))
+        {
+            return NO_ENTITIES;
+        }
+        final CompoundNBT[] entitiesAtPos = getEntityIndex().get(getLocalIndex(pos.getX(), pos.getY(), pos.getZ()));
+        return entitiesAtPos == null ? NO_ENTITIES : entitiesAtPos;
+    }
+
+    /**
+     * Get the entity index, building it if necessary.
+     *
+     * @return the index of entities by packed local position.
+     */
+    private Int2ObjectMap<CompoundNBT[]> getEntityIndex()
+    {
+        if (entityIndex == null)
+        {
+            buildEntityIndex();
+        }
+        return entityIndex;
+    }
+
+    /**
+     * Pack a local position into an index (y, z, x order).
+     *
+     * @param x the x pos.
+     * @param y the y pos.
+     * @param z the z pos.
+     * @return the packed index.
+     */
+    private int getLocalIndex(final int x, final int y, final int z)
+    {
+        return getLocalIndex(x, y, z, sizeX, sizeZ);
+    }
+
+    /**
+     * Pack a local position into an index (y, z, x order) for the given size.
+     *
+     * @param x     the x pos.
+     * @param y     the y pos.
+     * @param z     the z pos.
+     * @param sizeX the x size.
+     * @param sizeZ the z size.
+     * @return the packed index.
+     */
+    private static int getLocalIndex(final int x, final int y, final int z, final int sizeX, final int sizeZ)
+    {
+        return (y * sizeZ + z) * sizeX + x;
+    }
+
+    /**
+     * Unpack a local index into a position.
+     *
+     * @param index the packed index.
+     * @return the local position.
+     */
+    private BlockPos getLocalPos(final int index)
+    {
+        return new BlockPos(index % sizeX, index / (sizeX * sizeZ), (index / sizeX) % sizeZ);
+    }
+
     /**
      * Getter of the EntityInfo at a certain position.
      *
@@ -400,12 +909,18 @@ public class Blueprint
     @Nullable
     public CompoundNBT getTileEntityData(@NotNull final BlockPos worldPos, final BlockPos structurePos)
     {
-        if (!getBlockInfoAsMap().containsKey(structurePos) || !getBlockInfoAsMap().get(structurePos).hasTileEntityData())
+        if (!isInside(structurePos.getX(), structurePos.getY(), structurePos.getZ()))
         {
             return null;
         }
 
-        final CompoundNBT te = getBlockInfoAsMap().get(structurePos).getTileEntityData().copy();
+        final CompoundNBT data = getTileEntityMap().get(getLocalIndex(structurePos.getX(), structurePos.getY(), structurePos.getZ()));
+        if (data == null)
+        {
+            return null;
+        }
+
+        final CompoundNBT te = data.copy();
         final BlockPos tePos = structurePos.offset(worldPos);
         te.putInt("x", tePos.getX());
         te.putInt("y", tePos.getY());
@@ -423,14 +938,13 @@ public class Blueprint
     public Item getItem(final BlockPos pos)
     {
         @Nullable
-        final BlockInfo info = this.getBlockInfoAsMap().getOrDefault(pos, null);
-        if (info == null || info.getState() == null || info.getState().getBlock() instanceof AirBlock
-            || info.getState().getMaterial().isLiquid())
+        final BlockState state = getBlockState(pos);
+        if (state == null || state.getBlock() instanceof AirBlock || state.getMaterial().isLiquid())
         {
             return null;
         }
 
-        final ItemStack stack = BlockUtils.getItemStackFromBlockState(info.getState());
+        final ItemStack stack = BlockUtils.getItemStackFromBlockState(state);
 
         if (!ItemStackUtils.isEmpty(stack))
         {
@@ -441,30 +955,42 @@ public class Blueprint
     }
 
     /**
-     * Build the caches.
+     * Build the entity index in a single pass over the entities.
      */
-    private void buildBlockInfoCaches()
+    private void buildEntityIndex()
     {
-        cacheBlockInfo = new ArrayList<>(getVolume());
-        cacheBlockInfoMap = new HashMap<>(getVolume());
-        cacheEntitiesMap = new HashMap<>(getEntities().length);
-        for (short y = 0; y < this.sizeY; y++)
+        final CompoundNBT[] entities = getEntities();
+        final Int2ObjectMap<CompoundNBT[]> index = new Int2ObjectOpenHashMap<>(entities.length);
+        for (final CompoundNBT data : entities)
         {
-            for (short z = 0; z < this.sizeZ; z++)
+            if (data == null)
             {
-                for (short x = 0; x < this.sizeX; x++)
-                {
-                    final BlockPos tempPos = new BlockPos(x, y, z);
-                    final BlockInfo blockInfo = new BlockInfo(tempPos, palette.get(structure[y][z][x] & 0xFFFF), tileEntities[y][z][x]);
-                    cacheBlockInfo.add(blockInfo);
-                    cacheBlockInfoMap.put(tempPos, blockInfo);
-                    cacheEntitiesMap.put(tempPos,
-                        Arrays.stream(this.getEntities())
-                            .filter(data -> data != null && isAtPos(data, tempPos))
-                            .toArray(CompoundNBT[]::new));
-                }
+                continue;
+            }
+
+            final ListNBT list = data.getList(ENTITY_POS, 6);
+            final int x = (int) list.getDouble(0);
+            final int y = (int) list.getDouble(1);
+            final int z = (int) list.getDouble(2);
+            if (!isInside(x, y, z))
+            {
+                continue;
+            }
+
+            final int key = getLocalIndex(x, y, z);
+            final CompoundNBT[] existing = index.get(key);
+            if (existing == null)
+            {
+                index.put(key, new CompoundNBT[] {data});
+            }
+            else
+            {
+                final CompoundNBT[] grown = Arrays.copyOf(existing, existing.length + 1);
+                grown[existing.length] = data;
+                index.put(key, grown);
             }
         }
+        entityIndex = index;
     }
 
     /**
@@ -498,16 +1024,49 @@ public class Blueprint
      */
     private BlockPos findPrimaryBlockOffset()
     {
-        final List<BlockInfo> list = getBlockInfoAsList().stream()
-                                       .filter(blockInfo -> blockInfo.getState().getBlock() instanceof IAnchorBlock
-                                                              || (blockInfo.hasTileEntityData() && blockInfo.getTileEntityData().contains(TAG_BLUEPRINTDATA)))
-            .collect(Collectors.toList());
+        final boolean[] anchorStates = new boolean[palette.size()];
+        for (int i = 0; i < anchorStates.length; i++)
+        {
+            anchorStates[i] = palette.get(i).getBlock() instanceof IAnchorBlock;
+        }
+
+        final IntSortedSet found = new IntRBTreeSet();
+        for (final Int2ObjectMap.Entry<CompoundNBT> entry : getTileEntityMap().int2ObjectEntrySet())
+        {
+            if (entry.getValue().contains(TAG_BLUEPRINTDATA))
+            {
+                found.add(entry.getIntKey());
+            }
+        }
+
+        boolean hasAnchorState = false;
+        for (final boolean anchorState : anchorStates)
+        {
+            hasAnchorState |= anchorState;
+        }
+
+        if (hasAnchorState)
+        {
+            for (short y = 0; y < this.sizeY && found.size() <= 1; y++)
+            {
+                for (short z = 0; z < this.sizeZ && found.size() <= 1; z++)
+                {
+                    for (short x = 0; x < this.sizeX && found.size() <= 1; x++)
+                    {
+                        if (anchorStates[getPaletteIndex(x, y, z) & 0xFFFF])
+                        {
+                            found.add(getLocalIndex(x, y, z));
+                        }
+                    }
+                }
+            }
+        }
 
-        if (list.size() != 1)
+        if (found.size() != 1)
         {
             return new BlockPos(getSizeX() / 2, 0, getSizeZ() / 2);
         }
-        return list.get(0).getPos();
+        return getLocalPos(found.firstInt());
     }
 
     /**
@@ -517,13 +1076,14 @@ public class Blueprint
      */
     private void cacheReset(final boolean resetPrimaryOffset)
     {
-        cacheBlockInfo = null;
         if (resetPrimaryOffset)
         {
             cachePrimaryOffset = null;
         }
-        cacheBlockInfoMap = null;
+        entityIndex = null;
         cacheEntitiesMap = null;
+        blockHashValid = false;
+        fingerprintValid = false;
     }
 
     /**
@@ -541,9 +1101,9 @@ public class Blueprint
         final short newSizeY = (short) resultSize.getY();
         final short newSizeZ = (short) resultSize.getZ();
 
-        final short[][][] newStructure = new short[newSizeY][newSizeZ][newSizeX];
+        final CompoundNBT[] entities = getEntities();
         final CompoundNBT[] newEntities = new CompoundNBT[entities.length];
-        final CompoundNBT[][][] newTileEntities = new CompoundNBT[newSizeY][newSizeZ][newSizeX];
+        final Int2ObjectSortedMap<CompoundNBT> newTileEntities = new Int2ObjectRBTreeMap<>();
 
         final List<BlockState> palette = new ArrayList<>();
         for (int i = 0; i < this.palette.size(); i++)
@@ -556,59 +1116,18 @@ public class Blueprint
         int minY = extremes.getY() < 0 ? -extremes.getY() - 1 : 0;
         int minZ = extremes.getZ() < 0 ? -extremes.getZ() - 1 : 0;
 
-        this.palette = palette;
-
-        for (short x = 0; x < this.sizeX; x++)
+        for (final Int2ObjectMap.Entry<CompoundNBT> entry : getTileEntityMap().int2ObjectEntrySet())
         {
-            for (short y = 0; y < this.sizeY; y++)
+            final BlockPos localPos = getLocalPos(entry.getIntKey());
+            if (palette.get(getPaletteIndex(localPos.getX(), localPos.getY(), localPos.getZ()) & 0xFFFF).getBlock() == Blocks.STRUCTURE_VOID)
             {
-                for (short z = 0; z < this.sizeZ; z++)
-                {
-                    final BlockPos tempPos = transformedBlockPos(x, y, z, mirror, rotation).offset(minX, minY, minZ);
-                    final short value = structure[y][z][x];
-                    final BlockState state = palette.get(value & 0xFFFF);
-                    if (state.getBlock() == Blocks.STRUCTURE_VOID)
-                    {
-                        continue;
-                    }
-                    newStructure[tempPos.getY()][tempPos.getZ()][tempPos.getX()] = value;
-
-                    final CompoundNBT compound = tileEntities[y][z][x];
-                    if (compound != null)
-                    {
-                        compound.putInt("x", tempPos.getX());
-                        compound.putInt("y", tempPos.getY());
-                        compound.putInt("z", tempPos.getZ());
-
-                        if (compound.contains(TAG_BLUEPRINTDATA))
-                        {
-                            CompoundNBT dataCompound = compound.getCompound(TAG_BLUEPRINTDATA);
-
-                            // Rotate tag map
-                            final Map<BlockPos, List<String>> tagPosMap = IBlueprintDataProvider.readTagPosMapFrom(dataCompound);
-                            final Map<BlockPos, List<String>> newTagPosMap = new HashMap<>();
-
-                            for (Map.Entry<BlockPos, List<String>> entry : tagPosMap.entrySet())
-                            {
-                                BlockPos newPos = transformedBlockPos(entry.getKey()
-                                    .getX(), entry.getKey().getY(), entry.getKey().getZ(), mirror, rotation);
-                                newTagPosMap.put(newPos, entry.getValue());
-                            }
-
-                            IBlueprintDataProvider.writeMapToCompound(dataCompound, newTagPosMap);
-
-                            // Rotate corners
-                            BlockPos corner1 = BlockPosUtil.readFromNBT(dataCompound, TAG_CORNER_ONE);
-                            BlockPos corner2 = BlockPosUtil.readFromNBT(dataCompound, TAG_CORNER_TWO);
-                            corner1 = transformedBlockPos(corner1.getX(), corner1.getY(), corner1.getZ(), mirror, rotation);
-                            corner2 = transformedBlockPos(corner2.getX(), corner2.getY(), corner2.getZ(), mirror, rotation);
-                            BlockPosUtil.writeToNBT(dataCompound, TAG_CORNER_ONE, corner1);
-                            BlockPosUtil.writeToNBT(dataCompound, TAG_CORNER_TWO, corner2);
-                        }
-                    }
-                    newTileEntities[tempPos.getY()][tempPos.getZ()][tempPos.getX()] = compound;
-                }
+                continue;
             }
+
+            final BlockPos tempPos = transformedBlockPos(localPos.getX(), localPos.getY(), localPos.getZ(), mirror, rotation).offset(minX, minY, minZ);
+            final CompoundNBT compound = entry.getValue();
+            transformTileEntityData(compound, tempPos, rotation, mirror);
+            newTileEntities.put(getLocalIndex(tempPos.getX(), tempPos.getY(), tempPos.getZ(), newSizeX, newSizeZ), compound);
         }
 
         for (int i = 0; i < entities.length; i++)
@@ -620,6 +1139,24 @@ public class Blueprint
             }
         }
 
+        // The transform is orthogonal, so its inverse is the transpose. Compose it with the current mapping to the storage.
+        final BlockPos unitX = transformedBlockPos(1, 0, 0, mirror, rotation);
+        final BlockPos unitZ = transformedBlockPos(0, 0, 1, mirror, rotation);
+        final int newXFromX = xFromX * unitX.getX() + xFromZ * unitZ.getX();
+        final int newXFromZ = xFromX * unitX.getZ() + xFromZ * unitZ.getZ();
+        final int newZFromX = zFromX * unitX.getX() + zFromZ * unitZ.getX();
+        final int newZFromZ = zFromX * unitX.getZ() + zFromZ * unitZ.getZ();
+        xOffset -= newXFromX * minX + newXFromZ * minZ;
+        zOffset -= newZFromX * minX + newZFromZ * minZ;
+        xFromX = newXFromX;
+        xFromZ = newXFromZ;
+        zFromX = newZFromX;
+        zFromZ = newZFromZ;
+        stripStructureVoid = true;
+
+        this.palette = palette;
+        this.paletteIndex = null;
+
         BlockPos newOffsetPos = Template.transform(primaryOffset, mirror, rotation, new BlockPos(0, 0, 0));
 
         setCachePrimaryOffset(newOffsetPos.offset(minX, minY, minZ));
@@ -628,13 +1165,55 @@ public class Blueprint
         sizeY = newSizeY;
         sizeZ = newSizeZ;
 
-        this.structure = newStructure;
         this.entities = newEntities;
         this.tileEntities = newTileEntities;
+        this.entityHash = hashEntities(newEntities);
+        this.tileEntityHash = hashTileEntities(newTileEntities);
 
         cacheReset(false);
     }
 
+    /**
+     * Move a tileEntity compound to its transformed position and transform its blueprint data.
+     *
+     * @param compound the tileEntity compound, modified in place.
+     * @param tempPos  the transformed local position.
+     * @param rotation the rotation.
+     * @param mirror   the mirror.
+     */
+    private static void transformTileEntityData(final CompoundNBT compound, final BlockPos tempPos, final Rotation rotation, final Mirror mirror)
+    {
+        compound.putInt("x", tempPos.getX());
+        compound.putInt("y", tempPos.getY());
+        compound.putInt("z", tempPos.getZ());
+
+        if (compound.contains(TAG_BLUEPRINTDATA))
+        {
+            CompoundNBT dataCompound = compound.getCompound(TAG_BLUEPRINTDATA);
+
+            // Rotate tag map
+            final Map<BlockPos, List<String>> tagPosMap = IBlueprintDataProvider.readTagPosMapFrom(dataCompound);
+            final Map<BlockPos, List<String>> newTagPosMap = new HashMap<>();
+
+            for (Map.Entry<BlockPos, List<String>> entry : tagPosMap.entrySet())
+            {
+                BlockPos newPos = transformedBlockPos(entry.getKey()
+                    .getX(), entry.getKey().getY(), entry.getKey().getZ(), mirror, rotation);
+                newTagPosMap.put(newPos, entry.getValue());
+            }
+
+            IBlueprintDataProvider.writeMapToCompound(dataCompound, newTagPosMap);
+
+            // Rotate corners
+            BlockPos corner1 = BlockPosUtil.readFromNBT(dataCompound, TAG_CORNER_ONE);
+            BlockPos corner2 = BlockPosUtil.readFromNBT(dataCompound, TAG_CORNER_TWO);
+            corner1 = transformedBlockPos(corner1.getX(), corner1.getY(), corner1.getZ(), mirror, rotation);
+            corner2 = transformedBlockPos(corner2.getX(), corner2.getY(), corner2.getZ(), mirror, rotation);
+            BlockPosUtil.writeToNBT(dataCompound, TAG_CORNER_ONE, corner1);
+            BlockPosUtil.writeToNBT(dataCompound, TAG_CORNER_TWO, corner2);
+        }
+    }
+
     /**
      * Calculate the transformed size from a blockpos.
      *
@@ -805,16 +1384,182 @@ public class Blueprint
         return (int) sizeX * sizeY * sizeZ;
     }
 
+    /**
+     * Get the content fingerprint of the blueprint.
+     * It covers the size, the block states in local order (with rotation and mirroring applied), tileEntities and entities,
+     * but not the name or how the data is stored, blueprints with the same fingerprint can share caches (renderers, requirements, ...).
+     * The block part is maintained on every edit and rotation, see {@link #getBlockHash()}, pending tileEntity and entity data is hashed from its payload without decoding it.
+     *
+     * @return the 64 bit fingerprint.
+     */
+    public long getFingerprint()
+    {
+        if (!fingerprintValid)
+        {
+            if (tileEntityHashPending)
+            {
+                tileEntityHash = hashTileEntities(pendingTileEntities.get());
+                tileEntityHashPending = false;
+            }
+            if (entityHashPending)
+            {
+                entityHash = hashEntities(toArray(pendingEntities.get()));
+                entityHashPending = false;
+            }
+
+            fingerprint = HashCommon.mix((getBlockHash() * 31 + tileEntityHash) * 31 + entityHash);
+            fingerprintValid = true;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Get the hash of the size and the block states in local order.
+     * The blocks are hashed per orientation of the storage when first needed and updated on every edit, see {@link OrientedBlockHash},
+     * so after an edit or rotation only the palette is hashed again.
+     *
+     * @return the 64 bit hash.
+     */
+    private long getBlockHash()
+    {
+        if (!blockHashValid)
+        {
+            if (blockHashes == null)
+            {
+                blockHashes = new OrientedBlockHash(structure, palette.size());
+            }
+
+            final long[] stateHashes = new long[palette.size()];
+            for (int i = 0; i < stateHashes.length; i++)
+            {
+                final BlockState state = palette.get(i);
+                stateHashes[i] = hashState(stripStructureVoid && state.getBlock() == Blocks.STRUCTURE_VOID ? palette.get(0) : state);
+            }
+
+            final long sizeHash = HashCommon.mix(((long) sizeX << 32) | ((long) sizeY << 16) | sizeZ);
+            blockHash = HashCommon.mix(sizeHash * 31 + blockHashes.hash(stateHashes, xFromX, xFromZ, xOffset, zFromX, zFromZ, zOffset));
+            blockHashValid = true;
+        }
+        return blockHash;
+    }
+
+    /**
+     * Hash a block state by its block and property values, FNV-1a over its string form.
+     *
+     * @param state the state.
+     * @return the 64 bit hash.
+     */
+    private static long hashState(final BlockState state)
+    {
+        final String string = state.toString();
+        long hash = 0xCBF2_9CE4_8422_2325L;
+        for (int i = 0; i < string.length(); i++)
+        {
+            hash ^= string.charAt(i);
+            hash *= 0x0100_0000_01B3L;
+        }
+        return HashCommon.mix(hash);
+    }
+
+    /**
+     * Hash a raw list of tileEntities the same way as {@link #hashTileEntities(Int2ObjectMap)} once they are decoded.
+     *
+     * @param payload the tileEntity list, its positions must be local.
+     * @return the hash.
+     */
+    private long hashTileEntities(final ListNBT payload)
+    {
+        final Int2ObjectMap<CompoundNBT> tileEntities = new Int2ObjectOpenHashMap<>(payload.size());
+        for (int i = 0; i < payload.size(); i++)
+        {
+            final CompoundNBT te = payload.getCompound(i);
+            final short x = te.getShort("x");
+            final short y = te.getShort("y");
+            final short z = te.getShort("z");
+            if (isInside(x, y, z))
+            {
+                tileEntities.put(getLocalIndex(x, y, z), te);
+            }
+        }
+        return hashTileEntities(tileEntities);
+    }
+
+    /**
+     * Copy a raw list of compounds into an array.
+     *
+     * @param payload the list.
+     * @return the compounds.
+     */
+    private static CompoundNBT[] toArray(final ListNBT payload)
+    {
+        final CompoundNBT[] compounds = new CompoundNBT[payload.size()];
+        for (int i = 0; i < compounds.length; i++)
+        {
+            compounds[i] = payload.getCompound(i);
+        }
+        return compounds;
+    }
+
+    /**
+     * Hash a set of tileEntities together with their positions.
+     *
+     * @param tileEntities the tileEntities by packed local position.
+     * @return the hash.
+     */
+    private static long hashTileEntities(final Int2ObjectMap<CompoundNBT> tileEntities)
+    {
+        long hash = 0;
+        for (final Int2ObjectMap.Entry<CompoundNBT> entry : tileEntities.int2ObjectEntrySet())
+        {
+            hash += HashCommon.mix(((long) entry.getIntKey() << 32) | (entry.getValue().hashCode() & 0xFFFFFFFFL));
+        }
+        return hash;
+    }
+
+    /**
+     * Hash a list of entities.
+     *
+     * @param entities the entities.
+     * @return the hash.
+     */
+    private static long hashEntities(final CompoundNBT[] entities)
+    {
+        long hash = 0;
+        for (final CompoundNBT entity : entities)
+        {
+            hash = hash * 31 + (entity == null ? 0 : HashCommon.mix((long) entity.hashCode()));
+        }
+        return hash;
+    }
+
+    /**
+     * Check if the blocks, tileEntities and entities of another blueprint of the same size equal the ones of this blueprint.
+     *
+     * @param other the other blueprint.
+     * @return true if so.
+     */
+    private boolean hasSameContent(final Blueprint other)
+    {
+        for (int y = 0; y < sizeY; y++)
+        {
+            for (int z = 0; z < sizeZ; z++)
+            {
+                for (int x = 0; x < sizeX; x++)
+                {
+                    if (!palette.get(getPaletteIndex(x, y, z) & 0xFFFF).equals(other.palette.get(other.getPaletteIndex(x, y, z) & 0xFFFF)))
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+        return getTileEntityMap().equals(other.getTileEntityMap()) && Arrays.equals(getEntities(), other.getEntities());
+    }
+
     @Override
     public int hashCode()
     {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((name == null) ? 0 : name.hashCode());
-        result = prime * result + palleteSize;
-        result = prime * result + getVolume();
-        result = prime * result + renderSource.hashCode();
-        return result;
+        return HashCommon.long2int(getBlockHash()) * 31 + renderSource.hashCode();
     }
 
     @Override
@@ -829,7 +1574,18 @@ public class Blueprint
             return false;
         }
         final Blueprint other = (Blueprint) obj;
-        return name.equals(other.name) && palleteSize == other.palleteSize && getVolume() == other.getVolume();
+        return sizeX == other.sizeX && sizeY == other.sizeY && sizeZ == other.sizeZ
+                 && renderSource.equals(other.renderSource)
+                 && getBlockHash() == other.getBlockHash()
+                 && hasSameContent(other);
+    }
+
+    /**
+     * @return the render source of the blueprint.
+     */
+    public BlockPos getRenderSource()
+    {
+        return renderSource;
     }
 
     /**
@@ -853,34 +1609,111 @@ public class Blueprint
     public BlueprintPositionInfo getBluePrintPositionInfo(final BlockPos pos, final boolean includeEntities)
     {
         return new BlueprintPositionInfo(pos,
-            getBlockInfoAsMap().get(pos),
-            includeEntities ? getCachedEntitiesAsMap().getOrDefault(pos, new CompoundNBT[0]) : new CompoundNBT[0]);
+            getBlockInfo(pos),
+            includeEntities ? getEntitiesAt(pos) : NO_ENTITIES);
     }
 
     /**
-     * Check if an entityData object is at the local position.
+     * Get the blockstate at a pos.
      * 
-     * @param entityData the data object to check.
-     * @param pos        the pos to check.
-     * @return true if so.
+     * @param pos the pos.
+     * @return the blockstate.
      */
-    private boolean isAtPos(@NotNull final CompoundNBT entityData, final BlockPos pos)
+    @Nullable
+    public BlockState getBlockState(final BlockPos pos)
     {
-        final ListNBT list = entityData.getList(ENTITY_POS, 6);
-        final int x = (int) list.getDouble(0);
-        final int y = (int) list.getDouble(1);
-        final int z = (int) list.getDouble(2);
-        return new BlockPos(x, y, z).equals(pos);
+        if (!isInside(pos.getX(), pos.getY(), pos.getZ()))
+        {
+            return null;
+        }
+        return palette.get(getPaletteIndex(pos.getX(), pos.getY(), pos.getZ()) & 0xFFFF);
     }
 
     /**
-     * Get the blockstate at a pos.
-     * 
-     * @param pos the pos.
-     * @return the blockstate.
+     * Read-only list view of the blocks in y, z, x order.
      */
-    public BlockState getBlockState(final BlockPos pos)
+    private class BlockInfoList extends AbstractList<BlockInfo> implements RandomAccess
     {
-        return getBlockInfoAsMap().get(pos).getState();
+        @Override
+        public BlockInfo get(final int index)
+        {
+            if (index < 0 || index >= size())
+            {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            final int x = index % sizeX;
+            final int z = (index / sizeX) % sizeZ;
+            final int y = index / (sizeX * sizeZ);
+            return getBlockInfo(x, y, z);
+        }
+
+        @Override
+        public int size()
+        {
+            return getVolume();
+        }
+    }
+
+    /**
+     * Read-only map view of the blocks by local position.
+     */
+    private class BlockInfoMap extends AbstractMap<BlockPos, BlockInfo>
+    {
+        /**
+         * The entry view.
+         */
+        private final Set<Entry<BlockPos, BlockInfo>> entrySet = new AbstractSet<Entry<BlockPos, BlockInfo>>()
+        {
+            @Override
+            public Iterator<Entry<BlockPos, BlockInfo>> iterator()
+            {
+                final Iterator<BlockInfo> infos = blockInfoView.iterator();
+                return new Iterator<Entry<BlockPos, BlockInfo>>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return infos.hasNext();
+                    }
+
+                    @Override
+                    public Entry<BlockPos, BlockInfo> next()
+                    {
+                        final BlockInfo info = infos.next();
+                        return new SimpleImmutableEntry<>(info.getPos(), info);
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return getVolume();
+            }
+        };
+
+        @Override
+        public BlockInfo get(final Object key)
+        {
+            return key instanceof BlockPos ? getBlockInfo((BlockPos) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(final Object key)
+        {
+            return key instanceof BlockPos && isInside(((BlockPos) key).getX(), ((BlockPos) key).getY(), ((BlockPos) key).getZ());
+        }
+
+        @Override
+        public int size()
+        {
+            return getVolume();
+        }
+
+        @Override
+        public Set<Entry<BlockPos, BlockInfo>> entrySet()
+        {
+            return entrySet;
+        }
     }
 }
@@ -4,6 +4,8 @@ import com.ldtteam.structurize.api.util.BlockPosUtil;
 import com.ldtteam.structurize.api.util.Log;
 import com.ldtteam.structurize.api.util.constant.Constants;
 import com.ldtteam.structurize.blocks.interfaces.IBlueprintDataProvider;
+import it.unimi.dsi.fastutil.objects.Object2ShortMap;
+import it.unimi.dsi.fastutil.objects.Object2ShortOpenHashMap;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
 import net.minecraft.entity.Entity;
@@ -18,14 +20,16 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.vector.Vector3d;
 import net.minecraft.world.World;
 import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.common.util.Constants.NBT;
 import net.minecraftforge.fml.ModList;
 import org.apache.logging.log4j.LogManager;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.OutputStream;
+import java.io.*;
 import java.util.*;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static com.ldtteam.structurize.blocks.interfaces.IBlueprintDataProvider.*;
 
@@ -39,7 +43,12 @@ public class BlueprintUtil
 {
     private static final int DEFAULT_FIXER_IF_NOT_FOUND = DataVersion.v1_12_2.getDataVersion();
 
-    private static final String NBT_OPTIONAL_DATA_TAG = "optional_data";
+    static final String NBT_OPTIONAL_DATA_TAG = "optional_data";
+
+    /**
+     * Keys written before all others, so that a streaming reader knows the size before it reaches the block data.
+     */
+    private static final String[] HEADER_KEYS = {"version", "size_x", "size_y", "size_z", "mcversion"};
 
     /**
      * Generates a Blueprint objects from the world
@@ -63,9 +72,12 @@ public class BlueprintUtil
       Optional<BlockPos> anchorPos)
     {
         final List<BlockState> pallete = new ArrayList<>();
+        final Object2ShortMap<BlockState> palleteIndex = new Object2ShortOpenHashMap<>();
+        palleteIndex.defaultReturnValue((short) -1);
         // Allways add AIR to Pallete
         pallete.add(Blocks.AIR.defaultBlockState());
-        final short[][][] structure = new short[sizeY][sizeZ][sizeX];
+        palleteIndex.put(Blocks.AIR.defaultBlockState(), (short) 0);
+        final PalettedBlockStorage structure = new PalettedBlockStorage(sizeX, sizeY, sizeZ);
         final List<CompoundNBT> tileEntities = new ArrayList<>();
 
         final List<String> requiredMods = new ArrayList<>();
@@ -82,7 +94,7 @@ public class BlueprintUtil
             {
                 if (!ModList.get().getModContainerById(modName).isPresent())
                 {
-                    structure[y][z][x] = (short) pallete.indexOf(Blocks.AIR.defaultBlockState());
+                    structure.set(x, y, z, palleteIndex.getShort(Blocks.AIR.defaultBlockState()));
                     continue;
                 }
                 if (!requiredMods.contains(modName))
@@ -100,11 +112,14 @@ public class BlueprintUtil
                 teTag.putShort("z", z);
                 tileEntities.add(teTag);
             }
-            if (!pallete.contains(state))
+            short index = palleteIndex.getShort(state);
+            if (index == -1)
             {
+                index = (short) pallete.size();
                 pallete.add(state);
+                palleteIndex.put(state, index);
             }
-            structure[y][z][x] = (short) pallete.indexOf(state);
+            structure.set(x, y, z, index);
         }
 
         final CompoundNBT[] tes = tileEntities.toArray(new CompoundNBT[0]);
@@ -155,7 +170,7 @@ public class BlueprintUtil
         final TileEntity tile = world.getBlockEntity(pos.offset(schem.getPrimaryBlockOffset()));
         if (tile instanceof IBlueprintDataProvider)
         {
-            final CompoundNBT blueprintData = (CompoundNBT) schem.getBlockInfoAsMap().get(schem.getPrimaryBlockOffset()).getTileEntityData().get(TAG_BLUEPRINTDATA);
+            final CompoundNBT blueprintData = (CompoundNBT) schem.getBlockInfo(schem.getPrimaryBlockOffset()).getTileEntityData().get(TAG_BLUEPRINTDATA);
 
             if (name != null)
             {
@@ -191,10 +206,39 @@ public class BlueprintUtil
      * @return An CompoundNBT containing the Blueprint Data
      */
     public static CompoundNBT writeBlueprintToNBT(final Blueprint schem)
+    {
+        final CompoundNBT tag = writeHeaderToNBT(schem, (byte) 1);
+
+        // Adding blocks
+        final int[] blockInt = convertBlocksToSaveData(schem);
+        tag.putIntArray("blocks", blockInt);
+
+        // Adding Tile Entities
+        final ListNBT finishedTes = new ListNBT();
+        finishedTes.addAll(schem.getTileEntities());
+        tag.put("tile_entities", finishedTes);
+
+        // Adding Entities
+        final ListNBT finishedEntities = new ListNBT();
+        final CompoundNBT[] entities = schem.getEntities();
+        finishedEntities.addAll(Arrays.asList(entities));
+        tag.put("entities", finishedEntities);
+
+        return tag;
+    }
+
+    /**
+     * Serializes everything but the blocks, tileEntities and entities of a Blueprint.
+     *
+     * @param schem   The Blueprint to serialize
+     * @param version the format version to store.
+     * @return An CompoundNBT containing the Blueprint header
+     */
+    static CompoundNBT writeHeaderToNBT(final Blueprint schem, final byte version)
     {
         final CompoundNBT tag = new CompoundNBT();
         // Set Blueprint Version
-        tag.putByte("version", (byte) 1);
+        tag.putByte("version", version);
         // Set Blueprint Size
         tag.putShort("size_x", schem.getSizeX());
         tag.putShort("size_y", schem.getSizeY());
@@ -209,26 +253,6 @@ public class BlueprintUtil
         }
         tag.put("palette", paletteTag);
 
-        // Adding blocks
-        final int[] blockInt = convertBlocksToSaveData(schem.getStructure(), schem.getSizeX(), schem.getSizeY(), schem.getSizeZ());
-        tag.putIntArray("blocks", blockInt);
-
-        // Adding Tile Entities
-        final ListNBT finishedTes = new ListNBT();
-        final CompoundNBT[] tes = Arrays.stream(schem.getTileEntities())
-                                    .flatMap(Arrays::stream)
-                                    .flatMap(Arrays::stream)
-                                    .filter(Objects::nonNull)
-                                    .toArray(CompoundNBT[]::new);
-        finishedTes.addAll(Arrays.asList(tes));
-        tag.put("tile_entities", finishedTes);
-
-        // Adding Entities
-        final ListNBT finishedEntities = new ListNBT();
-        final CompoundNBT[] entities = schem.getEntities();
-        finishedEntities.addAll(Arrays.asList(entities));
-        tag.put("entities", finishedEntities);
-
         // Adding Required Mods
         final List<String> requiredMods = schem.getRequiredMods();
         final ListNBT modsList = new ListNBT();
@@ -279,18 +303,9 @@ public class BlueprintUtil
             final CompoundNBT nbt = paletteTag.getCompound(i);
             try
             {
-                final CompoundNBT fixedNbt = DataFixerUtils.runDataFixer(nbt, TypeReferences.BLOCK_STATE, oldDataVersion);
-
-                switch (oldDataVersion)
-                {
-                    case 1343:
-                        fixPalette1343(fixedNbt);
-                    default:
-                        // don't fix anything
-                        break;
-                }
-
-                final BlockState state = NBTUtil.readBlockState(fixedNbt);
+                final BlockState state = oldDataVersion == SharedConstants.getCurrentVersion().getWorldVersion()
+                                           ? NBTUtil.readBlockState(nbt)
+                                           : PaletteFixCache.INSTANCE.getOrFix(oldDataVersion, nbt, entry -> fixPaletteEntry(oldDataVersion, entry));
                 palette.add(i, state);
             }
             catch (final Exception e)
@@ -303,6 +318,28 @@ public class BlueprintUtil
         return palette;
     }
 
+    /**
+     * Runs the datafixer on a palette entry.
+     *
+     * @param oldDataVersion the data version of the entry.
+     * @param nbt            the entry.
+     * @return the fixed entry.
+     */
+    private static CompoundNBT fixPaletteEntry(final int oldDataVersion, final CompoundNBT nbt)
+    {
+        final CompoundNBT fixedNbt = DataFixerUtils.runDataFixer(nbt, TypeReferences.BLOCK_STATE, oldDataVersion);
+
+        switch (oldDataVersion)
+        {
+            case 1343:
+                fixPalette1343(fixedNbt);
+            default:
+                // don't fix anything
+                break;
+        }
+        return fixedNbt;
+    }
+
     private static void fixPalette1343(final CompoundNBT oldBlockState)
     {
         final String name = oldBlockState.getString("Name");
@@ -409,19 +446,16 @@ public class BlueprintUtil
         return entities;
     }
 
-    private static List<BlockPos> searchForBlockIdInBlocks(final short idToCheck, final short[][][] blocks)
+    private static List<BlockPos> searchForBlockIdInBlocks(final short idToCheck, final PalettedBlockStorage blocks)
     {
         final List<BlockPos> result = new ArrayList<>();
-        for (short y = 0; y < blocks.length; y++)
+        for (short y = 0; y < blocks.getSizeY(); y++)
         {
-            final short[][] temp = blocks[y];
-            for (short z = 0; z < temp.length; z++)
+            for (short z = 0; z < blocks.getSizeZ(); z++)
             {
-                final short[] temp2 = temp[z];
-                for (short x = 0; x < temp2.length; x++)
+                for (short x = 0; x < blocks.getSizeX(); x++)
                 {
-                    final short id = temp2[x];
-                    if (id == idToCheck)
+                    if (blocks.get(x, y, z) == idToCheck)
                     {
                         result.add(new BlockPos(x, y, z));
                     }
@@ -451,7 +485,7 @@ public class BlueprintUtil
 
     private static void teToBlockStateFix(
       final List<BlockState> palette,
-      final short[][][] blocks,
+      final PalettedBlockStorage blocks,
       final CompoundNBT[] tileEntities,
       final short paletteIndex,
       final Function<CompoundNBT, CompoundNBT> dataFixer)
@@ -479,13 +513,13 @@ public class BlueprintUtil
                 newBlocksToBlockId.put(newBlockState, newBlockId);
                 paletteFull = true;
             }
-            blocks[e.getValue().getY()][e.getValue().getZ()][e.getValue().getX()] = newBlockId;
+            blocks.set(e.getValue().getX(), e.getValue().getY(), e.getValue().getZ(), newBlockId);
         }
     }
 
     private static void fixCross1343(
       final List<BlockState> palette,
-      final short[][][] blocks,
+      final PalettedBlockStorage blocks,
       final CompoundNBT[] tileEntities,
       final CompoundNBT[] entities)
     {
@@ -529,75 +563,350 @@ public class BlueprintUtil
         {
             short sizeX = tag.getShort("size_x"), sizeY = tag.getShort("size_y"), sizeZ = tag.getShort("size_z");
 
-            // Reading required Mods
-            List<String> requiredMods = new ArrayList<>();
-            List<String> missingMods = new ArrayList<>();
-            ListNBT modsList = (ListNBT) tag.get("required_mods");
-            short modListSize = (short) modsList.size();
-            for (int i = 0; i < modListSize; i++)
+            // Reading Blocks
+            PalettedBlockStorage blocks = convertSaveDataToBlocks(tag.getIntArray("blocks"), sizeX, sizeY, sizeZ);
+
+            return buildBlueprint(tag, blocks, () -> (ListNBT) tag.get("tile_entities"), () -> (ListNBT) tag.get("entities"));
+        }
+        return null;
+    }
+
+    /**
+     * Reads a Blueprint from the bytes of a blueprint file of any supported format.
+     *
+     * @param data the file content.
+     * @return the Blueprint or null if the version is not supported.
+     * @throws IOException if the data is not a valid blueprint file.
+     */
+    public static Blueprint readBlueprint(final byte[] data) throws IOException
+    {
+        if (SectionedBlueprintFile.isSectioned(data))
+        {
+            return SectionedBlueprintFile.open(data).readBlueprint();
+        }
+        return readBlueprintFromStream(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Reads a Blueprint from the gzipped bytes of a blueprint file without materializing the full NBT tree.
+     * The block data is decoded straight into the packed storage (if the size is stored in front of it, which
+     * {@link #writeCompressed(CompoundNBT, OutputStream)} guarantees), tileEntity and entity data is kept serialized
+     * until the blueprint first accesses it.
+     *
+     * @param stream the gzipped blueprint.
+     * @return the Blueprint or null if the version is not supported.
+     * @throws IOException if the data is not a valid blueprint file.
+     */
+    public static Blueprint readBlueprintFromStream(final InputStream stream) throws IOException
+    {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream)));
+        if (in.readByte() != NBT.TAG_COMPOUND)
+        {
+            throw new IOException("Root tag must be a named compound tag");
+        }
+        in.readUTF();
+
+        final CompoundNBT tag = new CompoundNBT();
+        PalettedBlockStorage blocks = null;
+        int[] blockData = null;
+        byte[] tileEntityData = null;
+        byte[] entityData = null;
+
+        for (byte type = in.readByte(); type != NBT.TAG_END; type = in.readByte())
+        {
+            final String key = in.readUTF();
+            if (key.equals("blocks") && type == NBT.TAG_INT_ARRAY)
             {
-                requiredMods.add((modsList.get(i)).getAsString());
-                if (!requiredMods.get(i).equals("minecraft") && !ModList.get().getModContainerById(requiredMods.get(i)).isPresent())
+                if (tag.contains("size_x") && tag.contains("size_y") && tag.contains("size_z"))
+                {
+                    blocks = readBlocks(in, tag.getShort("size_x"), tag.getShort("size_y"), tag.getShort("size_z"));
+                }
+                else
                 {
-                    LogManager.getLogger().warn("Found missing mods for Blueprint, some blocks may be missing: " + requiredMods.get(i));
-                    missingMods.add(requiredMods.get(i));
+                    blockData = IntArrayNBT.TYPE.load(in, 1, NBTSizeTracker.UNLIMITED).getAsIntArray();
                 }
             }
+            else if (key.equals("tile_entities") && type == NBT.TAG_LIST)
+            {
+                tileEntityData = copyPayload(type, in);
+            }
+            else if (key.equals("entities") && type == NBT.TAG_LIST)
+            {
+                entityData = copyPayload(type, in);
+            }
+            else
+            {
+                tag.put(key, NBTTypes.getType(type).load(in, 1, NBTSizeTracker.UNLIMITED));
+            }
+        }
 
-            final int oldDataVersion = tag.contains("mcversion") ? tag.getInt("mcversion") : DEFAULT_FIXER_IF_NOT_FOUND;
-
-            // Reading Pallete
-            ListNBT paletteTag = (ListNBT) tag.get("palette");
-            List<BlockState> palette = fixPalette(oldDataVersion, paletteTag);
-
-            // Reading Blocks
-            short[][][] blocks = convertSaveDataToBlocks(tag.getIntArray("blocks"), sizeX, sizeY, sizeZ);
+        if (tag.getByte("version") != 1)
+        {
+            return null;
+        }
 
-            // Reading Tile Entities
-            CompoundNBT[] tileEntities = fixTileEntities(oldDataVersion, (ListNBT) tag.get("tile_entities"));
+        final short sizeX = tag.getShort("size_x"), sizeY = tag.getShort("size_y"), sizeZ = tag.getShort("size_z");
+        if (blocks == null)
+        {
+            blocks = convertSaveDataToBlocks(blockData == null ? new int[0] : blockData, sizeX, sizeY, sizeZ);
+        }
 
-            // Reading Entities
-            CompoundNBT[] entities = fixEntities(oldDataVersion, (ListNBT) tag.get("entities"));
+        final byte[] finalTileEntityData = tileEntityData;
+        final byte[] finalEntityData = entityData;
+        return buildBlueprint(tag, blocks, () -> readList(finalTileEntityData), () -> readList(finalEntityData));
+    }
 
-            if (oldDataVersion == DEFAULT_FIXER_IF_NOT_FOUND)
+    /**
+     * Builds the Blueprint out of the data of a version 1 or 2 blueprint.
+     *
+     * @param tag          the blueprint tag, block, tileEntity and entity data are not read from it.
+     * @param blocks       the block data.
+     * @param tileEntities supplier of the tileEntity list.
+     * @param entities     supplier of the entity list.
+     * @return the Blueprint.
+     */
+    static Blueprint buildBlueprint(
+      final CompoundNBT tag,
+      final PalettedBlockStorage blocks,
+      final Supplier<ListNBT> tileEntities,
+      final Supplier<ListNBT> entities)
+    {
+        short sizeX = tag.getShort("size_x"), sizeY = tag.getShort("size_y"), sizeZ = tag.getShort("size_z");
+
+        // Reading required Mods
+        List<String> requiredMods = new ArrayList<>();
+        List<String> missingMods = new ArrayList<>();
+        ListNBT modsList = (ListNBT) tag.get("required_mods");
+        short modListSize = (short) modsList.size();
+        for (int i = 0; i < modListSize; i++)
+        {
+            requiredMods.add((modsList.get(i)).getAsString());
+            if (!requiredMods.get(i).equals("minecraft") && !ModList.get().getModContainerById(requiredMods.get(i)).isPresent())
             {
-                fixCross1343(palette, blocks, tileEntities, entities);
+                LogManager.getLogger().warn("Found missing mods for Blueprint, some blocks may be missing: " + requiredMods.get(i));
+                missingMods.add(requiredMods.get(i));
             }
+        }
+
+        final int oldDataVersion = tag.contains("mcversion") ? tag.getInt("mcversion") : DEFAULT_FIXER_IF_NOT_FOUND;
 
-            final Blueprint schem = new Blueprint(sizeX, sizeY, sizeZ, (short) palette.size(), palette, blocks, tileEntities, requiredMods)
-                                      .setMissingMods(missingMods.toArray(new String[0]));
+        // Reading Pallete
+        ListNBT paletteTag = (ListNBT) tag.get("palette");
+        List<BlockState> palette = fixPalette(oldDataVersion, paletteTag);
+
+        final Blueprint schem;
+        if (oldDataVersion == DEFAULT_FIXER_IF_NOT_FOUND)
+        {
+            // The 1.13 fix needs all data at once
+            final CompoundNBT[] tileEntitiesArr = fixTileEntities(oldDataVersion, tileEntities.get());
+            final CompoundNBT[] entitiesArr = fixEntities(oldDataVersion, entities.get());
+
+            fixCross1343(palette, blocks, tileEntitiesArr, entitiesArr);
+
+            schem = new Blueprint(sizeX, sizeY, sizeZ, (short) palette.size(), palette, blocks, tileEntitiesArr, requiredMods);
+            schem.setEntities(entitiesArr);
+        }
+        else
+        {
+            schem = new Blueprint(sizeX, sizeY, sizeZ, (short) palette.size(), palette, blocks, new CompoundNBT[0], requiredMods);
+            schem.setPendingTileEntities(tileEntities, payload -> fixTileEntities(oldDataVersion, payload));
+            schem.setPendingEntities(entities, payload -> fixEntities(oldDataVersion, payload));
+        }
+        schem.setMissingMods(missingMods.toArray(new String[0]));
 
-            schem.setEntities(entities);
+        if (tag.getAllKeys().contains("name"))
+        {
+            schem.setName(tag.getString("name"));
+        }
+        if (tag.getAllKeys().contains("architects"))
+        {
+            ListNBT architectsTag = (ListNBT) tag.get("architects");
+            String[] architects = new String[architectsTag.size()];
+            for (int i = 0; i < architectsTag.size(); i++)
+            {
+                architects[i] = architectsTag.getString(i);
+            }
+            schem.setArchitects(architects);
+        }
 
-            if (tag.getAllKeys().contains("name"))
+        if (tag.getAllKeys().contains(NBT_OPTIONAL_DATA_TAG))
+        {
+            final CompoundNBT optionalTag = tag.getCompound(NBT_OPTIONAL_DATA_TAG);
+            if (optionalTag.getAllKeys().contains(MOD_ID))
             {
-                schem.setName(tag.getString("name"));
+                final CompoundNBT structurizeTag = optionalTag.getCompound(MOD_ID);
+                BlockPos offsetPos = BlockPosUtil.readFromNBT(structurizeTag, "primary_offset");
+                schem.setCachePrimaryOffset(offsetPos);
             }
-            if (tag.getAllKeys().contains("architects"))
+        }
+
+        return schem;
+    }
+
+    /**
+     * Decodes an int array payload of packed block data straight into a new block storage.
+     *
+     * @param in    the stream, positioned at the payload.
+     * @param sizeX Sturcture size on the X-Axis
+     * @param sizeY Sturcture size on the Y-Axis
+     * @param sizeZ Sturcture size on the Z-Axis
+     * @return the filled block storage
+     * @throws IOException if the stream ends early.
+     */
+    private static PalettedBlockStorage readBlocks(final DataInput in, final short sizeX, final short sizeY, final short sizeZ) throws IOException
+    {
+        final PalettedBlockStorage blocks = new PalettedBlockStorage(sizeX, sizeY, sizeZ);
+        int remaining = in.readInt();
+
+        int i = 0;
+        int packed = 0;
+        for (short y = 0; y < sizeY; y++)
+        {
+            for (short z = 0; z < sizeZ; z++)
             {
-                ListNBT architectsTag = (ListNBT) tag.get("architects");
-                String[] architects = new String[architectsTag.size()];
-                for (int i = 0; i < architectsTag.size(); i++)
+                for (short x = 0; x < sizeX; x++)
                 {
-                    architects[i] = architectsTag.getString(i);
+                    if ((i & 1) == 0)
+                    {
+                        if (remaining == 0)
+                        {
+                            return blocks;
+                        }
+                        packed = in.readInt();
+                        remaining--;
+                    }
+                    blocks.set(x, y, z, (short) ((i & 1) == 0 ? packed >> 16 : packed));
+                    i++;
                 }
-                schem.setArchitects(architects);
             }
+        }
 
-            if (tag.getAllKeys().contains(NBT_OPTIONAL_DATA_TAG))
-            {
-                final CompoundNBT optionalTag = tag.getCompound(NBT_OPTIONAL_DATA_TAG);
-                if (optionalTag.getAllKeys().contains(MOD_ID))
+        for (; remaining > 0; remaining--)
+        {
+            in.readInt();
+        }
+        return blocks;
+    }
+
+    /**
+     * Copies the payload of a tag without decoding it.
+     *
+     * @param type the tag type.
+     * @param in   the stream, positioned at the payload.
+     * @return the serialized payload.
+     * @throws IOException if the stream ends early or the data is malformed.
+     */
+    private static byte[] copyPayload(final byte type, final DataInput in) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        copyPayload(type, in, new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Copies the payload of a tag from the input to the output.
+     *
+     * @param type the tag type.
+     * @param in   the input.
+     * @param out  the output.
+     * @throws IOException if the stream ends early or the data is malformed.
+     */
+    private static void copyPayload(final byte type, final DataInput in, final DataOutput out) throws IOException
+    {
+        switch (type)
+        {
+            case NBT.TAG_BYTE:
+                out.writeByte(in.readByte());
+                break;
+            case NBT.TAG_SHORT:
+                out.writeShort(in.readShort());
+                break;
+            case NBT.TAG_INT:
+            case NBT.TAG_FLOAT:
+                out.writeInt(in.readInt());
+                break;
+            case NBT.TAG_LONG:
+            case NBT.TAG_DOUBLE:
+                out.writeLong(in.readLong());
+                break;
+            case NBT.TAG_BYTE_ARRAY:
+                copyArray(in, out, 1);
+                break;
+            case NBT.TAG_STRING:
+                out.writeUTF(in.readUTF());
+                break;
+            case NBT.TAG_LIST:
+                final byte elementType = in.readByte();
+                final int size = in.readInt();
+                out.writeByte(elementType);
+                out.writeInt(size);
+                for (int i = 0; i < size; i++)
                 {
-                    final CompoundNBT structurizeTag = optionalTag.getCompound(MOD_ID);
-                    BlockPos offsetPos = BlockPosUtil.readFromNBT(structurizeTag, "primary_offset");
-                    schem.setCachePrimaryOffset(offsetPos);
+                    copyPayload(elementType, in, out);
                 }
-            }
+                break;
+            case NBT.TAG_COMPOUND:
+                for (byte entryType = in.readByte(); entryType != NBT.TAG_END; entryType = in.readByte())
+                {
+                    out.writeByte(entryType);
+                    out.writeUTF(in.readUTF());
+                    copyPayload(entryType, in, out);
+                }
+                out.writeByte(NBT.TAG_END);
+                break;
+            case NBT.TAG_INT_ARRAY:
+                copyArray(in, out, 4);
+                break;
+            case NBT.TAG_LONG_ARRAY:
+                copyArray(in, out, 8);
+                break;
+            default:
+                throw new IOException("Unknown tag type " + type);
+        }
+    }
+
+    /**
+     * Copies a length prefixed array payload.
+     *
+     * @param in          the input.
+     * @param out         the output.
+     * @param elementSize the size of an element in bytes.
+     * @throws IOException if the stream ends early.
+     */
+    private static void copyArray(final DataInput in, final DataOutput out, final int elementSize) throws IOException
+    {
+        final int length = in.readInt();
+        if (length < 0)
+        {
+            throw new IOException("Negative array length " + length);
+        }
+        final byte[] data = new byte[length * elementSize];
+        in.readFully(data);
+        out.writeInt(length);
+        out.write(data);
+    }
 
-            return schem;
+    /**
+     * Decodes a serialized list payload.
+     *
+     * @param data the payload, null for an empty list.
+     * @return the list.
+     */
+    private static ListNBT readList(final byte[] data)
+    {
+        if (data == null)
+        {
+            return new ListNBT();
+        }
+        try
+        {
+            return ListNBT.TYPE.load(new DataInputStream(new ByteArrayInputStream(data)), 1, NBTSizeTracker.UNLIMITED);
+        }
+        catch (final IOException e)
+        {
+            Log.getLogger().warn("Blueprint reader: failed to decode deferred list", e);
+            return new ListNBT();
         }
-        return null;
     }
 
     /**
@@ -610,7 +919,7 @@ public class BlueprintUtil
     {
         try
         {
-            CompressedStreamTools.writeCompressed(writeBlueprintToNBT(schem), os);
+            writeCompressed(writeBlueprintToNBT(schem), os);
         }
         catch (IOException e)
         {
@@ -619,18 +928,64 @@ public class BlueprintUtil
     }
 
     /**
-     * Converts a 3 Dimensional short Array to a one Dimensional int Array
+     * Writes a blueprint tag gzipped like {@link CompressedStreamTools#writeCompressed(CompoundNBT, OutputStream)},
+     * but with the size in front so that {@link #readBlueprintFromStream(InputStream)} can decode the blocks while streaming.
+     *
+     * @param tag the blueprint tag.
+     * @param os  the Output Stream to write to.
+     * @throws IOException if writing fails.
+     */
+    public static void writeCompressed(final CompoundNBT tag, final OutputStream os) throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(os))))
+        {
+            out.writeByte(NBT.TAG_COMPOUND);
+            out.writeUTF("");
+
+            final List<String> keys = new ArrayList<>(tag.getAllKeys());
+            for (final String key : HEADER_KEYS)
+            {
+                if (keys.remove(key))
+                {
+                    writeEntry(out, key, tag.get(key));
+                }
+            }
+            for (final String key : keys)
+            {
+                writeEntry(out, key, tag.get(key));
+            }
+            out.writeByte(NBT.TAG_END);
+        }
+    }
+
+    /**
+     * Writes a named tag entry of a compound.
      *
-     * @param multDimArray 3 Dimensional short Array
-     * @param sizeX        Sturcture size on the X-Axis
-     * @param sizeY        Sturcture size on the Y-Axis
-     * @param sizeZ        Sturcture size on the Z-Axis
+     * @param out   the output.
+     * @param key   the name.
+     * @param value the tag.
+     * @throws IOException if writing fails.
+     */
+    private static void writeEntry(final DataOutput out, final String key, final INBT value) throws IOException
+    {
+        out.writeByte(value.getId());
+        out.writeUTF(key);
+        value.write(out);
+    }
+
+    /**
+     * Converts the blocks of a blueprint (with its rotation and mirroring applied) to a one Dimensional int Array,
+     * two palette indices per int (y, z, x order).
+     *
+     * @param schem the blueprint
      * @return An 1 Dimensional int array
      */
-    private static int[] convertBlocksToSaveData(short[][][] multDimArray, short sizeX, short sizeY, short sizeZ)
+    private static int[] convertBlocksToSaveData(final Blueprint schem)
     {
-        // Converting 3 Dimensional Array to One DImensional
-        short[] oneDimArray = new short[sizeX * sizeY * sizeZ];
+        final short sizeX = schem.getSizeX();
+        final short sizeY = schem.getSizeY();
+        final short sizeZ = schem.getSizeZ();
+        final int[] ints = new int[(int) Math.ceil(sizeX * sizeY * sizeZ / 2f)];
 
         int j = 0;
         for (short y = 0; y < sizeY; y++)
@@ -639,51 +994,34 @@ public class BlueprintUtil
             {
                 for (short x = 0; x < sizeX; x++)
                 {
-                    oneDimArray[j++] = multDimArray[y][z][x];
+                    final int value = schem.getPaletteIndex(x, y, z) & 0xFFFF;
+                    if ((j & 1) == 0)
+                    {
+                        ints[j >> 1] = value << 16;
+                    }
+                    else
+                    {
+                        ints[j >> 1] |= value;
+                    }
+                    j++;
                 }
             }
         }
-
-        // Converting short Array to int Array
-        int[] ints = new int[(int) Math.ceil(oneDimArray.length / 2f)];
-
-        int currentInt;
-        for (int i = 1; i < oneDimArray.length; i += 2)
-        {
-            currentInt = oneDimArray[i - 1];
-            currentInt = currentInt << 16 | oneDimArray[i];
-            ints[(int) Math.ceil(i / 2f) - 1] = currentInt;
-        }
-        if (oneDimArray.length % 2 == 1)
-        {
-            currentInt = oneDimArray[oneDimArray.length - 1] << 16;
-            ints[ints.length - 1] = currentInt;
-        }
         return ints;
     }
 
     /**
-     * Converts a 1 Dimensional int Array to a 3 Dimensional short Array
+     * Converts a 1 Dimensional int Array straight into a packed block storage.
      *
      * @param ints  1 Dimensioanl int Array
      * @param sizeX Sturcture size on the X-Axis
      * @param sizeY Sturcture size on the Y-Axis
      * @param sizeZ Sturcture size on the Z-Axis
-     * @return An 3 Dimensional short array
+     * @return the filled block storage
      */
-    private static short[][][] convertSaveDataToBlocks(int[] ints, short sizeX, short sizeY, short sizeZ)
+    private static PalettedBlockStorage convertSaveDataToBlocks(int[] ints, short sizeX, short sizeY, short sizeZ)
     {
-        // Convert int array to short array
-        short[] oneDimArray = new short[ints.length * 2];
-
-        for (int i = 0; i < ints.length; i++)
-        {
-            oneDimArray[i * 2] = (short) (ints[i] >> 16);
-            oneDimArray[(i * 2) + 1] = (short) (ints[i]);
-        }
-
-        // Convert 1 Dimensional Array to 3 Dimensional Array
-        short[][][] multDimArray = new short[sizeY][sizeZ][sizeX];
+        final PalettedBlockStorage blocks = new PalettedBlockStorage(sizeX, sizeY, sizeZ);
 
         int i = 0;
         for (short y = 0; y < sizeY; y++)
@@ -692,10 +1030,12 @@ public class BlueprintUtil
             {
                 for (short x = 0; x < sizeX; x++)
                 {
-                    multDimArray[y][z][x] = oneDimArray[i++];
+                    final int packed = ints[i >> 1];
+                    blocks.set(x, y, z, (short) ((i & 1) == 0 ? packed >> 16 : packed));
+                    i++;
                 }
             }
         }
-        return multDimArray;
+        return blocks;
     }
 }
@@ -0,0 +1,443 @@
+package com.ldtteam.structures.blueprints.v1;
+
+import java.util.Arrays;
+
+/**
+ * Incrementally maintained hash of the blocks of a blueprint, as seen through any of the eight rotations and mirrors of its storage.
+ * <p>
+ * The hash of a view is the sum over its positions of {@code RX^x * RY^y * RZ^z * stateHash} modulo the mersenne prime 2^61-1.
+ * A rotation or mirror only maps the view coordinates to the storage coordinates, so per orientation and palette index the sum of the
+ * positional factors is kept in storage coordinates. Writing a block updates these sums in constant time, the hash of a view is then
+ * combined from them and the state hashes of its palette in O(palette), no matter how often the blueprint was rotated.
+ */
+final class OrientedBlockHash
+{
+    /**
+     * The modulus, the mersenne prime 2^61-1.
+     */
+    private static final long MOD = (1L << 61) - 1;
+
+    /**
+     * The bases of the positional factors and the inverses of the horizontal ones.
+     */
+    private static final long RX     = 0x0F3A_1B2C_5D6E_7F81L % MOD;
+    private static final long RY     = 0x1C8E_4A2F_9B3D_6E07L % MOD;
+    private static final long RZ     = 0x05D2_7C9E_3A1F_8B4DL % MOD;
+    private static final long RX_INV = pow(RX, MOD - 2);
+    private static final long RZ_INV = pow(RZ, MOD - 2);
+
+    /**
+     * The bases a storage coordinate may be raised to, indexed by {@link #getBaseIndex(int, int)}.
+     */
+    private static final long[] BASES = {RX, RX_INV, RZ, RZ_INV};
+
+    /**
+     * The amount of orientations.
+     */
+    private static final int ORIENTATIONS = 8;
+
+    /**
+     * The size of the storage.
+     */
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+
+    /**
+     * The powers of the horizontal bases by storage coordinate, and their prefix sums.
+     */
+    private final long[][] powers;
+    private final long[][] powerSums;
+
+    /**
+     * The powers of {@link #RY} by storage coordinate, and their prefix sums.
+     */
+    private final long[] powersY;
+    private final long[] powerSumsY;
+
+    /**
+     * The sums of the positional factors by orientation and palette index.
+     */
+    private long[][] sums;
+
+    /**
+     * Create a new hash of a storage.
+     *
+     * @param storage     the storage.
+     * @param paletteSize the size of the palette.
+     */
+    OrientedBlockHash(final PalettedBlockStorage storage, final int paletteSize)
+    {
+        this.sizeX = storage.getSizeX();
+        this.sizeY = storage.getSizeY();
+        this.sizeZ = storage.getSizeZ();
+
+        final int horizontal = Math.max(sizeX, sizeZ);
+        this.powers = new long[BASES.length][];
+        this.powerSums = new long[BASES.length][];
+        for (int i = 0; i < BASES.length; i++)
+        {
+            powers[i] = powerTable(BASES[i], horizontal);
+            powerSums[i] = prefixSums(powers[i]);
+        }
+        this.powersY = powerTable(RY, sizeY);
+        this.powerSumsY = prefixSums(powersY);
+
+        this.sums = new long[ORIENTATIONS][Math.max(1, paletteSize)];
+        for (int sectionY = 0; sectionY < storage.getSectionsY(); sectionY++)
+        {
+            for (int sectionZ = 0; sectionZ < storage.getSectionsZ(); sectionZ++)
+            {
+                for (int sectionX = 0; sectionX < storage.getSectionsX(); sectionX++)
+                {
+                    addSection(storage.getSection(sectionX, sectionY, sectionZ), sectionX, sectionY, sectionZ);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a copy of another hash.
+     *
+     * @param other the hash to copy.
+     */
+    private OrientedBlockHash(final OrientedBlockHash other)
+    {
+        this.sizeX = other.sizeX;
+        this.sizeY = other.sizeY;
+        this.sizeZ = other.sizeZ;
+        this.powers = other.powers;
+        this.powerSums = other.powerSums;
+        this.powersY = other.powersY;
+        this.powerSumsY = other.powerSumsY;
+        this.sums = new long[ORIENTATIONS][];
+        for (int i = 0; i < ORIENTATIONS; i++)
+        {
+            sums[i] = other.sums[i].clone();
+        }
+    }
+
+    /**
+     * @return a copy of this hash, the power tables are shared.
+     */
+    OrientedBlockHash copy()
+    {
+        return new OrientedBlockHash(this);
+    }
+
+    /**
+     * Update the hash for a write to the storage.
+     *
+     * @param x        the storage x.
+     * @param y        the storage y.
+     * @param z        the storage z.
+     * @param oldValue the palette index which was there.
+     * @param newValue the palette index written.
+     */
+    void update(final int x, final int y, final int z, final int oldValue, final int newValue)
+    {
+        if (oldValue == newValue)
+        {
+            return;
+        }
+
+        ensureCapacity(Math.max(oldValue, newValue) + 1);
+        for (int orientation = 0; orientation < ORIENTATIONS; orientation++)
+        {
+            final long factor = factor(orientation, x, y, z);
+            sums[orientation][oldValue] = sub(sums[orientation][oldValue], factor);
+            sums[orientation][newValue] = add(sums[orientation][newValue], factor);
+        }
+    }
+
+    /**
+     * Get the hash of a view of the storage.
+     * The view maps its coordinates to the storage by {@code storageX = xFromX * x + xFromZ * z + xOffset}
+     * and {@code storageZ = zFromX * x + zFromZ * z + zOffset}, which has to be a rotation and/or mirror.
+     *
+     * @param stateHashes the 64 bit hashes of the states the palette indices show in the view.
+     * @param xFromX      the view x factor of the storage x.
+     * @param xFromZ      the view z factor of the storage x.
+     * @param xOffset     the offset of the storage x.
+     * @param zFromX      the view x factor of the storage z.
+     * @param zFromZ      the view z factor of the storage z.
+     * @param zOffset     the offset of the storage z.
+     * @return the hash.
+     */
+    long hash(
+      final long[] stateHashes,
+      final int xFromX,
+      final int xFromZ,
+      final int xOffset,
+      final int zFromX,
+      final int zFromZ,
+      final int zOffset)
+    {
+        final long[] orientationSums = sums[getOrientation(xFromX, xFromZ, zFromX, zFromZ)];
+        long hash = 0;
+        for (int i = 0; i < stateHashes.length && i < orientationSums.length; i++)
+        {
+            hash = add(hash, mul(stateHashes[i] >>> 3, orientationSums[i]));
+        }
+
+        // The view x is xFromX * (storageX - xOffset) + zFromX * (storageZ - zOffset), the view z likewise, so the offsets leave a constant factor.
+        final long constant = mul(powSigned(RX, RX_INV, -(xFromX * xOffset + zFromX * zOffset)), powSigned(RZ, RZ_INV, -(xFromZ * xOffset + zFromZ * zOffset)));
+        return mul(constant, hash);
+    }
+
+    /**
+     * Add the positional factors of a section.
+     *
+     * @param section  the section.
+     * @param sectionX the section x.
+     * @param sectionY the section y.
+     * @param sectionZ the section z.
+     */
+    private void addSection(final PalettedBlockStorage.Section section, final int sectionX, final int sectionY, final int sectionZ)
+    {
+        final int minX = sectionX << PalettedBlockStorage.SECTION_SHIFT;
+        final int minY = sectionY << PalettedBlockStorage.SECTION_SHIFT;
+        final int minZ = sectionZ << PalettedBlockStorage.SECTION_SHIFT;
+        final int maxX = Math.min(sizeX, minX + PalettedBlockStorage.SECTION_SIZE);
+        final int maxY = Math.min(sizeY, minY + PalettedBlockStorage.SECTION_SIZE);
+        final int maxZ = Math.min(sizeZ, minZ + PalettedBlockStorage.SECTION_SIZE);
+
+        if (section.isUniform())
+        {
+            final int value = section.get(0) & 0xFFFF;
+            ensureCapacity(value + 1);
+            final long sumY = sub(powerSumsY[maxY], powerSumsY[minY]);
+            for (int orientation = 0; orientation < ORIENTATIONS; orientation++)
+            {
+                final long[] sumsX = powerSums[getBaseX(orientation)];
+                final long[] sumsZ = powerSums[getBaseZ(orientation)];
+                final long box = mul(mul(sub(sumsX[maxX], sumsX[minX]), sumY), sub(sumsZ[maxZ], sumsZ[minZ]));
+                sums[orientation][value] = add(sums[orientation][value], box);
+            }
+            return;
+        }
+
+        for (int y = minY; y < maxY; y++)
+        {
+            for (int z = minZ; z < maxZ; z++)
+            {
+                for (int x = minX; x < maxX; x++)
+                {
+                    final int value = section.get(PalettedBlockStorage.indexInSection(x, y, z)) & 0xFFFF;
+                    ensureCapacity(value + 1);
+                    for (int orientation = 0; orientation < ORIENTATIONS; orientation++)
+                    {
+                        sums[orientation][value] = add(sums[orientation][value], factor(orientation, x, y, z));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the positional factor of a storage position in an orientation.
+     *
+     * @param orientation the orientation.
+     * @param x           the storage x.
+     * @param y           the storage y.
+     * @param z           the storage z.
+     * @return the factor.
+     */
+    private long factor(final int orientation, final int x, final int y, final int z)
+    {
+        return mul(mul(powers[getBaseX(orientation)][x], powersY[y]), powers[getBaseZ(orientation)][z]);
+    }
+
+    /**
+     * Grow the sums to hold a palette size.
+     *
+     * @param paletteSize the palette size.
+     */
+    private void ensureCapacity(final int paletteSize)
+    {
+        if (sums[0].length >= paletteSize)
+        {
+            return;
+        }
+
+        final int newSize = Math.max(paletteSize, sums[0].length * 2);
+        for (int i = 0; i < ORIENTATIONS; i++)
+        {
+            sums[i] = Arrays.copyOf(sums[i], newSize);
+        }
+    }
+
+    /**
+     * Get the orientation of a view mapping, see {@link #hash(long[], int, int, int, int, int, int)}.
+     * The storage x row picks the base of the storage x, the sign of the storage z row the direction of the storage z.
+     *
+     * @param xFromX the view x factor of the storage x.
+     * @param xFromZ the view z factor of the storage x.
+     * @param zFromX the view x factor of the storage z.
+     * @param zFromZ the view z factor of the storage z.
+     * @return the orientation.
+     */
+    private static int getOrientation(final int xFromX, final int xFromZ, final int zFromX, final int zFromZ)
+    {
+        return getBaseIndex(xFromX, xFromZ) * 2 + (zFromX + zFromZ < 0 ? 1 : 0);
+    }
+
+    /**
+     * Get the base a storage coordinate is raised to, for a row of the view mapping.
+     * A view x factor picks {@link #RX}, a view z factor {@link #RZ}, a negative factor the inverse.
+     *
+     * @param fromX the view x factor.
+     * @param fromZ the view z factor.
+     * @return the index into {@link #BASES}.
+     */
+    private static int getBaseIndex(final int fromX, final int fromZ)
+    {
+        if (fromX != 0)
+        {
+            return fromX > 0 ? 0 : 1;
+        }
+        return fromZ > 0 ? 2 : 3;
+    }
+
+    /**
+     * @param orientation the orientation.
+     * @return the base index of the storage x.
+     */
+    private static int getBaseX(final int orientation)
+    {
+        return orientation >> 1;
+    }
+
+    /**
+     * @param orientation the orientation.
+     * @return the base index of the storage z, the axis the storage x doesn't use.
+     */
+    private static int getBaseZ(final int orientation)
+    {
+        return (getBaseX(orientation) < 2 ? 2 : 0) + (orientation & 1);
+    }
+
+    /**
+     * Build the powers of a base.
+     *
+     * @param base   the base.
+     * @param length the amount of powers.
+     * @return the powers 0 to length - 1.
+     */
+    private static long[] powerTable(final long base, final int length)
+    {
+        final long[] table = new long[Math.max(1, length)];
+        table[0] = 1;
+        for (int i = 1; i < table.length; i++)
+        {
+            table[i] = mul(table[i - 1], base);
+        }
+        return table;
+    }
+
+    /**
+     * Build the prefix sums of a table.
+     *
+     * @param table the table.
+     * @return the sums, entry i holds the sum of the first i entries.
+     */
+    private static long[] prefixSums(final long[] table)
+    {
+        final long[] prefix = new long[table.length + 1];
+        for (int i = 0; i < table.length; i++)
+        {
+            prefix[i + 1] = add(prefix[i], table[i]);
+        }
+        return prefix;
+    }
+
+    /**
+     * Raise a base to a possibly negative exponent.
+     *
+     * @param base     the base.
+     * @param inverse  the inverse of the base.
+     * @param exponent the exponent.
+     * @return the power.
+     */
+    private static long powSigned(final long base, final long inverse, final long exponent)
+    {
+        return exponent >= 0 ? pow(base, exponent) : pow(inverse, -exponent);
+    }
+
+    /**
+     * Raise a base to an exponent.
+     *
+     * @param base     the base.
+     * @param exponent the exponent, not negative.
+     * @return the power.
+     */
+    private static long pow(final long base, final long exponent)
+    {
+        long result = 1;
+        long square = base;
+        for (long e = exponent; e > 0; e >>= 1)
+        {
+            if ((e & 1) != 0)
+            {
+                result = mul(result, square);
+            }
+            square = mul(square, square);
+        }
+        return result;
+    }
+
+    /**
+     * Multiply two residues.
+     *
+     * @param a the first residue.
+     * @param b the second residue.
+     * @return the product.
+     */
+    private static long mul(final long a, final long b)
+    {
+        final long aHigh = a >>> 31;
+        final long aLow = a & 0x7FFF_FFFFL;
+        final long bHigh = b >>> 31;
+        final long bLow = b & 0x7FFF_FFFFL;
+        final long mid = aLow * bHigh + aHigh * bLow;
+        return reduce((aHigh * bHigh << 1) + (mid >>> 30) + ((mid & 0x3FFF_FFFFL) << 31) + aLow * bLow);
+    }
+
+    /**
+     * Add two residues.
+     *
+     * @param a the first residue.
+     * @param b the second residue.
+     * @return the sum.
+     */
+    private static long add(final long a, final long b)
+    {
+        final long sum = a + b;
+        return sum >= MOD ? sum - MOD : sum;
+    }
+
+    /**
+     * Subtract two residues.
+     *
+     * @param a the first residue.
+     * @param b the second residue.
+     * @return the difference.
+     */
+    private static long sub(final long a, final long b)
+    {
+        final long difference = a - b;
+        return difference < 0 ? difference + MOD : difference;
+    }
+
+    /**
+     * Reduce an unsigned 64 bit value modulo {@link #MOD}.
+     *
+     * @param value the value.
+     * @return the residue.
+     */
+    private static long reduce(final long value)
+    {
+        final long reduced = (value & MOD) + (value >>> 61);
+        return reduced >= MOD ? reduced - MOD : reduced;
+    }
+}
@@ -0,0 +1,260 @@
+package com.ldtteam.structures.blueprints.v1;
+
+import com.ldtteam.structurize.api.util.Log;
+import com.ldtteam.structurize.api.util.constant.Constants;
+import com.ldtteam.structurize.util.BackUpHelper;
+import net.minecraft.block.BlockState;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.nbt.NBTUtil;
+import net.minecraft.util.SharedConstants;
+import net.minecraftforge.common.util.Constants.NBT;
+import net.minecraftforge.fml.loading.FMLPaths;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Memoizes the datafixed form of palette entries, keyed by the data version of the blueprint and the stored entry.
+ * Legacy blueprints share most of their palette entries, so each distinct entry only runs through the datafixer once.
+ * The fixed entries are persisted in the game directory, the file is dropped when the game data version changes.
+ * The cache is saved when a server stops, when the client leaves a world and when the client shuts down.
+ */
+public final class PaletteFixCache
+{
+    /**
+     * The cache instance.
+     */
+    public static final PaletteFixCache INSTANCE = new PaletteFixCache();
+
+    /**
+     * Upper bound of cached entries, new entries are not cached above it.
+     */
+    private static final int MAX_ENTRIES = 1 << 16;
+
+    /**
+     * File name and nbt keys of the persisted cache.
+     */
+    private static final String FILE_NAME      = "palette_fix_cache.dat";
+    private static final String TAG_TARGET     = "target";
+    private static final String TAG_ENTRIES    = "entries";
+    private static final String TAG_VERSION    = "version";
+    private static final String TAG_STORED     = "stored";
+    private static final String TAG_FIXED      = "fixed";
+
+    /**
+     * Fixed entry nbt by key, this is what gets persisted.
+     */
+    private final Map<Key, CompoundNBT> fixedEntries = new ConcurrentHashMap<>();
+
+    /**
+     * Resolved states by key.
+     */
+    private final Map<Key, BlockState> states = new ConcurrentHashMap<>();
+
+    /**
+     * Lookup counters.
+     */
+    private final AtomicLong hits   = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * If the persisted cache was read already.
+     */
+    private volatile boolean loaded = false;
+
+    /**
+     * If entries were added since the last save.
+     */
+    private volatile boolean dirty = false;
+
+    /**
+     * Private constructor, use {@link #INSTANCE}.
+     */
+    private PaletteFixCache()
+    {
+        /*
+         * Intentionally left empty.
+         */
+    }
+
+    /**
+     * Get the fixed state of a palette entry, running the fixer only if the entry was not seen before.
+     *
+     * @param dataVersion the data version the entry was stored with.
+     * @param entry       the stored palette entry, not modified.
+     * @param fixer       fixes a copy of the entry to the current data version, may throw.
+     * @return the state.
+     */
+    public BlockState getOrFix(final int dataVersion, final CompoundNBT entry, final UnaryOperator<CompoundNBT> fixer)
+    {
+        ensureLoaded();
+
+        final Key key = new Key(dataVersion, entry);
+        final BlockState cachedState = states.get(key);
+        if (cachedState != null)
+        {
+            hits.incrementAndGet();
+            return cachedState;
+        }
+
+        final CompoundNBT cachedFix = fixedEntries.get(key);
+        if (cachedFix != null)
+        {
+            hits.incrementAndGet();
+            final BlockState state = NBTUtil.readBlockState(cachedFix);
+            states.put(key, state);
+            return state;
+        }
+
+        misses.incrementAndGet();
+        final CompoundNBT fixed = fixer.apply(entry.copy());
+        final BlockState state = NBTUtil.readBlockState(fixed);
+        if (fixedEntries.size() < MAX_ENTRIES)
+        {
+            final Key storedKey = new Key(dataVersion, entry.copy());
+            fixedEntries.put(storedKey, fixed.copy());
+            states.put(storedKey, state);
+            dirty = true;
+        }
+        return state;
+    }
+
+    /**
+     * @return the amount of lookups answered from the cache.
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return the amount of lookups which had to run the fixer.
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Write the cache to disk if new entries were added.
+     */
+    public synchronized void save()
+    {
+        if (!dirty)
+        {
+            return;
+        }
+
+        final ListNBT entries = new ListNBT();
+        for (final Map.Entry<Key, CompoundNBT> entry : fixedEntries.entrySet())
+        {
+            final CompoundNBT entryTag = new CompoundNBT();
+            entryTag.putInt(TAG_VERSION, entry.getKey().dataVersion);
+            entryTag.put(TAG_STORED, entry.getKey().entry);
+            entryTag.put(TAG_FIXED, entry.getValue());
+            entries.add(entryTag);
+        }
+
+        final CompoundNBT data = new CompoundNBT();
+        data.putInt(TAG_TARGET, SharedConstants.getCurrentVersion().getWorldVersion());
+        data.put(TAG_ENTRIES, entries);
+        BackUpHelper.saveNBTToPath(getCacheFile(), data);
+        dirty = false;
+
+        Log.getLogger().info("Saved palette fix cache with {} entries ({} hits, {} misses)", entries.size(), hits.get(), misses.get());
+    }
+
+    /**
+     * Read the persisted cache once.
+     */
+    private void ensureLoaded()
+    {
+        if (loaded)
+        {
+            return;
+        }
+
+        synchronized (this)
+        {
+            if (loaded)
+            {
+                return;
+            }
+            loaded = true;
+
+            final CompoundNBT data = BackUpHelper.loadNBTFromPath(getCacheFile());
+            if (data == null || data.getInt(TAG_TARGET) != SharedConstants.getCurrentVersion().getWorldVersion())
+            {
+                return;
+            }
+
+            final ListNBT entries = data.getList(TAG_ENTRIES, NBT.TAG_COMPOUND);
+            for (int i = 0; i < entries.size() && fixedEntries.size() < MAX_ENTRIES; i++)
+            {
+                final CompoundNBT entryTag = entries.getCompound(i);
+                fixedEntries.putIfAbsent(new Key(entryTag.getInt(TAG_VERSION), entryTag.getCompound(TAG_STORED)), entryTag.getCompound(TAG_FIXED));
+            }
+        }
+    }
+
+    /**
+     * @return the file the cache is persisted in.
+     */
+    private static File getCacheFile()
+    {
+        return FMLPaths.GAMEDIR.get().resolve(Constants.MOD_ID).resolve(FILE_NAME).toFile();
+    }
+
+    /**
+     * Cache key, a data version and a stored palette entry.
+     */
+    private static final class Key
+    {
+        /**
+         * The data version the entry was stored with.
+         */
+        private final int dataVersion;
+
+        /**
+         * The stored entry.
+         */
+        private final CompoundNBT entry;
+
+        /**
+         * Create a new key.
+         *
+         * @param dataVersion the data version.
+         * @param entry       the stored entry, must not be modified afterwards if the key is stored.
+         */
+        private Key(final int dataVersion, final CompoundNBT entry)
+        {
+            this.dataVersion = dataVersion;
+            this.entry = entry;
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            final Key other = (Key) o;
+            return dataVersion == other.dataVersion && entry.equals(other.entry);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * dataVersion + entry.hashCode();
+        }
+    }
+}
@@ -0,0 +1,585 @@
+package com.ldtteam.structures.blueprints.v1;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Bit-packed block storage of a blueprint.
+ * The volume is split into 16x16x16 sections, every section keeps a small local palette of blueprint palette indices
+ * and packs its entries with as few bits as that local palette requires.
+ * Sections which only contain a single value (all air, all substitution) store only that value.
+ */
+public class PalettedBlockStorage
+{
+    /**
+     * Amount of bits to shift a coordinate to get the section coordinate.
+     */
+    public static final int SECTION_SHIFT = 4;
+
+    /**
+     * Edge length of a section.
+     */
+    public static final int SECTION_SIZE = 1 << SECTION_SHIFT;
+
+    /**
+     * Amount of entries in a section.
+     */
+    public static final int SECTION_VOLUME = SECTION_SIZE * SECTION_SIZE * SECTION_SIZE;
+
+    /**
+     * Mask to get the coordinate inside of a section.
+     */
+    private static final int SECTION_MASK = SECTION_SIZE - 1;
+
+    /**
+     * The size of the storage.
+     */
+    private final short sizeX, sizeY, sizeZ;
+
+    /**
+     * The amount of sections on each axis.
+     */
+    private final int sectionsX, sectionsY, sectionsZ;
+
+    /**
+     * The sections, ordered y, z, x.
+     */
+    private final Section[] sections;
+
+    /**
+     * Create a new storage filled with palette index 0.
+     *
+     * @param sizeX the x size.
+     * @param sizeY the y size.
+     * @param sizeZ the z size.
+     */
+    public PalettedBlockStorage(final short sizeX, final short sizeY, final short sizeZ)
+    {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        this.sectionsX = (sizeX + SECTION_MASK) >> SECTION_SHIFT;
+        this.sectionsY = (sizeY + SECTION_MASK) >> SECTION_SHIFT;
+        this.sectionsZ = (sizeZ + SECTION_MASK) >> SECTION_SHIFT;
+        this.sections = new Section[sectionsX * sectionsY * sectionsZ];
+        for (int i = 0; i < sections.length; i++)
+        {
+            sections[i] = new Section((short) 0);
+        }
+    }
+
+    /**
+     * Create a deep copy of another storage.
+     *
+     * @param other the storage to copy.
+     */
+    private PalettedBlockStorage(final PalettedBlockStorage other)
+    {
+        this.sizeX = other.sizeX;
+        this.sizeY = other.sizeY;
+        this.sizeZ = other.sizeZ;
+        this.sectionsX = other.sectionsX;
+        this.sectionsY = other.sectionsY;
+        this.sectionsZ = other.sectionsZ;
+        this.sections = new Section[other.sections.length];
+        for (int i = 0; i < sections.length; i++)
+        {
+            sections[i] = other.sections[i].copy();
+        }
+    }
+
+    /**
+     * @return a deep copy of this storage.
+     */
+    public PalettedBlockStorage copy()
+    {
+        return new PalettedBlockStorage(this);
+    }
+
+    /**
+     * @return the size on the x axis.
+     */
+    public short getSizeX()
+    {
+        return sizeX;
+    }
+
+    /**
+     * @return the size on the y axis.
+     */
+    public short getSizeY()
+    {
+        return sizeY;
+    }
+
+    /**
+     * @return the size on the z axis.
+     */
+    public short getSizeZ()
+    {
+        return sizeZ;
+    }
+
+    /**
+     * Check if the local position is inside of this storage.
+     *
+     * @param x the x pos.
+     * @param y the y pos.
+     * @param z the z pos.
+     * @return true if so.
+     */
+    public boolean isInside(final int x, final int y, final int z)
+    {
+        return x >= 0 && y >= 0 && z >= 0 && x < sizeX && y < sizeY && z < sizeZ;
+    }
+
+    /**
+     * Get the palette index at a local position.
+     *
+     * @param x the x pos.
+     * @param y the y pos.
+     * @param z the z pos.
+     * @return the palette index.
+     */
+    public short get(final int x, final int y, final int z)
+    {
+        return getSectionAt(x, y, z).get(indexInSection(x, y, z));
+    }
+
+    /**
+     * Set the palette index at a local position.
+     *
+     * @param x     the x pos.
+     * @param y     the y pos.
+     * @param z     the z pos.
+     * @param value the palette index.
+     */
+    public void set(final int x, final int y, final int z, final short value)
+    {
+        final Section section = getSectionAt(x, y, z);
+        final int index = indexInSection(x, y, z);
+        section.set(index, value);
+    }
+
+    /**
+     * @return the amount of sections on the x axis.
+     */
+    public int getSectionsX()
+    {
+        return sectionsX;
+    }
+
+    /**
+     * @return the amount of sections on the y axis.
+     */
+    public int getSectionsY()
+    {
+        return sectionsY;
+    }
+
+    /**
+     * @return the amount of sections on the z axis.
+     */
+    public int getSectionsZ()
+    {
+        return sectionsZ;
+    }
+
+    /**
+     * Get a section by its section coordinates.
+     *
+     * @param sectionX the section x.
+     * @param sectionY the section y.
+     * @param sectionZ the section z.
+     * @return the section.
+     */
+    public Section getSection(final int sectionX, final int sectionY, final int sectionZ)
+    {
+        return sections[(sectionY * sectionsZ + sectionZ) * sectionsX + sectionX];
+    }
+
+    /**
+     * Replace a section.
+     *
+     * @param sectionX the section x.
+     * @param sectionY the section y.
+     * @param sectionZ the section z.
+     * @param section  the new section.
+     */
+    public void setSection(final int sectionX, final int sectionY, final int sectionZ, final Section section)
+    {
+        sections[(sectionY * sectionsZ + sectionZ) * sectionsX + sectionX] = section;
+    }
+
+    /**
+     * Get the section containing a local position.
+     *
+     * @param x the x pos.
+     * @param y the y pos.
+     * @param z the z pos.
+     * @return the section.
+     */
+    private Section getSectionAt(final int x, final int y, final int z)
+    {
+        return getSection(x >> SECTION_SHIFT, y >> SECTION_SHIFT, z >> SECTION_SHIFT);
+    }
+
+    /**
+     * Calculate the index of a local position inside of its section.
+     *
+     * @param x the x pos.
+     * @param y the y pos.
+     * @param z the z pos.
+     * @return the index in the section.
+     */
+    public static int indexInSection(final int x, final int y, final int z)
+    {
+        return (((y & SECTION_MASK) << SECTION_SHIFT | (z & SECTION_MASK)) << SECTION_SHIFT) | (x & SECTION_MASK);
+    }
+
+    /**
+     * One 16x16x16 section of the storage.
+     */
+    public static final class Section
+    {
+        /**
+         * Largest amount of bits per entry, enough to index every entry of a section.
+         */
+        private static final int MAX_BITS = 12;
+
+        /**
+         * The value if the section only holds a single value.
+         */
+        private short singleValue;
+
+        /**
+         * The local palette, maps local index to blueprint palette index. Null if uniform.
+         */
+        private short[] palette;
+
+        /**
+         * The used size of the local palette.
+         */
+        private int paletteSize;
+
+        /**
+         * Bits per entry.
+         */
+        private int bits;
+
+        /**
+         * The packed local indices, entries never span two longs.
+         */
+        private long[] data;
+
+        /**
+         * Create a uniform section.
+         *
+         * @param value the value of all entries.
+         */
+        public Section(final short value)
+        {
+            this.singleValue = value;
+        }
+
+        /**
+         * @return a deep copy of this section.
+         */
+        public Section copy()
+        {
+            final Section copy = new Section(singleValue);
+            if (palette != null)
+            {
+                copy.palette = palette.clone();
+                copy.paletteSize = paletteSize;
+                copy.bits = bits;
+                copy.data = data.clone();
+            }
+            return copy;
+        }
+
+        /**
+         * Serialize this section.
+         * Format: bits (0 if uniform), then either the single value or the local palette and the packed data.
+         *
+         * @param out the output.
+         * @throws IOException if writing fails.
+         */
+        public void write(final DataOutput out) throws IOException
+        {
+            if (palette == null)
+            {
+                out.writeByte(0);
+                out.writeShort(singleValue);
+                return;
+            }
+
+            out.writeByte(bits);
+            out.writeShort(paletteSize);
+            for (int i = 0; i < paletteSize; i++)
+            {
+                out.writeShort(palette[i]);
+            }
+            for (final long word : data)
+            {
+                out.writeLong(word);
+            }
+        }
+
+        /**
+         * Deserialize a section written by {@link #write(DataOutput)}.
+         *
+         * @param in the input.
+         * @return the section.
+         * @throws IOException if reading fails or the data is malformed.
+         */
+        public static Section read(final DataInput in) throws IOException
+        {
+            final int bits = in.readUnsignedByte();
+            if (bits == 0)
+            {
+                return new Section(in.readShort());
+            }
+            if (bits > MAX_BITS)
+            {
+                throw new IOException("Invalid section bits " + bits);
+            }
+
+            final int paletteSize = in.readUnsignedShort();
+            if (paletteSize < 1 || paletteSize > 1 << bits)
+            {
+                throw new IOException("Invalid section palette size " + paletteSize);
+            }
+
+            final Section section = new Section((short) 0);
+            section.bits = bits;
+            section.paletteSize = paletteSize;
+            section.palette = new short[Math.max(paletteSize, 2)];
+            for (int i = 0; i < paletteSize; i++)
+            {
+                section.palette[i] = in.readShort();
+            }
+            section.singleValue = section.palette[0];
+            section.data = new long[dataLength(bits)];
+            for (int i = 0; i < section.data.length; i++)
+            {
+                section.data[i] = in.readLong();
+            }
+            for (int i = 0; i < SECTION_VOLUME; i++)
+            {
+                if (section.read(i) >= paletteSize)
+                {
+                    throw new IOException("Section entry out of palette range");
+                }
+            }
+            return section;
+        }
+
+        /**
+         * Check if every value of this section is a valid index into a palette.
+         *
+         * @param size the size of the palette.
+         * @return true if so.
+         */
+        public boolean isWithinPalette(final int size)
+        {
+            if (palette == null)
+            {
+                return (singleValue & 0xFFFF) < size;
+            }
+            for (int i = 0; i < paletteSize; i++)
+            {
+                if ((palette[i] & 0xFFFF) >= size)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return true if every entry of this section holds the same value.
+         */
+        public boolean isUniform()
+        {
+            return palette == null;
+        }
+
+        /**
+         * Get the value at an index of this section.
+         *
+         * @param index the index, see {@link PalettedBlockStorage#indexInSection(int, int, int)}.
+         * @return the blueprint palette index.
+         */
+        public short get(final int index)
+        {
+            if (palette == null)
+            {
+                return singleValue;
+            }
+            return palette[read(index)];
+        }
+
+        /**
+         * Set the value at an index of this section.
+         *
+         * @param index the index, see {@link PalettedBlockStorage#indexInSection(int, int, int)}.
+         * @param value the blueprint palette index.
+         */
+        public void set(final int index, final short value)
+        {
+            if (palette == null)
+            {
+                if (value == singleValue)
+                {
+                    return;
+                }
+                palette = new short[] {singleValue, value};
+                paletteSize = 2;
+                bits = 1;
+                data = new long[dataLength(bits)];
+                write(index, 1);
+                return;
+            }
+
+            int local = -1;
+            for (int i = 0; i < paletteSize; i++)
+            {
+                if (palette[i] == value)
+                {
+                    local = i;
+                    break;
+                }
+            }
+
+            if (local == -1)
+            {
+                if (paletteSize == 1 << bits)
+                {
+                    // The entry at the index is overwritten, so its old value may be dropped as well. This always frees a slot at MAX_BITS.
+                    compact(index);
+                    if (paletteSize == 1 << bits)
+                    {
+                        resize(Math.min(bits + 1, MAX_BITS));
+                    }
+                }
+                if (paletteSize == palette.length)
+                {
+                    palette = Arrays.copyOf(palette, palette.length * 2);
+                }
+                local = paletteSize++;
+                palette[local] = value;
+            }
+            write(index, local);
+        }
+
+        /**
+         * @return the amount of bits used per entry, 0 if uniform.
+         */
+        public int getBits()
+        {
+            return palette == null ? 0 : bits;
+        }
+
+        /**
+         * Read the local index at an index.
+         *
+         * @param index the index.
+         * @return the local palette index.
+         */
+        private int read(final int index)
+        {
+            final int perLong = 64 / bits;
+            final long word = data[index / perLong];
+            return (int) ((word >>> ((index % perLong) * bits)) & ((1L << bits) - 1));
+        }
+
+        /**
+         * Write the local index at an index.
+         *
+         * @param index the index.
+         * @param local the local palette index.
+         */
+        private void write(final int index, final int local)
+        {
+            final int perLong = 64 / bits;
+            final int shift = (index % perLong) * bits;
+            final long mask = ((1L << bits) - 1) << shift;
+            final int wordIndex = index / perLong;
+            data[wordIndex] = (data[wordIndex] & ~mask) | (((long) local << shift) & mask);
+        }
+
+        /**
+         * Repack the data with a different amount of bits per entry.
+         *
+         * @param newBits the new amount of bits.
+         */
+        private void resize(final int newBits)
+        {
+            final long[] oldData = data;
+            final int oldBits = bits;
+            final int oldPerLong = 64 / oldBits;
+            final long oldMask = (1L << oldBits) - 1;
+
+            bits = newBits;
+            data = new long[dataLength(newBits)];
+            for (int i = 0; i < SECTION_VOLUME; i++)
+            {
+                write(i, (int) ((oldData[i / oldPerLong] >>> ((i % oldPerLong) * oldBits)) & oldMask));
+            }
+        }
+
+        /**
+         * Drop local palette entries which are no longer referenced by any entry.
+         *
+         * @param excluded the index of an entry which is about to be overwritten, its value doesn't count as referenced.
+         */
+        private void compact(final int excluded)
+        {
+            final int[] remap = new int[paletteSize];
+            Arrays.fill(remap, -1);
+            for (int i = 0; i < SECTION_VOLUME; i++)
+            {
+                if (i != excluded)
+                {
+                    remap[read(i)] = 0;
+                }
+            }
+
+            int newSize = 0;
+            for (int i = 0; i < paletteSize; i++)
+            {
+                if (remap[i] != -1)
+                {
+                    palette[newSize] = palette[i];
+                    remap[i] = newSize++;
+                }
+            }
+
+            if (newSize == paletteSize)
+            {
+                return;
+            }
+
+            for (int i = 0; i < SECTION_VOLUME; i++)
+            {
+                write(i, i == excluded ? 0 : remap[read(i)]);
+            }
+            paletteSize = newSize;
+        }
+
+        /**
+         * Amount of longs required to store a section with the given bits per entry.
+         *
+         * @param bits the bits per entry.
+         * @return the length of the data array.
+         */
+        private static int dataLength(final int bits)
+        {
+            final int perLong = 64 / bits;
+            return (SECTION_VOLUME + perLong - 1) / perLong;
+        }
+    }
+}
@@ -0,0 +1,579 @@
+package com.ldtteam.structures.blueprints.v1;
+
+import com.ldtteam.structurize.api.util.BlockPosUtil;
+import com.ldtteam.structurize.api.util.Log;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.DoubleNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.util.math.BlockPos;
+import net.minecraftforge.common.util.Constants.NBT;
+
+import java.io.*;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static com.ldtteam.structurize.api.util.constant.Constants.MOD_ID;
+
+/**
+ * Version 2 blueprint file, a container with an index in front of separately compressed parts.
+ * Layout (big endian):
+ * <pre>
+ * int    magic, see {@link #MAGIC}
+ * int    header length, followed by the gzipped header compound (version, size, palette, mods, name, architects, optional data)
+ * int    section count, followed by offset and length of every deflated section, sections ordered y, z, x
+ * int[4] offset and length of the gzipped tileEntity list and of the gzipped entity list
+ * byte[] data, all offsets are relative to its start
+ * </pre>
+ * Every 16x16x16 section is stored as written by {@link PalettedBlockStorage.Section#write(DataOutput)},
+ * so single sections or regions can be loaded without inflating the rest and sections can be decoded in parallel.
+ */
+public final class SectionedBlueprintFile
+{
+    /**
+     * File magic, "SBP2".
+     */
+    public static final int MAGIC = 0x53425032;
+
+    /**
+     * Format version stored in the header.
+     */
+    public static final byte VERSION = 2;
+
+    /**
+     * Key of the list inside of the tileEntity and entity compounds.
+     */
+    private static final String TAG_LIST = "list";
+
+    /**
+     * The file content.
+     */
+    private final byte[] data;
+
+    /**
+     * The decoded header.
+     */
+    private final CompoundNBT header;
+
+    /**
+     * The size of the blueprint.
+     */
+    private final short sizeX, sizeY, sizeZ;
+
+    /**
+     * The size of the blueprint palette, every section value has to be below it.
+     */
+    private final int paletteSize;
+
+    /**
+     * The amount of sections on each axis.
+     */
+    private final int sectionsX, sectionsY, sectionsZ;
+
+    /**
+     * Offset and length of every section, relative to {@link #dataStart}.
+     */
+    private final int[] sectionOffsets, sectionLengths;
+
+    /**
+     * Offset and length of the tileEntity and entity lists, relative to {@link #dataStart}.
+     */
+    private final int tileEntitiesOffset, tileEntitiesLength, entitiesOffset, entitiesLength;
+
+    /**
+     * Start of the data block in {@link #data}.
+     */
+    private final int dataStart;
+
+    /**
+     * Parse the header and index of a file.
+     *
+     * @param data the file content.
+     * @throws IOException if the data is not a valid version 2 blueprint.
+     */
+    private SectionedBlueprintFile(final byte[] data) throws IOException
+    {
+        this.data = data;
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC)
+        {
+            throw new IOException("Not a sectioned blueprint");
+        }
+
+        final byte[] headerBytes = new byte[in.readInt()];
+        in.readFully(headerBytes);
+        this.header = CompressedStreamTools.readCompressed(new ByteArrayInputStream(headerBytes));
+        if (header.getByte("version") != VERSION)
+        {
+            throw new IOException("Unsupported sectioned blueprint version " + header.getByte("version"));
+        }
+
+        this.sizeX = header.getShort("size_x");
+        this.sizeY = header.getShort("size_y");
+        this.sizeZ = header.getShort("size_z");
+        this.paletteSize = header.getList("palette", NBT.TAG_COMPOUND).size();
+        this.sectionsX = (sizeX + PalettedBlockStorage.SECTION_SIZE - 1) >> PalettedBlockStorage.SECTION_SHIFT;
+        this.sectionsY = (sizeY + PalettedBlockStorage.SECTION_SIZE - 1) >> PalettedBlockStorage.SECTION_SHIFT;
+        this.sectionsZ = (sizeZ + PalettedBlockStorage.SECTION_SIZE - 1) >> PalettedBlockStorage.SECTION_SHIFT;
+
+        final int count = in.readInt();
+        if (count != sectionsX * sectionsY * sectionsZ)
+        {
+            throw new IOException("Section count " + count + " does not match the size");
+        }
+        this.sectionOffsets = new int[count];
+        this.sectionLengths = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            sectionOffsets[i] = in.readInt();
+            sectionLengths[i] = in.readInt();
+        }
+
+        this.tileEntitiesOffset = in.readInt();
+        this.tileEntitiesLength = in.readInt();
+        this.entitiesOffset = in.readInt();
+        this.entitiesLength = in.readInt();
+        this.dataStart = data.length - in.available();
+
+        for (int i = 0; i < count; i++)
+        {
+            checkRange(sectionOffsets[i], sectionLengths[i]);
+        }
+        checkRange(tileEntitiesOffset, tileEntitiesLength);
+        checkRange(entitiesOffset, entitiesLength);
+    }
+
+    /**
+     * Check if the bytes of a file are a sectioned blueprint.
+     *
+     * @param data the file content.
+     * @return true if it starts with the {@link #MAGIC}.
+     */
+    public static boolean isSectioned(final byte[] data)
+    {
+        return data.length >= 4 && ((data[0] & 0xFF) << 24 | (data[1] & 0xFF) << 16 | (data[2] & 0xFF) << 8 | (data[3] & 0xFF)) == MAGIC;
+    }
+
+    /**
+     * Open a sectioned blueprint, only the header and index are decoded.
+     *
+     * @param data the file content.
+     * @return the opened file.
+     * @throws IOException if the data is not a valid version 2 blueprint.
+     */
+    public static SectionedBlueprintFile open(final byte[] data) throws IOException
+    {
+        return new SectionedBlueprintFile(data);
+    }
+
+    /**
+     * Write a blueprint (with its rotation and mirroring applied) as sectioned blueprint.
+     *
+     * @param schem the blueprint.
+     * @param os    the Output Stream to write to, it is flushed but not closed.
+     * @throws IOException if writing fails.
+     */
+    public static void write(final Blueprint schem, final OutputStream os) throws IOException
+    {
+        final PalettedBlockStorage structure = schem.getLocalStructure();
+        final int count = structure.getSectionsX() * structure.getSectionsY() * structure.getSectionsZ();
+        final int[] offsets = new int[count];
+        final int[] lengths = new int[count];
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        int i = 0;
+        for (int sy = 0; sy < structure.getSectionsY(); sy++)
+        {
+            for (int sz = 0; sz < structure.getSectionsZ(); sz++)
+            {
+                for (int sx = 0; sx < structure.getSectionsX(); sx++)
+                {
+                    offsets[i] = body.size();
+                    body.write(compressSection(structure.getSection(sx, sy, sz)));
+                    lengths[i] = body.size() - offsets[i];
+                    i++;
+                }
+            }
+        }
+
+        final ListNBT tileEntities = new ListNBT();
+        tileEntities.addAll(schem.getTileEntities());
+        final int tileEntitiesOffset = body.size();
+        writeList(tileEntities, body);
+        final int tileEntitiesLength = body.size() - tileEntitiesOffset;
+
+        final ListNBT entities = new ListNBT();
+        for (final CompoundNBT entity : schem.getEntities())
+        {
+            if (entity != null)
+            {
+                entities.add(entity);
+            }
+        }
+        final int entitiesOffset = body.size();
+        writeList(entities, body);
+        final int entitiesLength = body.size() - entitiesOffset;
+
+        final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        CompressedStreamTools.writeCompressed(BlueprintUtil.writeHeaderToNBT(schem, VERSION), headerBytes);
+
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(MAGIC);
+        out.writeInt(headerBytes.size());
+        headerBytes.writeTo(out);
+        out.writeInt(count);
+        for (int j = 0; j < count; j++)
+        {
+            out.writeInt(offsets[j]);
+            out.writeInt(lengths[j]);
+        }
+        out.writeInt(tileEntitiesOffset);
+        out.writeInt(tileEntitiesLength);
+        out.writeInt(entitiesOffset);
+        out.writeInt(entitiesLength);
+        body.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * @return the size on the x axis.
+     */
+    public short getSizeX()
+    {
+        return sizeX;
+    }
+
+    /**
+     * @return the size on the y axis.
+     */
+    public short getSizeY()
+    {
+        return sizeY;
+    }
+
+    /**
+     * @return the size on the z axis.
+     */
+    public short getSizeZ()
+    {
+        return sizeZ;
+    }
+
+    /**
+     * @return the amount of sections on the x axis.
+     */
+    public int getSectionsX()
+    {
+        return sectionsX;
+    }
+
+    /**
+     * @return the amount of sections on the y axis.
+     */
+    public int getSectionsY()
+    {
+        return sectionsY;
+    }
+
+    /**
+     * @return the amount of sections on the z axis.
+     */
+    public int getSectionsZ()
+    {
+        return sectionsZ;
+    }
+
+    /**
+     * Decode a single section.
+     *
+     * @param sectionX the section x.
+     * @param sectionY the section y.
+     * @param sectionZ the section z.
+     * @return the section, its entries are indices into the blueprint palette.
+     * @throws IOException if the section data is malformed.
+     */
+    public PalettedBlockStorage.Section readSection(final int sectionX, final int sectionY, final int sectionZ) throws IOException
+    {
+        if (sectionX < 0 || sectionY < 0 || sectionZ < 0 || sectionX >= sectionsX || sectionY >= sectionsY || sectionZ >= sectionsZ)
+        {
+            throw new IllegalArgumentException("Section out of bounds: " + sectionX + ", " + sectionY + ", " + sectionZ);
+        }
+        return readSection((sectionY * sectionsZ + sectionZ) * sectionsX + sectionX);
+    }
+
+    /**
+     * Decode the full blueprint, sections are decoded in parallel.
+     * TileEntity and entity data is decoded on first access.
+     *
+     * @return the blueprint.
+     * @throws IOException if the data is malformed.
+     */
+    public Blueprint readBlueprint() throws IOException
+    {
+        final PalettedBlockStorage.Section[] decoded;
+        try
+        {
+            decoded = IntStream.range(0, sectionOffsets.length).parallel().mapToObj(index -> {
+                try
+                {
+                    return readSection(index);
+                }
+                catch (final IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }).toArray(PalettedBlockStorage.Section[]::new);
+        }
+        catch (final UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+
+        final PalettedBlockStorage blocks = new PalettedBlockStorage(sizeX, sizeY, sizeZ);
+        int i = 0;
+        for (int sy = 0; sy < sectionsY; sy++)
+        {
+            for (int sz = 0; sz < sectionsZ; sz++)
+            {
+                for (int sx = 0; sx < sectionsX; sx++)
+                {
+                    blocks.setSection(sx, sy, sz, decoded[i++]);
+                }
+            }
+        }
+
+        return BlueprintUtil.buildBlueprint(header,
+          blocks,
+          () -> readList(tileEntitiesOffset, tileEntitiesLength),
+          () -> readList(entitiesOffset, entitiesLength));
+    }
+
+    /**
+     * Decode a region of the blueprint, only the sections overlapping it are inflated.
+     * Positions of tileEntities, entities and the primary offset are moved into the region, anything outside of it is dropped.
+     *
+     * @param from the first corner of the region, in local coordinates.
+     * @param size the size of the region.
+     * @return the blueprint of the region.
+     * @throws IOException if the data is malformed.
+     */
+    public Blueprint readRegion(final BlockPos from, final BlockPos size) throws IOException
+    {
+        final BlockPos to = from.offset(size);
+        if (from.getX() < 0 || from.getY() < 0 || from.getZ() < 0 || size.getX() <= 0 || size.getY() <= 0 || size.getZ() <= 0
+              || to.getX() > sizeX || to.getY() > sizeY || to.getZ() > sizeZ)
+        {
+            throw new IllegalArgumentException("Region " + from + " + " + size + " is not inside of the blueprint");
+        }
+
+        final PalettedBlockStorage blocks = new PalettedBlockStorage((short) size.getX(), (short) size.getY(), (short) size.getZ());
+        for (int sy = from.getY() >> PalettedBlockStorage.SECTION_SHIFT; sy <= (to.getY() - 1) >> PalettedBlockStorage.SECTION_SHIFT; sy++)
+        {
+            for (int sz = from.getZ() >> PalettedBlockStorage.SECTION_SHIFT; sz <= (to.getZ() - 1) >> PalettedBlockStorage.SECTION_SHIFT; sz++)
+            {
+                for (int sx = from.getX() >> PalettedBlockStorage.SECTION_SHIFT; sx <= (to.getX() - 1) >> PalettedBlockStorage.SECTION_SHIFT; sx++)
+                {
+                    final PalettedBlockStorage.Section section = readSection(sx, sy, sz);
+                    final int minX = Math.max(from.getX(), sx << PalettedBlockStorage.SECTION_SHIFT);
+                    final int minY = Math.max(from.getY(), sy << PalettedBlockStorage.SECTION_SHIFT);
+                    final int minZ = Math.max(from.getZ(), sz << PalettedBlockStorage.SECTION_SHIFT);
+                    final int maxX = Math.min(to.getX(), (sx + 1) << PalettedBlockStorage.SECTION_SHIFT);
+                    final int maxY = Math.min(to.getY(), (sy + 1) << PalettedBlockStorage.SECTION_SHIFT);
+                    final int maxZ = Math.min(to.getZ(), (sz + 1) << PalettedBlockStorage.SECTION_SHIFT);
+                    for (int y = minY; y < maxY; y++)
+                    {
+                        for (int z = minZ; z < maxZ; z++)
+                        {
+                            for (int x = minX; x < maxX; x++)
+                            {
+                                blocks.set(x - from.getX(), y - from.getY(), z - from.getZ(), section.get(PalettedBlockStorage.indexInSection(x, y, z)));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        final ListNBT tileEntities = new ListNBT();
+        final ListNBT allTileEntities = readList(tileEntitiesOffset, tileEntitiesLength);
+        for (int i = 0; i < allTileEntities.size(); i++)
+        {
+            final CompoundNBT te = allTileEntities.getCompound(i);
+            final BlockPos pos = new BlockPos(te.getShort("x"), te.getShort("y"), te.getShort("z"));
+            if (isInRegion(pos, from, to))
+            {
+                final CompoundNBT moved = te.copy();
+                moved.putShort("x", (short) (pos.getX() - from.getX()));
+                moved.putShort("y", (short) (pos.getY() - from.getY()));
+                moved.putShort("z", (short) (pos.getZ() - from.getZ()));
+                tileEntities.add(moved);
+            }
+        }
+
+        final ListNBT entities = new ListNBT();
+        final ListNBT allEntities = readList(entitiesOffset, entitiesLength);
+        for (int i = 0; i < allEntities.size(); i++)
+        {
+            final CompoundNBT entity = allEntities.getCompound(i);
+            final ListNBT posList = entity.getList("Pos", NBT.TAG_DOUBLE);
+            final double x = posList.getDouble(0);
+            final double y = posList.getDouble(1);
+            final double z = posList.getDouble(2);
+            if (isInRegion(new BlockPos(x, y, z), from, to))
+            {
+                final CompoundNBT moved = entity.copy();
+                final ListNBT movedPos = new ListNBT();
+                movedPos.add(DoubleNBT.valueOf(x - from.getX()));
+                movedPos.add(DoubleNBT.valueOf(y - from.getY()));
+                movedPos.add(DoubleNBT.valueOf(z - from.getZ()));
+                moved.put("Pos", movedPos);
+                if (moved.contains("TileX"))
+                {
+                    moved.putInt("TileX", moved.getInt("TileX") - from.getX());
+                    moved.putInt("TileY", moved.getInt("TileY") - from.getY());
+                    moved.putInt("TileZ", moved.getInt("TileZ") - from.getZ());
+                }
+                entities.add(moved);
+            }
+        }
+
+        final CompoundNBT regionHeader = header.copy();
+        regionHeader.putShort("size_x", (short) size.getX());
+        regionHeader.putShort("size_y", (short) size.getY());
+        regionHeader.putShort("size_z", (short) size.getZ());
+        final CompoundNBT optionalTag = regionHeader.getCompound(BlueprintUtil.NBT_OPTIONAL_DATA_TAG);
+        if (optionalTag.contains(MOD_ID))
+        {
+            final CompoundNBT structurizeTag = optionalTag.getCompound(MOD_ID);
+            final BlockPos primaryOffset = BlockPosUtil.readFromNBT(structurizeTag, "primary_offset");
+            if (isInRegion(primaryOffset, from, to))
+            {
+                BlockPosUtil.writeToNBT(structurizeTag, "primary_offset", primaryOffset.subtract(from));
+            }
+            else
+            {
+                optionalTag.remove(MOD_ID);
+            }
+        }
+
+        return BlueprintUtil.buildBlueprint(regionHeader, blocks, () -> tileEntities, () -> entities);
+    }
+
+    /**
+     * Decode a section by its index.
+     *
+     * @param index the index in y, z, x order.
+     * @return the section.
+     * @throws IOException if the section data is malformed.
+     */
+    private PalettedBlockStorage.Section readSection(final int index) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data,
+          dataStart + sectionOffsets[index],
+          sectionLengths[index]))))
+        {
+            final PalettedBlockStorage.Section section = PalettedBlockStorage.Section.read(in);
+            if (!section.isWithinPalette(paletteSize))
+            {
+                throw new IOException("Section entry out of palette range");
+            }
+            return section;
+        }
+    }
+
+    /**
+     * Decode one of the compound lists.
+     *
+     * @param offset the offset in the data.
+     * @param length the length.
+     * @return the list, empty if it can not be read.
+     */
+    private ListNBT readList(final int offset, final int length)
+    {
+        if (length == 0)
+        {
+            return new ListNBT();
+        }
+
+        try
+        {
+            return CompressedStreamTools.readCompressed(new ByteArrayInputStream(data, dataStart + offset, length)).getList(TAG_LIST, NBT.TAG_COMPOUND);
+        }
+        catch (final IOException e)
+        {
+            Log.getLogger().warn("Sectioned blueprint: failed to read compound list", e);
+            return new ListNBT();
+        }
+    }
+
+    /**
+     * Check that a part lies inside of the data block.
+     *
+     * @param offset the offset.
+     * @param length the length.
+     * @throws IOException if it does not.
+     */
+    private void checkRange(final int offset, final int length) throws IOException
+    {
+        if (offset < 0 || length < 0 || (long) dataStart + offset + length > data.length)
+        {
+            throw new IOException("Sectioned blueprint index points outside of the file");
+        }
+    }
+
+    /**
+     * Check if a position is inside of a region.
+     *
+     * @param pos  the position.
+     * @param from the inclusive lower corner.
+     * @param to   the exclusive upper corner.
+     * @return true if so.
+     */
+    private static boolean isInRegion(final BlockPos pos, final BlockPos from, final BlockPos to)
+    {
+        return pos.getX() >= from.getX() && pos.getY() >= from.getY() && pos.getZ() >= from.getZ()
+                 && pos.getX() < to.getX() && pos.getY() < to.getY() && pos.getZ() < to.getZ();
+    }
+
+    /**
+     * Deflate a serialized section.
+     *
+     * @param section the section.
+     * @return the compressed bytes.
+     * @throws IOException if writing fails.
+     */
+    private static byte[] compressSection(final PalettedBlockStorage.Section section) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater)))
+        {
+            section.write(out);
+        }
+        finally
+        {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write a compound list gzipped.
+     *
+     * @param list the list.
+     * @param out  the output.
+     * @throws IOException if writing fails.
+     */
+    private static void writeList(final ListNBT list, final ByteArrayOutputStream out) throws IOException
+    {
+        if (list.isEmpty())
+        {
+            return;
+        }
+        final CompoundNBT wrapper = new CompoundNBT();
+        wrapper.put(TAG_LIST, list);
+        CompressedStreamTools.writeCompressed(wrapper, out);
+    }
+}
@@ -3,9 +3,10 @@ package com.ldtteam.structures.client;
 import com.ldtteam.structures.blueprints.v1.Blueprint;
 import com.ldtteam.structurize.api.util.Log;
 import com.mojang.blaze3d.matrix.MatrixStack;
-import it.unimi.dsi.fastutil.ints.Int2LongArrayMap;
-import it.unimi.dsi.fastutil.ints.Int2LongMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2LongArrayMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectArrayMap;
 import net.minecraft.client.Minecraft;
 import net.minecraft.util.math.BlockPos;
 import java.util.Iterator;
@@ -23,8 +24,11 @@ public final class BlueprintHandler
     private static final int CACHE_SIZE = 30;
     private static final long CACHE_EVICT_TIME = 45_000L;
 
-    private final Int2ObjectArrayMap<BlueprintRenderer> rendererCache = new Int2ObjectArrayMap<>(CACHE_SIZE);
-    private final Int2LongArrayMap evictTimeCache = new Int2LongArrayMap(CACHE_SIZE);
+    /**
+     * Renderers and their last use, keyed by {@link #getCacheKey(Blueprint)}.
+     */
+    private final Long2ObjectArrayMap<BlueprintRenderer> rendererCache = new Long2ObjectArrayMap<>(CACHE_SIZE);
+    private final Long2LongArrayMap evictTimeCache = new Long2LongArrayMap(CACHE_SIZE);
 
     /**
      * Private constructor to hide public one.
@@ -62,7 +66,7 @@ public final class BlueprintHandler
         }
         Minecraft.getInstance().getProfiler().push("struct_render_cache");
 
-        final int blueprintHash = blueprint.hashCode();
+        final long blueprintHash = getCacheKey(blueprint);
         final BlueprintRenderer rendererRef = rendererCache.get(blueprintHash);
         final BlueprintRenderer renderer = rendererRef == null ? BlueprintRenderer.buildRendererForBlueprint(blueprint) : rendererRef;
 
@@ -78,20 +82,31 @@ public final class BlueprintHandler
         Minecraft.getInstance().getProfiler().pop();
     }
 
+    /**
+     * Calculate the renderer cache key of a blueprint, blueprints with the same content and render source share a renderer.
+     *
+     * @param blueprint the blueprint.
+     * @return the key.
+     */
+    private static long getCacheKey(final Blueprint blueprint)
+    {
+        return HashCommon.mix(blueprint.getFingerprint() * 31 + blueprint.getRenderSource().asLong());
+    }
+
     /**
      * Cleans entries that are older than CACHE_EVICT_TIME.
      */
     public void cleanCache()
     {
         final long now = System.currentTimeMillis();
-        final Iterator<Int2LongMap.Entry> iter = evictTimeCache.int2LongEntrySet().iterator();
+        final Iterator<Long2LongMap.Entry> iter = evictTimeCache.long2LongEntrySet().iterator();
 
         while (iter.hasNext())
         {
-            final Int2LongMap.Entry entry = iter.next();
+            final Long2LongMap.Entry entry = iter.next();
             if (entry.getLongValue() + CACHE_EVICT_TIME < now)
             {
-                rendererCache.remove(entry.getIntKey()).close();
+                rendererCache.remove(entry.getLongKey()).close();
                 iter.remove();
             }
         }
@@ -126,7 +141,7 @@ public final class BlueprintHandler
 
         Minecraft.getInstance().getProfiler().push("struct_render_multi");
 
-        final int blueprintHash = blueprint.hashCode();
+        final long blueprintHash = getCacheKey(blueprint);
         final BlueprintRenderer rendererRef = rendererCache.get(blueprintHash);
         final BlueprintRenderer renderer = rendererRef == null ? BlueprintRenderer.buildRendererForBlueprint(blueprint) : rendererRef;
 
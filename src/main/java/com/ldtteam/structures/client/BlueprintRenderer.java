@@ -78,16 +78,16 @@ public class BlueprintRenderer implements AutoCloseable
     }
 
     /**
-     * Updates blueprint reference if it has same hash.
+     * Updates blueprint reference if it has the same content.
+     * The buffers were built from equal content, so they are kept.
      *
      * @param blueprint blueprint from active structure
      */
     public void updateBlueprint(final Blueprint blueprint)
     {
-        if (blockAccess.getBlueprint() != blueprint && blockAccess.getBlueprint().hashCode() == blueprint.hashCode())
+        if (blockAccess.getBlueprint() != blueprint && blockAccess.getBlueprint().equals(blueprint))
         {
             blockAccess.setBlueprint(blueprint);
-            Settings.instance.scheduleRefresh();
         }
     }
 
@@ -332,7 +332,7 @@ public final class Settings implements INBTSerializable<CompoundNBT>
         }
         else
         {
-            this.blueprint = blueprint;
+            this.blueprint = blueprint.copy();
             this.blueprint.rotateWithMirror(BlockPosUtil.getRotationFromRotations(rotation), isMirrored ? Mirror.FRONT_BACK : Mirror.NONE, Minecraft.getInstance().level);
         }
     }
@@ -421,6 +421,7 @@ public final class Settings implements INBTSerializable<CompoundNBT>
         this.rotation = rotation;
         if (blueprint != null)
         {
+            blueprint = blueprint.copy();
             blueprint.rotateWithMirror(offset == 1 || offset == -3 ? Rotation.CLOCKWISE_90 : Rotation.COUNTERCLOCKWISE_90, Mirror.NONE, Minecraft.getInstance().level);
         }
         scheduleRefresh();
@@ -437,6 +438,7 @@ public final class Settings implements INBTSerializable<CompoundNBT>
         }
 
         isMirrored = !isMirrored;
+        blueprint = blueprint.copy();
         blueprint.rotateWithMirror(Rotation.NONE, this.rotation % 2 == 0 ? Mirror.FRONT_BACK : Mirror.LEFT_RIGHT, Minecraft.getInstance().level);
         scheduleRefresh();
     }
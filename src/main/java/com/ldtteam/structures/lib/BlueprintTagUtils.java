@@ -27,7 +27,7 @@ public class BlueprintTagUtils
     public static BlockPos getFirstPosForTag(final Blueprint blueprint, final String tagName)
     {
         final BlockPos anchorPos = blueprint.getPrimaryBlockOffset();
-        final CompoundNBT nbt = blueprint.getBlockInfoAsMap().get(anchorPos).getTileEntityData();
+        final CompoundNBT nbt = blueprint.getBlockInfo(anchorPos).getTileEntityData();
         if (nbt != null)
         {
             final Map<BlockPos, List<String>> tagPosMap = IBlueprintDataProvider.readTagPosMapFrom(nbt.getCompound(TAG_BLUEPRINTDATA));
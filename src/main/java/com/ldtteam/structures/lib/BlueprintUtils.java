@@ -54,7 +54,7 @@ public final class BlueprintUtils
 
     public static BlockInfo getBlockInfoFromPos(final Blueprint blueprint, final BlockPos pos)
     {
-        final BlockInfo blockInfo = blueprint.getBlockInfoAsMap().get(pos);
+        final BlockInfo blockInfo = blueprint.getBlockInfo(pos);
         return blockInfo == null ? DEFAULT_FACTORY.apply(pos) : blockInfo;
     }
 
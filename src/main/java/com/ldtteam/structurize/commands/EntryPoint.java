@@ -52,10 +52,18 @@ public class EntryPoint extends AbstractCommand
             .addNode(LinkSessionCommand.MuteChannel::build, AbstractCommand::getEnvironmentType)
             .addNode(LinkSessionCommand.RemovePlayer::build, AbstractCommand::getEnvironmentType)
             .addNode(LinkSessionCommand.SendMessage::build, AbstractCommand::getEnvironmentType);
+        final CommandTree jobs = new CommandTree(EnvironmentType.ALL, "jobs")
+            .addNode(JobsCommand.ListJobs::build, AbstractCommand::getEnvironmentType)
+            .addNode(JobsCommand.Pause::build, AbstractCommand::getEnvironmentType)
+            .addNode(JobsCommand.Resume::build, AbstractCommand::getEnvironmentType)
+            .addNode(JobsCommand.Cancel::build, AbstractCommand::getEnvironmentType)
+            .addNode(JobsCommand.Priority::build, AbstractCommand::getEnvironmentType);
         final CommandTree structurizeRoot = CommandTree.newRootNode()
             .addNode(linkSession)
+            .addNode(jobs)
             .addNode(UpdateSchematicsCommand::build, () -> EnvironmentType.INTEGRATED)
-            .addNode(ScanCommand::build, AbstractCommand::getEnvironmentType);
+            .addNode(ScanCommand::build, AbstractCommand::getEnvironmentType)
+            .addNode(PlacementStatsCommand::build, AbstractCommand::getEnvironmentType);
 
         structurizeRoot.register(dispatcher, environment);
     }
@@ -0,0 +1,195 @@
+package com.ldtteam.structurize.commands;
+
+import com.ldtteam.structurize.management.OperationScheduler;
+import com.ldtteam.structurize.management.ScheduledOperation;
+import com.ldtteam.structurize.util.LanguageHandler;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.command.CommandSource;
+import net.minecraft.entity.Entity;
+import java.util.Locale;
+
+/**
+ * Management of the queued world operations: /structurize jobs
+ */
+public class JobsCommand
+{
+    /**
+     * The job id command argument.
+     */
+    private final static String ID_ARG = "id";
+
+    /**
+     * Permission level to control the jobs of other players, and to raise a priority above normal.
+     */
+    private final static int OTHERS_PERMISSION_LEVEL = 2;
+
+    /**
+     * Command for listing the jobs the sender may control
+     */
+    protected static class ListJobs extends AbstractCommand
+    {
+        private final static String NAME = "list";
+
+        protected static LiteralArgumentBuilder<CommandSource> build()
+        {
+            return newLiteral(NAME).executes(s -> onExecute(s));
+        }
+
+        private static int onExecute(final CommandContext<CommandSource> command)
+        {
+            final CommandSource source = command.getSource();
+            int listed = 0;
+            for (final ScheduledOperation job : OperationScheduler.INSTANCE.getJobs())
+            {
+                if (canControl(source, job))
+                {
+                    source.sendSuccess(LanguageHandler.buildChatComponent("structurize.command.jobs.list.entry",
+                        job.getId(),
+                        job.getOperation().getType().name().toLowerCase(Locale.US),
+                        job.getOwnerName(),
+                        job.getPriority().name().toLowerCase(Locale.US),
+                        job.isPaused() ? "paused" : "queued",
+                        job.getTicksRun()), false);
+                    listed++;
+                }
+            }
+
+            if (listed == 0)
+            {
+                source.sendSuccess(LanguageHandler.buildChatComponent("structurize.command.jobs.list.empty"), false);
+            }
+            return listed;
+        }
+    }
+
+    /**
+     * Command for pausing a job
+     */
+    protected static class Pause extends AbstractCommand
+    {
+        private final static String NAME = "pause";
+
+        protected static LiteralArgumentBuilder<CommandSource> build()
+        {
+            return newLiteral(NAME).then(newArgument(ID_ARG, IntegerArgumentType.integer(1)).executes(s -> onExecute(s)));
+        }
+
+        private static int onExecute(final CommandContext<CommandSource> command) throws CommandSyntaxException
+        {
+            final ScheduledOperation job = getControlledJob(command);
+            OperationScheduler.INSTANCE.pause(job.getId());
+            command.getSource().sendSuccess(LanguageHandler.buildChatComponent("structurize.command.jobs.pause.done", job.getId()), false);
+            return 1;
+        }
+    }
+
+    /**
+     * Command for resuming a paused job
+     */
+    protected static class Resume extends AbstractCommand
+    {
+        private final static String NAME = "resume";
+
+        protected static LiteralArgumentBuilder<CommandSource> build()
+        {
+            return newLiteral(NAME).then(newArgument(ID_ARG, IntegerArgumentType.integer(1)).executes(s -> onExecute(s)));
+        }
+
+        private static int onExecute(final CommandContext<CommandSource> command) throws CommandSyntaxException
+        {
+            final ScheduledOperation job = getControlledJob(command);
+            OperationScheduler.INSTANCE.resume(job.getId());
+            command.getSource().sendSuccess(LanguageHandler.buildChatComponent("structurize.command.jobs.resume.done", job.getId()), false);
+            return 1;
+        }
+    }
+
+    /**
+     * Command for cancelling a job, the changes done so far can be undone
+     */
+    protected static class Cancel extends AbstractCommand
+    {
+        private final static String NAME = "cancel";
+
+        protected static LiteralArgumentBuilder<CommandSource> build()
+        {
+            return newLiteral(NAME).then(newArgument(ID_ARG, IntegerArgumentType.integer(1)).executes(s -> onExecute(s)));
+        }
+
+        private static int onExecute(final CommandContext<CommandSource> command) throws CommandSyntaxException
+        {
+            final ScheduledOperation job = getControlledJob(command);
+            OperationScheduler.INSTANCE.cancel(job.getId());
+            command.getSource().sendSuccess(LanguageHandler.buildChatComponent("structurize.command.jobs.cancel.done", job.getId()), false);
+            return 1;
+        }
+    }
+
+    /**
+     * Command for changing the priority of a job
+     */
+    protected static class Priority extends AbstractCommand
+    {
+        private final static String NAME = "priority";
+
+        protected static LiteralArgumentBuilder<CommandSource> build()
+        {
+            final LiteralArgumentBuilder<CommandSource> root = newLiteral(NAME);
+
+            for (final ScheduledOperation.Priority priority : ScheduledOperation.Priority.values())
+            {
+                root.then(newLiteral(priority.name().toLowerCase(Locale.US))
+                    .then(newArgument(ID_ARG, IntegerArgumentType.integer(1)).executes(s -> onExecute(s, priority))));
+            }
+
+            return root;
+        }
+
+        private static int onExecute(final CommandContext<CommandSource> command, final ScheduledOperation.Priority priority) throws CommandSyntaxException
+        {
+            final ScheduledOperation job = getControlledJob(command);
+            if (priority.compareTo(ScheduledOperation.Priority.NORMAL) > 0 && !command.getSource().hasPermission(OTHERS_PERMISSION_LEVEL))
+            {
+                AbstractCommand.throwSyntaxException("structurize.command.jobs.priority.nopermission", priority.name().toLowerCase(Locale.US));
+            }
+            OperationScheduler.INSTANCE.setPriority(job.getId(), priority);
+            command.getSource().sendSuccess(LanguageHandler.buildChatComponent("structurize.command.jobs.priority.done", job.getId(),
+                priority.name().toLowerCase(Locale.US)), false);
+            return 1;
+        }
+    }
+
+    /**
+     * Get the job of the id argument.
+     *
+     * @param command the command context.
+     * @return the job.
+     * @throws CommandSyntaxException if the job doesn't exist or the sender may not control it.
+     */
+    private static ScheduledOperation getControlledJob(final CommandContext<CommandSource> command) throws CommandSyntaxException
+    {
+        final int id = IntegerArgumentType.getInteger(command, ID_ARG);
+        final ScheduledOperation job = OperationScheduler.INSTANCE.getJob(id);
+        if (job == null || !canControl(command.getSource(), job))
+        {
+            AbstractCommand.throwSyntaxException("structurize.command.jobs.generic.dontexist", id);
+        }
+        return job;
+    }
+
+    /**
+     * Check if a command source may see and control a job, players may control their own jobs, operators all jobs.
+     *
+     * @param source the command source.
+     * @param job    the job.
+     * @return true if so.
+     */
+    private static boolean canControl(final CommandSource source, final ScheduledOperation job)
+    {
+        final Entity entity = source.getEntity();
+        return source.hasPermission(OTHERS_PERMISSION_LEVEL) || (entity != null && entity.getUUID().equals(job.getOwner()));
+    }
+}
@@ -0,0 +1,58 @@
+package com.ldtteam.structurize.commands;
+
+import com.ldtteam.structures.blueprints.v1.PaletteFixCache;
+import com.ldtteam.structurize.placement.EntityBatch;
+import com.ldtteam.structurize.placement.handlers.placement.PlacementHandlers;
+import com.ldtteam.structurize.util.LanguageHandler;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.command.CommandSource;
+import java.util.Map;
+
+/**
+ * Command to list how often each placement handler was dispatched to, how long placing entities took and how well the palette fix cache did.
+ */
+public class PlacementStatsCommand extends AbstractCommand
+{
+    private final static String NAME = "placementstats";
+
+    /**
+     * Permission level to see the stats.
+     */
+    private final static int PERMISSION_LEVEL = 2;
+
+    protected static LiteralArgumentBuilder<CommandSource> build()
+    {
+        return newLiteral(NAME).requires(source -> source.hasPermission(PERMISSION_LEVEL)).executes(s -> onExecute(s));
+    }
+
+    private static int onExecute(final CommandContext<CommandSource> command)
+    {
+        final Map<String, Long> hits = PlacementHandlers.getHandlerHits();
+        final long[] entityStats = EntityBatch.getStats();
+        final long paletteFixHits = PaletteFixCache.INSTANCE.getHits();
+        final long paletteFixMisses = PaletteFixCache.INSTANCE.getMisses();
+        if (hits.isEmpty() && entityStats[2] == 0 && paletteFixHits + paletteFixMisses == 0)
+        {
+            command.getSource().sendSuccess(LanguageHandler.buildChatComponent("structurize.command.placementstats.empty"), false);
+            return 0;
+        }
+
+        for (final Map.Entry<String, Long> entry : hits.entrySet())
+        {
+            command.getSource().sendSuccess(LanguageHandler.buildChatComponent("structurize.command.placementstats.entry", entry.getKey(), entry.getValue()), false);
+        }
+
+        if (entityStats[2] > 0)
+        {
+            command.getSource().sendSuccess(LanguageHandler.buildChatComponent("structurize.command.placementstats.entities",
+              entityStats[0], entityStats[1], entityStats[2], entityStats[3], entityStats[4]), false);
+        }
+
+        if (paletteFixHits + paletteFixMisses > 0)
+        {
+            command.getSource().sendSuccess(LanguageHandler.buildChatComponent("structurize.command.placementstats.palettefix", paletteFixHits, paletteFixMisses), false);
+        }
+        return hits.size();
+    }
+}
@@ -1,5 +1,8 @@
 package com.ldtteam.structurize.commands;
 
+import com.ldtteam.structures.blueprints.v1.Blueprint;
+import com.ldtteam.structures.blueprints.v1.BlueprintUtil;
+import com.ldtteam.structures.blueprints.v1.SectionedBlueprintFile;
 import com.ldtteam.structurize.Structurize;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
@@ -16,11 +19,13 @@ import net.minecraftforge.common.util.Constants.NBT;
 import org.jetbrains.annotations.NotNull;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.util.*;
 
 /**
- * Command to update all schematics in structurize/updater/input to the blueprint format to structurize/updater/output.
+ * Command to update all schematics in structurize/updater/input to the blueprint format to structurize/updater/output,
+ * blueprints which are already in the version 1 format are upgraded to the sectioned version 2 format.
  */
 public class UpdateSchematicsCommand extends AbstractCommand
 {
@@ -58,6 +63,7 @@ public class UpdateSchematicsCommand extends AbstractCommand
 
         if (input.getPath().endsWith(".blueprint"))
         {
+            upgrade(input, globalInputFolder, globalOutputFolder);
             return;
         }
 
@@ -166,7 +172,43 @@ public class UpdateSchematicsCommand extends AbstractCommand
             bluePrintCompound.put("entities", newEntities);
 
             output.createNewFile();
-            CompressedStreamTools.writeCompressed(bluePrintCompound, Files.newOutputStream(output.toPath()));
+            BlueprintUtil.writeCompressed(bluePrintCompound, Files.newOutputStream(output.toPath()));
+        }
+        catch (final IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Rewrites a version 1 blueprint as sectioned version 2 blueprint.
+     *
+     * @param input              the blueprint file.
+     * @param globalInputFolder  the updater input folder.
+     * @param globalOutputFolder the updater output folder.
+     */
+    private static void upgrade(@NotNull final File input, @NotNull final File globalInputFolder, @NotNull final File globalOutputFolder)
+    {
+        try
+        {
+            final byte[] data = Files.readAllBytes(input.toPath());
+            if (SectionedBlueprintFile.isSectioned(data))
+            {
+                return;
+            }
+
+            final Blueprint blueprint = BlueprintUtil.readBlueprint(data);
+            if (blueprint == null)
+            {
+                return;
+            }
+
+            final File output = new File(globalOutputFolder, input.toString().replace(globalInputFolder.toString(), ""));
+            output.getParentFile().mkdirs();
+            try (OutputStream outputStream = Files.newOutputStream(output.toPath()))
+            {
+                SectionedBlueprintFile.write(blueprint, outputStream);
+            }
         }
         catch (final IOException e)
         {
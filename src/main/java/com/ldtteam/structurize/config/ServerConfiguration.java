@@ -45,6 +45,61 @@ public class ServerConfiguration extends AbstractConfiguration
 
     public final ForgeConfigSpec.ConfigValue<String> iteratorType;
 
+    /**
+     * Wall clock budget per tick for world operations in microseconds, 0 to use the operation counts instead.
+     */
+    public final ForgeConfigSpec.IntValue placementBudgetMicros;
+
+    /**
+     * Tick time in milliseconds above which the placement budget is reduced.
+     */
+    public final ForgeConfigSpec.IntValue targetMspt;
+
+    /**
+     * Max wall clock budget per tick in microseconds while the server has spare tick time.
+     */
+    public final ForgeConfigSpec.IntValue maxPlacementBudgetMicros;
+
+    /**
+     * Should creative pastes write simple blocks directly into the chunk sections.
+     */
+    public final ForgeConfigSpec.BooleanValue bulkCreativePlacement;
+
+    /**
+     * Should creative pastes hold back neighbor updates and block ticks until they finished.
+     */
+    public final ForgeConfigSpec.BooleanValue deferCreativeUpdates;
+
+    /**
+     * Changed blocks in a chunk section from which bulk placement sends the whole section instead of a multi block change.
+     */
+    public final ForgeConfigSpec.IntValue sectionResendThreshold;
+
+    /**
+     * Should creative pastes compare the world with the blueprint on a worker thread first.
+     */
+    public final ForgeConfigSpec.BooleanValue worldDiffPrepass;
+
+    /**
+     * Should creative pastes prepare their placements on a worker thread.
+     */
+    public final ForgeConfigSpec.BooleanValue preparePlacements;
+
+    /**
+     * Should creative pastes be saved with the world and resumed after a restart.
+     */
+    public final ForgeConfigSpec.BooleanValue persistJobs;
+
+    /**
+     * Memory budget of the undo cache in MB.
+     */
+    public final ForgeConfigSpec.IntValue undoCacheSizeMb;
+
+    /**
+     * Should changes exceeding the undo memory budget be moved to disk instead of being dropped.
+     */
+    public final ForgeConfigSpec.BooleanValue spillUndoToDisk;
+
 
     /**
      * Builds server configuration.
@@ -63,6 +118,17 @@ public class ServerConfiguration extends AbstractConfiguration
         maxBlocksChecked = defineInteger(builder, "maxBlocksChecked", 1000, 0, 100000);
         schematicBlockLimit = defineInteger(builder, "schematicBlockLimit", 100000, 1000, 1000000);
         iteratorType = defineString(builder, "iteratorType", "default");
+        placementBudgetMicros = defineInteger(builder, "placementBudgetMicros", 10000, 0, 50000);
+        targetMspt = defineInteger(builder, "targetMspt", 40, 1, 50);
+        maxPlacementBudgetMicros = defineInteger(builder, "maxPlacementBudgetMicros", 25000, 0, 50000);
+        bulkCreativePlacement = defineBoolean(builder, "bulkCreativePlacement", true);
+        deferCreativeUpdates = defineBoolean(builder, "deferCreativeUpdates", true);
+        sectionResendThreshold = defineInteger(builder, "sectionResendThreshold", 512, 1, 4096);
+        worldDiffPrepass = defineBoolean(builder, "worldDiffPrepass", true);
+        preparePlacements = defineBoolean(builder, "preparePlacements", true);
+        persistJobs = defineBoolean(builder, "persistJobs", true);
+        undoCacheSizeMb = defineInteger(builder, "undoCacheSizeMb", 256, 0, 65536);
+        spillUndoToDisk = defineBoolean(builder, "spillUndoToDisk", true);
 
         finishCategory(builder);
     }
@@ -3,6 +3,7 @@ package com.ldtteam.structurize.event;
 import com.ldtteam.blockout.hooks.HookManager;
 import com.ldtteam.blockout.hooks.HookRegistries;
 import com.ldtteam.structures.blueprints.v1.Blueprint;
+import com.ldtteam.structures.blueprints.v1.PaletteFixCache;
 import com.ldtteam.structures.client.BlueprintHandler;
 import com.ldtteam.structures.client.StructureClientHandler;
 import com.ldtteam.structures.helpers.Settings;
@@ -27,6 +28,7 @@ import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.Hand;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.vector.Vector3d;
+import net.minecraftforge.client.event.ClientPlayerNetworkEvent;
 import net.minecraftforge.client.event.InputEvent.MouseScrollEvent;
 import net.minecraftforge.client.event.RenderWorldLastEvent;
 import net.minecraftforge.event.TickEvent.ClientTickEvent;
@@ -179,6 +181,17 @@ public class ClientEventSubscriber
         Minecraft.getInstance().getProfiler().pop();
     }
 
+    /**
+     * Save the palette fix cache once the client leaves a world, blueprints loaded on the client don't reach a server stop.
+     *
+     * @param event the catched event.
+     */
+    @SubscribeEvent
+    public static void onLoggedOut(final ClientPlayerNetworkEvent.LoggedOutEvent event)
+    {
+        PaletteFixCache.INSTANCE.save();
+    }
+
     /**
      * Used to catch the scroll when no gui is open.
      *
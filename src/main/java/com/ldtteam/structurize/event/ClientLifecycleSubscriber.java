@@ -1,6 +1,7 @@
 package com.ldtteam.structurize.event;
 
 import com.ldtteam.blockout.Loader;
+import com.ldtteam.structures.blueprints.v1.PaletteFixCache;
 import com.ldtteam.structures.client.BlueprintHandler;
 import com.ldtteam.structurize.api.util.Log;
 import com.ldtteam.structurize.blocks.ModBlocks;
@@ -32,6 +33,9 @@ public class ClientLifecycleSubscriber
     {
         OptifineCompat.getInstance().intialize();
 
+        // The client has no stopping event, save the palette fix cache when the game exits.
+        Runtime.getRuntime().addShutdownHook(new Thread(PaletteFixCache.INSTANCE::save, "Structurize palette fix cache"));
+
         final IResourceManager rm = event.getMinecraftSupplier().get().getResourceManager();
         if (rm instanceof IReloadableResourceManager)
         {
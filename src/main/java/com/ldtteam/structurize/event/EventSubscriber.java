@@ -3,14 +3,19 @@ package com.ldtteam.structurize.event;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.ldtteam.structures.blueprints.v1.PaletteFixCache;
 import com.ldtteam.structurize.Network;
 import com.ldtteam.structurize.api.util.constant.Constants;
 import com.ldtteam.structurize.commands.EntryPoint;
+import com.ldtteam.structurize.management.JobCheckpoints;
 import com.ldtteam.structurize.management.Manager;
+import com.ldtteam.structurize.management.OperationScheduler;
 import com.ldtteam.structurize.management.Structures;
+import com.ldtteam.structurize.management.UndoStore;
 import com.ldtteam.structurize.network.messages.ServerUUIDMessage;
 import com.ldtteam.structurize.network.messages.StructurizeStylesMessage;
 import com.ldtteam.structurize.util.BackUpHelper;
+import com.ldtteam.structurize.util.TickBudget;
 
 import net.minecraft.block.Block;
 import net.minecraft.entity.player.ServerPlayerEntity;
@@ -21,9 +26,11 @@ import net.minecraftforge.event.RegisterCommandsEvent;
 import net.minecraftforge.event.RegistryEvent;
 import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.event.entity.player.PlayerEvent;
+import net.minecraftforge.event.world.WorldEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.event.server.FMLServerStartedEvent;
 import net.minecraftforge.fml.event.server.FMLServerStoppingEvent;
+import net.minecraftforge.fml.server.ServerLifecycleHooks;
 
 import net.minecraftforge.registries.ForgeRegistries;
 import net.minecraftforge.registries.IForgeRegistry;
@@ -66,12 +73,19 @@ public class EventSubscriber
     {
         Structures.init();
         BackUpHelper.loadLinkSessionManager();
+        UndoStore.INSTANCE.clear();
+        JobCheckpoints.INSTANCE.resume(event.getServer());
     }
 
     @SubscribeEvent
     public static void onServerStopping(final FMLServerStoppingEvent event)
     {
         BackUpHelper.saveLinkSessionManager();
+        PaletteFixCache.INSTANCE.save();
+        OperationScheduler.INSTANCE.applyDeferredUpdates();
+        JobCheckpoints.INSTANCE.onServerStopping(event.getServer());
+        OperationScheduler.INSTANCE.clear();
+        UndoStore.INSTANCE.clear();
     }
 
     /**
@@ -90,10 +104,28 @@ public class EventSubscriber
         }
     }
 
+    @SubscribeEvent
+    public static void onServerTick(@NotNull final TickEvent.ServerTickEvent event)
+    {
+        if (event.phase == TickEvent.Phase.START)
+        {
+            TickBudget.startTick(ServerLifecycleHooks.getCurrentServer());
+        }
+    }
+
+    @SubscribeEvent
+    public static void onWorldSave(@NotNull final WorldEvent.Save event)
+    {
+        if (event.getWorld() instanceof ServerWorld)
+        {
+            JobCheckpoints.INSTANCE.onWorldSave((ServerWorld) event.getWorld());
+        }
+    }
+
     @SubscribeEvent
     public static void onWorldTick(@NotNull final TickEvent.WorldTickEvent event)
     {
-        if (event.world.isClientSide)
+        if (event.world.isClientSide || event.phase != TickEvent.Phase.END)
         {
             return;
         }
@@ -23,7 +23,6 @@ import net.minecraft.item.Item;
 import net.minecraft.item.ItemGroup;
 import net.minecraft.item.ItemStack;
 import net.minecraft.item.Rarity;
-import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.nbt.NBTUtil;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.ActionResultType;
@@ -283,7 +282,7 @@ public class ItemScanTool extends AbstractItemWithPosSelector
 
         try (OutputStream outputstream = new FileOutputStream(file))
         {
-            CompressedStreamTools.writeCompressed(BlueprintUtil.writeBlueprintToNBT(bp), outputstream);
+            BlueprintUtil.writeCompressed(BlueprintUtil.writeBlueprintToNBT(bp), outputstream);
         }
         catch (final Exception e)
         {
@@ -0,0 +1,484 @@
+package com.ldtteam.structurize.management;
+
+import com.ldtteam.structures.blueprints.v1.Blueprint;
+import com.ldtteam.structures.blueprints.v1.BlueprintUtil;
+import com.ldtteam.structurize.api.util.Log;
+import com.ldtteam.structurize.api.util.constant.Constants;
+import com.ldtteam.structurize.placement.StructurePlacer;
+import com.ldtteam.structurize.placement.structure.CreativeStructureHandler;
+import com.ldtteam.structurize.placement.structure.IStructureHandler;
+import com.ldtteam.structurize.util.ChangeStorage;
+import com.ldtteam.structurize.util.PlacementSettings;
+import com.ldtteam.structurize.util.TickedWorldOperation;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.Mirror;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.Rotation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraft.world.storage.FolderName;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the running structure placements with the world, so they resume after a restart or crash.
+ * Every job gets a folder with its blueprint, a small header (settings, phase, iterator position, owner, held back ticks) and its undo log.
+ * The undo log is written in segments holding only the changes since the previous checkpoint.
+ * Checkpoints are taken whenever the world of a job is saved, so after a crash they match the chunks on disk.
+ * They are taken on the server thread and written to disk by a background thread.
+ */
+public final class JobCheckpoints
+{
+    /**
+     * The checkpoints instance.
+     */
+    public static final JobCheckpoints INSTANCE = new JobCheckpoints();
+
+    /**
+     * File names of a job folder.
+     */
+    private static final String FOLDER_JOBS      = "jobs";
+    private static final String FILE_HEADER      = "job.dat";
+    private static final String FILE_BLUEPRINT   = "blueprint.dat";
+    private static final String FILE_UNDO_PREFIX = "undo_";
+    private static final String FILE_EXT_DAT     = ".dat";
+    private static final String FILE_EXT_TMP     = ".tmp";
+
+    /**
+     * Nbt keys of the header.
+     */
+    private static final String TAG_DIMENSION     = "dimension";
+    private static final String TAG_OWNER         = "owner";
+    private static final String TAG_OWNER_NAME    = "ownerName";
+    private static final String TAG_PRIORITY      = "priority";
+    private static final String TAG_PAUSED        = "paused";
+    private static final String TAG_POS           = "pos";
+    private static final String TAG_MIRROR        = "mirror";
+    private static final String TAG_ROTATION      = "rotation";
+    private static final String TAG_FANCY         = "fancy";
+    private static final String TAG_ITERATOR      = "iterator";
+    private static final String TAG_PHASE         = "phase";
+    private static final String TAG_CURSOR        = "cursor";
+    private static final String TAG_SEGMENTS      = "segments";
+    private static final String TAG_BLUEPRINT_MD5 = "blueprintMd5";
+    private static final String TAG_UPDATES       = "updates";
+
+    /**
+     * The checkpoints of the persisted jobs by job id, only accessed on the server thread.
+     */
+    private final Int2ObjectMap<Checkpoint> checkpoints = new Int2ObjectOpenHashMap<>();
+
+    /**
+     * Writes the checkpoints in order, null until the first checkpoint.
+     */
+    @Nullable
+    private ExecutorService writer;
+
+    /**
+     * Private constructor, use {@link #INSTANCE}.
+     */
+    private JobCheckpoints()
+    {
+        /*
+         * Intentionally left empty.
+         */
+    }
+
+    /**
+     * Take the checkpoints of the persistent jobs of a world, called when the world is saved.
+     *
+     * @param world the world.
+     */
+    public void onWorldSave(final ServerWorld world)
+    {
+        for (final ScheduledOperation job : OperationScheduler.INSTANCE.getJobs())
+        {
+            if (job.getOperation().getDimension().equals(world.dimension()))
+            {
+                checkpoint(world.getServer(), job);
+            }
+        }
+    }
+
+    /**
+     * Take a last checkpoint of all persistent jobs and wait for it to be written, called when the server stops.
+     *
+     * @param server the server.
+     */
+    public void onServerStopping(final MinecraftServer server)
+    {
+        checkpointAll(server);
+        if (writer != null)
+        {
+            writer.shutdown();
+            try
+            {
+                if (!writer.awaitTermination(1, TimeUnit.MINUTES))
+                {
+                    Log.getLogger().warn("Timed out saving the running pastes");
+                }
+            }
+            catch (final InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+        checkpoints.clear();
+    }
+
+    /**
+     * Stop persisting a job which finished or was cancelled and delete its files.
+     *
+     * @param job the job.
+     */
+    void discard(final ScheduledOperation job)
+    {
+        final Checkpoint checkpoint = checkpoints.remove(job.getId());
+        if (checkpoint != null)
+        {
+            getWriter().execute(checkpoint::delete);
+        }
+    }
+
+    /**
+     * Resume the jobs saved with the world, called when the server started.
+     *
+     * @param server the server.
+     */
+    public void resume(final MinecraftServer server)
+    {
+        final File[] folders = getJobsFolder(server).listFiles(File::isDirectory);
+        if (folders == null)
+        {
+            return;
+        }
+
+        for (final File folder : folders)
+        {
+            try
+            {
+                resume(server, folder);
+            }
+            catch (final IOException | RuntimeException e)
+            {
+                Log.getLogger().warn("Couldn't resume the paste saved in " + folder, e);
+                new Checkpoint(folder, 0, null).delete();
+            }
+        }
+    }
+
+    /**
+     * Resume a single saved job.
+     *
+     * @param server the server.
+     * @param folder the folder of the job.
+     * @throws IOException if the files can't be read.
+     */
+    private void resume(final MinecraftServer server, final File folder) throws IOException
+    {
+        final File headerFile = new File(folder, FILE_HEADER);
+        if (!headerFile.exists())
+        {
+            // The first checkpoint wasn't written completely.
+            new Checkpoint(folder, 0, null).delete();
+            return;
+        }
+
+        final CompoundNBT header = CompressedStreamTools.readCompressed(headerFile);
+        final ServerWorld world = server.getLevel(RegistryKey.create(Registry.DIMENSION_REGISTRY, new ResourceLocation(header.getString(TAG_DIMENSION))));
+        if (world == null)
+        {
+            throw new IOException("Unknown dimension " + header.getString(TAG_DIMENSION));
+        }
+
+        final byte[] blueprintData = Files.readAllBytes(new File(folder, FILE_BLUEPRINT).toPath());
+        final String blueprintMd5 = md5(blueprintData);
+        if (!blueprintMd5.equals(header.getString(TAG_BLUEPRINT_MD5)))
+        {
+            throw new IOException("The blueprint doesn't match its checksum");
+        }
+        final Blueprint blueprint = BlueprintUtil.readBlueprint(blueprintData);
+        if (blueprint == null)
+        {
+            throw new IOException("Unsupported blueprint version");
+        }
+
+        final IStructureHandler handler = new CreativeStructureHandler(world,
+          BlockPos.of(header.getLong(TAG_POS)),
+          blueprint,
+          new PlacementSettings(Mirror.valueOf(header.getString(TAG_MIRROR)), Rotation.valueOf(header.getString(TAG_ROTATION))),
+          header.getBoolean(TAG_FANCY));
+        final StructurePlacer placer = new StructurePlacer(handler, header.getString(TAG_ITERATOR));
+        if (header.contains(TAG_UPDATES))
+        {
+            placer.restoreDeferredUpdates(world, header.getCompound(TAG_UPDATES));
+        }
+
+        final UUID owner = header.getUUID(TAG_OWNER);
+        final ChangeStorage storage = new ChangeStorage(owner);
+        final int segments = header.getInt(TAG_SEGMENTS);
+        for (int i = 0; i < segments; i++)
+        {
+            storage.readJournalSegment(CompressedStreamTools.readCompressed(new File(folder, FILE_UNDO_PREFIX + i + FILE_EXT_DAT)));
+        }
+
+        final TickedWorldOperation operation = new TickedWorldOperation(placer, storage, header.getInt(TAG_PHASE), BlockPos.of(header.getLong(TAG_CURSOR)));
+        final ScheduledOperation job = OperationScheduler.INSTANCE.schedule(operation,
+          ScheduledOperation.Priority.valueOf(header.getString(TAG_PRIORITY)),
+          owner,
+          header.getString(TAG_OWNER_NAME));
+        job.setPaused(header.getBoolean(TAG_PAUSED));
+        checkpoints.put(job.getId(), new Checkpoint(folder, segments, blueprintMd5));
+
+        Log.getLogger().info("Resumed paste #" + job.getId() + " of " + job.getOwnerName());
+    }
+
+    /**
+     * Take the checkpoints of all persistent jobs.
+     *
+     * @param server the server.
+     */
+    private void checkpointAll(final MinecraftServer server)
+    {
+        for (final ScheduledOperation job : OperationScheduler.INSTANCE.getJobs())
+        {
+            checkpoint(server, job);
+        }
+    }
+
+    /**
+     * Take the checkpoint of a job and hand it to the writer, if the job is persistent.
+     *
+     * @param server the server.
+     * @param job    the job.
+     */
+    private void checkpoint(final MinecraftServer server, final ScheduledOperation job)
+    {
+        final TickedWorldOperation operation = job.getOperation();
+        final StructurePlacer placer = operation.getPlacer();
+        if (placer == null || operation.getCurrentPos() == null || !placer.getHandler().isPersistent())
+        {
+            return;
+        }
+
+        Checkpoint checkpoint = checkpoints.get(job.getId());
+        Blueprint blueprint = null;
+        if (checkpoint == null)
+        {
+            checkpoint = new Checkpoint(new File(getJobsFolder(server), UUID.randomUUID().toString()), 0, null);
+            checkpoints.put(job.getId(), checkpoint);
+
+            // Decode the tile entities and entities on this thread, the writer only reads them.
+            blueprint = placer.getHandler().getBluePrint();
+            blueprint.getTileEntities();
+            blueprint.getEntities();
+        }
+
+        final CompoundNBT segment = operation.getChangeStorage().takeJournalSegment();
+        final int segmentIndex = segment == null ? -1 : checkpoint.segments++;
+
+        final IStructureHandler handler = placer.getHandler();
+        final CompoundNBT header = new CompoundNBT();
+        header.putString(TAG_DIMENSION, operation.getDimension().location().toString());
+        header.putUUID(TAG_OWNER, job.getOwner());
+        header.putString(TAG_OWNER_NAME, job.getOwnerName());
+        header.putString(TAG_PRIORITY, job.getPriority().name());
+        header.putBoolean(TAG_PAUSED, job.isPaused());
+        header.putLong(TAG_POS, handler.getWorldPos().asLong());
+        header.putString(TAG_MIRROR, handler.getSettings().getMirror().name());
+        header.putString(TAG_ROTATION, handler.getSettings().getRotation().name());
+        header.putBoolean(TAG_FANCY, handler.fancyPlacement());
+        header.putString(TAG_ITERATOR, placer.getIteratorId());
+        header.putInt(TAG_PHASE, operation.getStructurePhase());
+        header.putLong(TAG_CURSOR, operation.getCurrentPos().asLong());
+        header.putInt(TAG_SEGMENTS, checkpoint.segments);
+        if (placer.getDeferredUpdates() != null)
+        {
+            header.put(TAG_UPDATES, placer.getDeferredUpdates().write());
+        }
+
+        final Checkpoint target = checkpoint;
+        final Blueprint newBlueprint = blueprint;
+        getWriter().execute(() -> target.write(newBlueprint, segment, segmentIndex, header));
+    }
+
+    /**
+     * @return the writer, started on first use.
+     */
+    private ExecutorService getWriter()
+    {
+        if (writer == null)
+        {
+            writer = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "Structurize Job Checkpoints");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writer;
+    }
+
+    /**
+     * Get the folder the jobs are saved in.
+     *
+     * @param server the server.
+     * @return the folder.
+     */
+    private static File getJobsFolder(final MinecraftServer server)
+    {
+        return new File(server.getWorldPath(new FolderName(Constants.MOD_ID)).toFile(), FOLDER_JOBS);
+    }
+
+    /**
+     * Compute the md5 checksum of data.
+     *
+     * @param data the data.
+     * @return the checksum as hex string.
+     */
+    private static String md5(final byte[] data)
+    {
+        try
+        {
+            final StringBuilder hex = new StringBuilder();
+            for (final byte b : MessageDigest.getInstance("MD5").digest(data))
+            {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        catch (final NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The files of a persisted job. Apart from the segment counter only accessed by the writer.
+     */
+    private static final class Checkpoint
+    {
+        /**
+         * The folder of the job.
+         */
+        private final File folder;
+
+        /**
+         * The amount of undo segments handed to the writer, only accessed on the server thread.
+         */
+        private int segments;
+
+        /**
+         * The checksum of the written blueprint, null until it was written.
+         */
+        @Nullable
+        private String blueprintMd5;
+
+        /**
+         * Create a new checkpoint.
+         *
+         * @param folder       the folder of the job.
+         * @param segments     the amount of undo segments already written.
+         * @param blueprintMd5 the checksum of the written blueprint or null.
+         */
+        private Checkpoint(final File folder, final int segments, @Nullable final String blueprintMd5)
+        {
+            this.folder = folder;
+            this.segments = segments;
+            this.blueprintMd5 = blueprintMd5;
+        }
+
+        /**
+         * Write a checkpoint, the header is replaced last so it only ever points to complete files.
+         *
+         * @param blueprint    the blueprint if it isn't written yet, else null.
+         * @param segment      the new undo segment or null.
+         * @param segmentIndex the index of the new undo segment.
+         * @param header       the header.
+         */
+        private void write(@Nullable final Blueprint blueprint, @Nullable final CompoundNBT segment, final int segmentIndex, final CompoundNBT header)
+        {
+            try
+            {
+                Files.createDirectories(folder.toPath());
+                if (blueprint != null)
+                {
+                    final ByteArrayOutputStream blueprintData = new ByteArrayOutputStream();
+                    BlueprintUtil.writeCompressed(BlueprintUtil.writeBlueprintToNBT(blueprint), blueprintData);
+                    final File tmp = new File(folder, FILE_BLUEPRINT + FILE_EXT_TMP);
+                    Files.write(tmp.toPath(), blueprintData.toByteArray());
+                    replace(tmp, FILE_BLUEPRINT);
+                    blueprintMd5 = md5(blueprintData.toByteArray());
+                }
+
+                if (segment != null)
+                {
+                    final String name = FILE_UNDO_PREFIX + segmentIndex + FILE_EXT_DAT;
+                    final File tmp = new File(folder, name + FILE_EXT_TMP);
+                    CompressedStreamTools.writeCompressed(segment, tmp);
+                    replace(tmp, name);
+                }
+
+                if (blueprintMd5 != null)
+                {
+                    header.putString(TAG_BLUEPRINT_MD5, blueprintMd5);
+                    final File tmp = new File(folder, FILE_HEADER + FILE_EXT_TMP);
+                    CompressedStreamTools.writeCompressed(header, tmp);
+                    replace(tmp, FILE_HEADER);
+                }
+            }
+            catch (final IOException e)
+            {
+                Log.getLogger().warn("Couldn't save the checkpoint of the paste in " + folder, e);
+            }
+        }
+
+        /**
+         * Move a written temporary file to its final name.
+         *
+         * @param tmp  the temporary file.
+         * @param name the final name.
+         * @throws IOException if moving fails.
+         */
+        private void replace(final File tmp, final String name) throws IOException
+        {
+            Files.move(tmp.toPath(), new File(folder, name).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Delete the files of the job.
+         */
+        private void delete()
+        {
+            final File[] files = folder.listFiles();
+            if (files != null)
+            {
+                for (final File file : files)
+                {
+                    if (!file.delete())
+                    {
+                        Log.getLogger().warn("Couldn't delete " + file);
+                    }
+                }
+            }
+            folder.delete();
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.ldtteam.structurize.management;
 
 import com.ldtteam.structures.blueprints.v1.Blueprint;
-import com.ldtteam.structurize.Structurize;
 import com.ldtteam.structurize.api.util.Log;
 import com.ldtteam.structurize.api.util.Shape;
 import com.ldtteam.structurize.util.BlockUtils;
@@ -23,8 +22,6 @@ import org.mariuszgromada.math.mxparser.Argument;
 import org.mariuszgromada.math.mxparser.Expression;
 
 import java.util.*;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 /**
  * Singleton class that links colonies to minecraft.
@@ -37,16 +34,6 @@ public final class Manager
      */
     private static boolean schematicDownloaded = false;
 
-    /**
-     * List of the last changes to the world.
-     */
-    private static LinkedList<ChangeStorage> changeQueue = new LinkedList<>();
-
-    /**
-     * List of scanTool operations.
-     */
-    private static LinkedList<TickedWorldOperation> scanToolOperationPool = new LinkedList<>();
-
     /**
      * Pseudo unique id for the server
      */
@@ -64,18 +51,7 @@ public final class Manager
      */
     public static void onWorldTick(final ServerWorld world)
     {
-        if (!scanToolOperationPool.isEmpty())
-        {
-            final TickedWorldOperation operation = scanToolOperationPool.peek();
-            if (operation != null && operation.apply(world))
-            {
-                scanToolOperationPool.pop();
-                if (!operation.isUndo())
-                {
-                    addToUndoCache(operation.getChangeStorage());
-                }
-            }
-        }
+        OperationScheduler.INSTANCE.tick(world);
     }
 
     /**
@@ -85,7 +61,19 @@ public final class Manager
      */
     public static void addToQueue(final TickedWorldOperation operation)
     {
-        scanToolOperationPool.push(operation);
+        addToQueue(operation, ScheduledOperation.Priority.NORMAL);
+    }
+
+    /**
+     * Add a new item to the scanTool operation queue.
+     *
+     * @param operation the operation to add.
+     * @param priority  the priority of the operation.
+     * @return the scheduled job.
+     */
+    public static ScheduledOperation addToQueue(final TickedWorldOperation operation, final ScheduledOperation.Priority priority)
+    {
+        return OperationScheduler.INSTANCE.schedule(operation, priority);
     }
 
     /**
@@ -95,11 +83,7 @@ public final class Manager
      */
     public static void addToUndoCache(final ChangeStorage storage)
     {
-        if (changeQueue.size() >= Structurize.getConfig().getServer().maxCachedChanges.get())
-        {
-            changeQueue.pop();
-        }
-        changeQueue.push(storage);
+        UndoStore.INSTANCE.add(storage);
     }
 
     /**
@@ -240,7 +224,7 @@ public final class Manager
         }
 
         final Blueprint blueprint = new Blueprint((short) height, (short) (shape == Shape.DIAMOND ? height : inputHeight + 2), (short) height);
-        posList.forEach(blueprint::addBlockState);
+        blueprint.addBlockStates(posList);
         return blueprint;
     }
 
@@ -281,7 +265,7 @@ public final class Manager
             }
         }
         final Blueprint blueprint = new Blueprint((short) width, (short) height, (short) length);
-        posList.forEach(blueprint::addBlockState);
+        blueprint.addBlockStates(posList);
         return blueprint;
     }
 
@@ -332,7 +316,7 @@ public final class Manager
         }
 
         final Blueprint blueprint = new Blueprint((short) ((height + 2) * 2), (short) ((height + 2) * 2), (short) ((height + 2) * 2));
-        posList.forEach(blueprint::addBlockState);
+        blueprint.addBlockStates(posList);
         return blueprint;
     }
 
@@ -373,7 +357,7 @@ public final class Manager
         }
 
         final Blueprint blueprint = new Blueprint((short) (width * 2), (short) height, (short) (width * 2));
-        posList.forEach(blueprint::addBlockState);
+        blueprint.addBlockStates(posList);
         return blueprint;
     }
 
@@ -410,7 +394,7 @@ public final class Manager
         }
 
         final Blueprint blueprint = new Blueprint((short) length, (short) (frequency * 2 + 1 + (!flat ? width * 2 : 0)), (short) (width * 2 + 1));
-        posList.forEach(blueprint::addBlockState);
+        blueprint.addBlockStates(posList);
         return blueprint;
     }
 
@@ -454,7 +438,7 @@ public final class Manager
             }
         }
         final Blueprint blueprint = new Blueprint((short) (length + 1), (short) (height + 1), (short) (width + 1));
-        posList.forEach(blueprint::addBlockState);
+        blueprint.addBlockStates(posList);
         return blueprint;
     }
 
@@ -480,13 +464,10 @@ public final class Manager
      */
     public static void undo(final PlayerEntity player)
     {
-        final Iterable<ChangeStorage> iterable = () -> changeQueue.iterator();
-        final Stream<ChangeStorage> storageStream = StreamSupport.stream(iterable.spliterator(), false);
-        final Optional<ChangeStorage> theStorage = storageStream.filter(storage -> storage.isOwner(player)).findFirst();
-        if (theStorage.isPresent())
+        final ChangeStorage storage = UndoStore.INSTANCE.take(player.getUUID());
+        if (storage != null)
         {
-            addToQueue(new TickedWorldOperation(theStorage.get(), player));
-            changeQueue.remove(theStorage.get());
+            addToQueue(new TickedWorldOperation(storage, player), ScheduledOperation.Priority.HIGH);
         }
     }
 
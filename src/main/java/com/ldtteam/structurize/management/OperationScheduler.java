@@ -0,0 +1,383 @@
+package com.ldtteam.structurize.management;
+
+import com.ldtteam.structurize.util.TickBudget;
+import com.ldtteam.structurize.util.TickedWorldOperation;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
+import net.minecraft.util.RegistryKey;
+import net.minecraft.world.World;
+import net.minecraft.world.server.ServerWorld;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Runs the queued world operations.
+ * Operations are sharded by dimension, every world tick only runs the operations of its own dimension.
+ * Within a dimension every owner has an own queue which is run in order of priority and age.
+ * The heads of all queues of all dimensions share the tick budget by the weight of their priority.
+ */
+public final class OperationScheduler
+{
+    /**
+     * The scheduler instance.
+     */
+    public static final OperationScheduler INSTANCE = new OperationScheduler();
+
+    /**
+     * The queues by dimension.
+     */
+    private final Map<RegistryKey<World>, DimensionQueue> dimensions = new HashMap<>();
+
+    /**
+     * All jobs by id, in order of scheduling.
+     */
+    private final Int2ObjectLinkedOpenHashMap<ScheduledOperation> jobs = new Int2ObjectLinkedOpenHashMap<>();
+
+    /**
+     * The next job id.
+     */
+    private int nextId = 1;
+
+    /**
+     * Private constructor, use {@link #INSTANCE}.
+     */
+    private OperationScheduler()
+    {
+        /*
+         * Intentionally left empty.
+         */
+    }
+
+    /**
+     * Queue a new operation behind all operations of the same owner with the same or a higher priority.
+     *
+     * @param operation the operation.
+     * @param priority  the priority.
+     * @return the scheduled job.
+     */
+    public ScheduledOperation schedule(final TickedWorldOperation operation, final ScheduledOperation.Priority priority)
+    {
+        return schedule(new ScheduledOperation(nextId++, operation, priority));
+    }
+
+    /**
+     * Queue an operation of an owner who may be offline, for example a job restored after a restart.
+     *
+     * @param operation the operation.
+     * @param priority  the priority.
+     * @param owner     the owner uuid.
+     * @param ownerName the owner name.
+     * @return the scheduled job.
+     */
+    public ScheduledOperation schedule(final TickedWorldOperation operation, final ScheduledOperation.Priority priority, final UUID owner, final String ownerName)
+    {
+        return schedule(new ScheduledOperation(nextId++, operation, priority, owner, ownerName));
+    }
+
+    /**
+     * Queue a new job.
+     *
+     * @param job the job.
+     * @return the job.
+     */
+    private ScheduledOperation schedule(final ScheduledOperation job)
+    {
+        jobs.put(job.getId(), job);
+        enqueue(job);
+        return job;
+    }
+
+    /**
+     * Run the queued operations for a world tick.
+     *
+     * @param world the ticking world.
+     */
+    public void tick(final ServerWorld world)
+    {
+        final DimensionQueue dimension = dimensions.get(world.dimension());
+        if (dimension == null)
+        {
+            return;
+        }
+
+        final int serverTick = world.getServer().getTickCount();
+        dimension.lastTick = serverTick;
+        final List<ScheduledOperation> running = dimension.getRunning();
+        if (running.isEmpty())
+        {
+            return;
+        }
+
+        // Dimensions which didn't tick yet in this server tick keep their share of the budget.
+        int remainingWeight = getWeight(running);
+        for (final DimensionQueue other : dimensions.values())
+        {
+            if (other.lastTick != serverTick)
+            {
+                remainingWeight += getWeight(other.getRunning());
+            }
+        }
+
+        dimension.rotation = (dimension.rotation + 1) % running.size();
+        for (int i = 0; i < running.size(); i++)
+        {
+            final ScheduledOperation job = running.get((dimension.rotation + i) % running.size());
+            final int weight = job.getPriority().getWeight();
+
+            final boolean finished;
+            TickBudget.startSlice(weight, remainingWeight);
+            try
+            {
+                finished = job.getOperation().apply(world);
+            }
+            finally
+            {
+                TickBudget.endSlice();
+            }
+
+            remainingWeight -= weight;
+            job.onTickRun();
+            if (finished)
+            {
+                remove(job);
+                if (!job.getOperation().isUndo())
+                {
+                    Manager.addToUndoCache(job.getOperation().getChangeStorage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a job.
+     *
+     * @param id the job id.
+     * @return the job or null if it doesn't exist.
+     */
+    @Nullable
+    public ScheduledOperation getJob(final int id)
+    {
+        return jobs.get(id);
+    }
+
+    /**
+     * @return all queued jobs in order of scheduling.
+     */
+    public List<ScheduledOperation> getJobs()
+    {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Pause a job, the next job of its owner runs in the meantime.
+     *
+     * @param id the job id.
+     * @return false if the job doesn't exist.
+     */
+    public boolean pause(final int id)
+    {
+        return setPaused(id, true);
+    }
+
+    /**
+     * Resume a paused job.
+     *
+     * @param id the job id.
+     * @return false if the job doesn't exist.
+     */
+    public boolean resume(final int id)
+    {
+        return setPaused(id, false);
+    }
+
+    /**
+     * Cancel a job. The changes done so far are kept and can be undone, a cancelled undo can be continued by undoing again.
+     *
+     * @param id the job id.
+     * @return false if the job doesn't exist.
+     */
+    public boolean cancel(final int id)
+    {
+        final ScheduledOperation job = jobs.get(id);
+        if (job == null)
+        {
+            return false;
+        }
+
+        remove(job);
+        job.getOperation().cancel();
+        Manager.addToUndoCache(job.getOperation().getChangeStorage());
+        return true;
+    }
+
+    /**
+     * Change the priority of a job.
+     *
+     * @param id       the job id.
+     * @param priority the new priority.
+     * @return false if the job doesn't exist.
+     */
+    public boolean setPriority(final int id, final ScheduledOperation.Priority priority)
+    {
+        final ScheduledOperation job = jobs.get(id);
+        if (job == null)
+        {
+            return false;
+        }
+
+        dimensions.get(job.getOperation().getDimension()).queues.get(job.getOwner()).remove(job);
+        job.setPriority(priority);
+        enqueue(job);
+        return true;
+    }
+
+    /**
+     * Run the held back neighbor updates and ticks of all jobs, for example before the world is saved for the last time.
+     * The jobs keep running.
+     */
+    public void applyDeferredUpdates()
+    {
+        for (final ScheduledOperation job : jobs.values())
+        {
+            job.getOperation().applyDeferredUpdates();
+        }
+    }
+
+    /**
+     * Drop all jobs, for example when the server stops. Their held back updates run first, so no ticks get lost.
+     */
+    public void clear()
+    {
+        applyDeferredUpdates();
+        dimensions.clear();
+        jobs.clear();
+    }
+
+    /**
+     * Pause or resume a job.
+     *
+     * @param id     the job id.
+     * @param paused true to pause.
+     * @return false if the job doesn't exist.
+     */
+    private boolean setPaused(final int id, final boolean paused)
+    {
+        final ScheduledOperation job = jobs.get(id);
+        if (job == null)
+        {
+            return false;
+        }
+        job.setPaused(paused);
+        return true;
+    }
+
+    /**
+     * Insert a job into the queue of its owner, behind all jobs with the same or a higher priority.
+     *
+     * @param job the job.
+     */
+    private void enqueue(final ScheduledOperation job)
+    {
+        final LinkedList<ScheduledOperation> queue = dimensions.computeIfAbsent(job.getOperation().getDimension(), key -> new DimensionQueue()).queues
+          .computeIfAbsent(job.getOwner(), owner -> new LinkedList<>());
+        final ListIterator<ScheduledOperation> iterator = queue.listIterator();
+        while (iterator.hasNext())
+        {
+            final ScheduledOperation other = iterator.next();
+            if (other.getPriority().compareTo(job.getPriority()) < 0 || (other.getPriority() == job.getPriority() && other.getId() > job.getId()))
+            {
+                iterator.previous();
+                break;
+            }
+        }
+        iterator.add(job);
+    }
+
+    /**
+     * Remove a job from the scheduler.
+     *
+     * @param job the job.
+     */
+    private void remove(final ScheduledOperation job)
+    {
+        jobs.remove(job.getId());
+        JobCheckpoints.INSTANCE.discard(job);
+        final DimensionQueue dimension = dimensions.get(job.getOperation().getDimension());
+        final LinkedList<ScheduledOperation> queue = dimension.queues.get(job.getOwner());
+        queue.remove(job);
+        if (queue.isEmpty())
+        {
+            dimension.queues.remove(job.getOwner());
+            if (dimension.queues.isEmpty())
+            {
+                dimensions.remove(job.getOperation().getDimension());
+            }
+        }
+    }
+
+    /**
+     * Sum up the weights of jobs.
+     *
+     * @param running the jobs.
+     * @return the sum of their weights.
+     */
+    private static int getWeight(final List<ScheduledOperation> running)
+    {
+        int weight = 0;
+        for (final ScheduledOperation job : running)
+        {
+            weight += job.getPriority().getWeight();
+        }
+        return weight;
+    }
+
+    /**
+     * The queues of a single dimension.
+     */
+    private static final class DimensionQueue
+    {
+        /**
+         * The queues by owner.
+         */
+        private final Map<UUID, LinkedList<ScheduledOperation>> queues = new LinkedHashMap<>();
+
+        /**
+         * Offset of the owner which is served first, rotated each tick.
+         */
+        private int rotation = 0;
+
+        /**
+         * The server tick this dimension ran its jobs in last.
+         */
+        private int lastTick = -1;
+
+        /**
+         * Get the jobs to run, the first job of every owner which isn't paused.
+         *
+         * @return the jobs.
+         */
+        private List<ScheduledOperation> getRunning()
+        {
+            final List<ScheduledOperation> running = new ArrayList<>(queues.size());
+            for (final LinkedList<ScheduledOperation> queue : queues.values())
+            {
+                for (final ScheduledOperation job : queue)
+                {
+                    if (!job.isPaused())
+                    {
+                        running.add(job);
+                        break;
+                    }
+                }
+            }
+            return running;
+        }
+    }
+}
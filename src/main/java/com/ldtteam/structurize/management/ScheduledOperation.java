@@ -0,0 +1,202 @@
+package com.ldtteam.structurize.management;
+
+import com.ldtteam.structurize.util.TickedWorldOperation;
+
+import java.util.UUID;
+
+/**
+ * A world operation queued in the {@link OperationScheduler}.
+ */
+public class ScheduledOperation
+{
+    /**
+     * Owner of operations without a player.
+     */
+    public static final UUID SERVER_OWNER = new UUID(0, 0);
+
+    /**
+     * Job priorities, the weight is the share of the tick budget relative to the other running jobs.
+     */
+    public enum Priority
+    {
+        LOW(1),
+        NORMAL(2),
+        HIGH(4);
+
+        /**
+         * The weight of the priority.
+         */
+        private final int weight;
+
+        /**
+         * Create a priority.
+         *
+         * @param weight the weight.
+         */
+        Priority(final int weight)
+        {
+            this.weight = weight;
+        }
+
+        /**
+         * @return the share of the tick budget.
+         */
+        public int getWeight()
+        {
+            return weight;
+        }
+    }
+
+    /**
+     * The job id.
+     */
+    private final int id;
+
+    /**
+     * The operation.
+     */
+    private final TickedWorldOperation operation;
+
+    /**
+     * The owner uuid.
+     */
+    private final UUID owner;
+
+    /**
+     * The owner name.
+     */
+    private final String ownerName;
+
+    /**
+     * The priority.
+     */
+    private Priority priority;
+
+    /**
+     * If the job is paused.
+     */
+    private boolean paused = false;
+
+    /**
+     * Ticks the job ran in.
+     */
+    private int ticksRun = 0;
+
+    /**
+     * Create a new job.
+     *
+     * @param id        the job id.
+     * @param operation the operation.
+     * @param priority  the priority.
+     */
+    ScheduledOperation(final int id, final TickedWorldOperation operation, final Priority priority)
+    {
+        this(id,
+          operation,
+          priority,
+          operation.getPlayer() == null ? SERVER_OWNER : operation.getPlayer().getUUID(),
+          operation.getPlayer() == null ? "Server" : operation.getPlayer().getName().getString());
+    }
+
+    /**
+     * Create a new job of an owner who may be offline.
+     *
+     * @param id        the job id.
+     * @param operation the operation.
+     * @param priority  the priority.
+     * @param owner     the owner uuid.
+     * @param ownerName the owner name.
+     */
+    ScheduledOperation(final int id, final TickedWorldOperation operation, final Priority priority, final UUID owner, final String ownerName)
+    {
+        this.id = id;
+        this.operation = operation;
+        this.owner = owner;
+        this.ownerName = ownerName;
+        this.priority = priority;
+    }
+
+    /**
+     * @return the job id.
+     */
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * @return the operation.
+     */
+    public TickedWorldOperation getOperation()
+    {
+        return operation;
+    }
+
+    /**
+     * @return the owner uuid, {@link #SERVER_OWNER} if the job has no player.
+     */
+    public UUID getOwner()
+    {
+        return owner;
+    }
+
+    /**
+     * @return the owner name.
+     */
+    public String getOwnerName()
+    {
+        return ownerName;
+    }
+
+    /**
+     * @return the priority.
+     */
+    public Priority getPriority()
+    {
+        return priority;
+    }
+
+    /**
+     * Set the priority, use {@link OperationScheduler#setPriority(int, Priority)} for queued jobs.
+     *
+     * @param priority the new priority.
+     */
+    void setPriority(final Priority priority)
+    {
+        this.priority = priority;
+    }
+
+    /**
+     * @return true if paused.
+     */
+    public boolean isPaused()
+    {
+        return paused;
+    }
+
+    /**
+     * Pause or resume the job.
+     *
+     * @param paused true to pause.
+     */
+    void setPaused(final boolean paused)
+    {
+        this.paused = paused;
+    }
+
+    /**
+     * @return the amount of ticks the job ran in.
+     */
+    public int getTicksRun()
+    {
+        return ticksRun;
+    }
+
+    /**
+     * Count a tick the job ran in.
+     */
+    void onTickRun()
+    {
+        ticksRun++;
+    }
+}
@@ -0,0 +1,286 @@
+package com.ldtteam.structurize.management;
+
+import com.ldtteam.structurize.Structurize;
+import com.ldtteam.structurize.api.util.Log;
+import com.ldtteam.structurize.api.util.constant.Constants;
+import com.ldtteam.structurize.util.ChangeStorage;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.Util;
+import net.minecraft.world.storage.FolderName;
+import net.minecraftforge.fml.server.ServerLifecycleHooks;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps the changes which can be undone, newest first.
+ * Besides the amount of changes the memory they use is limited. Once the budget is exceeded the least recently
+ * used changes are moved to compressed files in the world folder, or dropped if spilling is disabled.
+ */
+public final class UndoStore
+{
+    /**
+     * The store instance.
+     */
+    public static final UndoStore INSTANCE = new UndoStore();
+
+    /**
+     * File names of the spilled changes.
+     */
+    private static final String FOLDER_UNDO  = "undo";
+    private static final String FILE_EXT_DAT = ".dat";
+
+    /**
+     * The changes, newest first.
+     */
+    private final LinkedList<Entry> entries = new LinkedList<>();
+
+    /**
+     * The estimated memory of the changes which aren't spilled.
+     */
+    private long memoryBytes = 0;
+
+    /**
+     * Private constructor, use {@link #INSTANCE}.
+     */
+    private UndoStore()
+    {
+        /*
+         * Intentionally left empty.
+         */
+    }
+
+    /**
+     * Add a change, dropping or spilling older changes which exceed the limits.
+     *
+     * @param storage the change.
+     */
+    public void add(final ChangeStorage storage)
+    {
+        final Entry entry = new Entry(storage);
+        entries.addFirst(entry);
+        memoryBytes += entry.bytes;
+
+        while (entries.size() > Structurize.getConfig().getServer().maxCachedChanges.get())
+        {
+            drop(entries.removeLast());
+        }
+        evict();
+    }
+
+    /**
+     * Take the newest change of an owner out of the store, loading it back if it was spilled.
+     *
+     * @param owner the owner uuid.
+     * @return the change or null if the owner has none.
+     */
+    @Nullable
+    public ChangeStorage take(final UUID owner)
+    {
+        final Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext())
+        {
+            final Entry entry = iterator.next();
+            if (!owner.equals(entry.owner))
+            {
+                continue;
+            }
+
+            iterator.remove();
+            if (entry.storage != null)
+            {
+                memoryBytes -= entry.bytes;
+                return entry.storage;
+            }
+            return load(entry);
+        }
+        return null;
+    }
+
+    /**
+     * Drop all changes and their files, for example when the server stops.
+     */
+    public void clear()
+    {
+        while (!entries.isEmpty())
+        {
+            drop(entries.removeFirst());
+        }
+        memoryBytes = 0;
+
+        final MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        final File[] leftovers = server == null ? null : getFolder(server).listFiles();
+        if (leftovers != null)
+        {
+            for (final File file : leftovers)
+            {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Spill or drop the least recently used changes until the memory budget is met. The newest change is only spilled, never dropped.
+     */
+    private void evict()
+    {
+        final long budget = Structurize.getConfig().getServer().undoCacheSizeMb.get() * 1024L * 1024L;
+        final MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        final boolean spill = server != null && Structurize.getConfig().getServer().spillUndoToDisk.get();
+
+        final Iterator<Entry> iterator = entries.descendingIterator();
+        while (memoryBytes > budget && iterator.hasNext())
+        {
+            final Entry entry = iterator.next();
+            if (entry.storage == null)
+            {
+                continue;
+            }
+
+            if (spill)
+            {
+                spill(server, entry);
+            }
+            else if (entry != entries.getFirst())
+            {
+                iterator.remove();
+                drop(entry);
+            }
+        }
+    }
+
+    /**
+     * Move a change to a file, the file is written on a worker thread.
+     *
+     * @param server the server.
+     * @param entry  the change.
+     */
+    private void spill(final MinecraftServer server, final Entry entry)
+    {
+        final File folder = getFolder(server);
+        final File file = new File(folder, UUID.randomUUID() + FILE_EXT_DAT);
+        final CompoundNBT data = entry.storage.writeToNBT();
+
+        memoryBytes -= entry.bytes;
+        entry.storage = null;
+        entry.file = file;
+        entry.write = CompletableFuture.runAsync(() -> {
+            try
+            {
+                Files.createDirectories(folder.toPath());
+                CompressedStreamTools.writeCompressed(data, file);
+            }
+            catch (final IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }, Util.backgroundExecutor());
+    }
+
+    /**
+     * Load a spilled change and delete its file.
+     *
+     * @param entry the change.
+     * @return the change or null if it couldn't be loaded.
+     */
+    @Nullable
+    private ChangeStorage load(final Entry entry)
+    {
+        try
+        {
+            entry.write.join();
+            return ChangeStorage.readFromNBT(CompressedStreamTools.readCompressed(entry.file));
+        }
+        catch (final IOException | RuntimeException e)
+        {
+            Log.getLogger().warn("Couldn't load the spilled change " + entry.file, e);
+            return null;
+        }
+        finally
+        {
+            entry.file.delete();
+        }
+    }
+
+    /**
+     * Forget a change which was removed from the entries, deleting its file.
+     *
+     * @param entry the change.
+     */
+    private void drop(final Entry entry)
+    {
+        if (entry.storage != null)
+        {
+            memoryBytes -= entry.bytes;
+            return;
+        }
+
+        final File file = entry.file;
+        entry.write.whenComplete((result, e) -> file.delete());
+    }
+
+    /**
+     * Get the folder the changes are spilled to.
+     *
+     * @param server the server.
+     * @return the folder.
+     */
+    private static File getFolder(final MinecraftServer server)
+    {
+        return new File(server.getWorldPath(new FolderName(Constants.MOD_ID)).toFile(), FOLDER_UNDO);
+    }
+
+    /**
+     * A change in the store.
+     */
+    private static final class Entry
+    {
+        /**
+         * The uuid of the owner or null.
+         */
+        @Nullable
+        private final UUID owner;
+
+        /**
+         * The estimated memory of the change.
+         */
+        private final long bytes;
+
+        /**
+         * The change, null once spilled.
+         */
+        @Nullable
+        private ChangeStorage storage;
+
+        /**
+         * The file of the spilled change, null if in memory.
+         */
+        private File file;
+
+        /**
+         * The running write of the spilled change, null if in memory.
+         */
+        private CompletableFuture<Void> write;
+
+        /**
+         * Create a new entry.
+         *
+         * @param storage the change.
+         */
+        private Entry(final ChangeStorage storage)
+        {
+            this.owner = storage.getOwner();
+            this.bytes = storage.getByteSize();
+            this.storage = storage;
+        }
+    }
+}
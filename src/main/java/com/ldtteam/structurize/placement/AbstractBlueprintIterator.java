@@ -7,7 +7,9 @@ import com.ldtteam.structurize.util.BlueprintPositionInfo;
 import net.minecraft.util.math.BlockPos;
 import net.minecraftforge.common.util.TriPredicate;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.function.Supplier;
 
@@ -47,6 +49,20 @@ public abstract class AbstractBlueprintIterator
      */
     private boolean isRemoving;
 
+    /**
+     * The finished world diff of the placement, null if there is none.
+     */
+    @Nullable
+    private WorldDiff worldDiff;
+
+    /**
+     * The positions of the world diff which need work, in the increment and the decrement order. Mapped on first use.
+     */
+    @Nullable
+    private BitSet dirtyUp;
+    @Nullable
+    private BitSet dirtyDown;
+
     /**
      * Initialize the blueprint iterator with the structure handler.
      * @param structureHandler the structure handler.
@@ -74,7 +90,7 @@ public abstract class AbstractBlueprintIterator
      */
     public Result increment(final TriPredicate<BlueprintPositionInfo, BlockPos, IStructureHandler> skipCondition)
     {
-        return iterateWithCondition(skipCondition, this::increment);
+        return iterateWithCondition(skipCondition, this::increment, true);
     }
 
     /**
@@ -96,24 +112,50 @@ public abstract class AbstractBlueprintIterator
      */
     public Result decrement(final TriPredicate<BlueprintPositionInfo, BlockPos, IStructureHandler> skipCondition)
     {
-        return iterateWithCondition(skipCondition, this::decrement);
+        return iterateWithCondition(skipCondition, this::decrement, false);
     }
 
     /**
      * Execute a supplier function to avoid duplicate code for increment and decrement functions.
      * @param skipCondition the skipCondition.
      * @param function the supplier function.
+     * @param up if incrementing or decrementing.
      * @return the Result.
      */
-    private Result iterateWithCondition(final TriPredicate<BlueprintPositionInfo, BlockPos, IStructureHandler> skipCondition, final Supplier<Result> function)
+    private Result iterateWithCondition(final TriPredicate<BlueprintPositionInfo, BlockPos, IStructureHandler> skipCondition, final Supplier<Result> function, final boolean up)
     {
+        final boolean useDiff = worldDiff != null && !isRemoving && !includeEntities;
+        final BitSet dirty = useDiff && getOrderSize() >= 0 ? getDirty(up) : null;
+        int nextDirty = -1;
         int count = 0;
         do
         {
-            if(function.get() == Result.AT_END)
+            final boolean unchanged;
+            if (dirty != null)
             {
-                return Result.AT_END;
+                final int cursor = progressPos.equals(NULL_POS) ? 0 : getOrderIndex(progressPos.getX(), progressPos.getY(), progressPos.getZ(), up) + 1;
+                if (cursor >= getOrderSize())
+                {
+                    this.reset();
+                    return Result.AT_END;
+                }
+                if (nextDirty < cursor)
+                {
+                    nextDirty = dirty.nextSetBit(cursor);
+                    nextDirty = nextDirty < 0 ? getOrderSize() : nextDirty;
+                }
+                unchanged = cursor != nextDirty;
+                setOrderIndex(cursor, up);
             }
+            else
+            {
+                if (function.get() == Result.AT_END)
+                {
+                    return Result.AT_END;
+                }
+                unchanged = useDiff && !worldDiff.isDirty(progressPos);
+            }
+
             final BlockPos worldPos = structureHandler.getProgressPosInWorld(progressPos);
             final BlueprintPositionInfo info = getBluePrintPositionInfo(progressPos);
 
@@ -121,6 +163,11 @@ public abstract class AbstractBlueprintIterator
             {
                 continue;
             }
+            else if (unchanged)
+            {
+                structureHandler.triggerSuccess(progressPos, Collections.emptyList(), false);
+                continue;
+            }
             else if (!isRemoving && BlockUtils.areBlockStatesEqual(info.getBlockInfo().getState(), structureHandler.getWorld().getBlockState(worldPos), structureHandler::replaceWithSolidBlock, structureHandler.fancyPlacement(), structureHandler::shouldBlocksBeConsideredEqual) && info.getEntities().length == 0)
             {
                 structureHandler.triggerSuccess(progressPos, Collections.emptyList(), false);
@@ -128,7 +175,7 @@ public abstract class AbstractBlueprintIterator
             }
             return Result.NEW_BLOCK;
         }
-        while (count++ < structureHandler.getMaxBlocksCheckedPerCall());
+        while (!structureHandler.isCheckLimitReached(count++));
 
         return Result.CONFIG_LIMIT;
     }
@@ -171,6 +218,82 @@ public abstract class AbstractBlueprintIterator
         this.includeEntities = true;
     }
 
+    /**
+     * Set the world diff used to skip unchanged positions.
+     *
+     * @param worldDiff the finished diff, or null.
+     */
+    public void setWorldDiff(@Nullable final WorldDiff worldDiff)
+    {
+        if (this.worldDiff != worldDiff)
+        {
+            this.worldDiff = worldDiff;
+            this.dirtyUp = null;
+            this.dirtyDown = null;
+        }
+    }
+
+    /**
+     * Get the positions of the world diff which need work in the iteration order.
+     *
+     * @param up if incrementing or decrementing.
+     * @return the indices in the iteration order, or null if the diff isn't finished.
+     */
+    @Nullable
+    private BitSet getDirty(final boolean up)
+    {
+        if (up)
+        {
+            if (dirtyUp == null)
+            {
+                dirtyUp = worldDiff.getDirty(this, true);
+            }
+            return dirtyUp;
+        }
+
+        if (dirtyDown == null)
+        {
+            dirtyDown = worldDiff.getDirty(this, false);
+        }
+        return dirtyDown;
+    }
+
+    /**
+     * Get the amount of positions in the iteration order, used to walk the positions a world diff found dirty.
+     * Iterators without a linear order return -1 and are stepped one position at a time instead.
+     *
+     * @return the amount of positions, or -1.
+     */
+    protected int getOrderSize()
+    {
+        return -1;
+    }
+
+    /**
+     * Get the index of a local position in the iteration order, in the direction of the iteration.
+     *
+     * @param x  the local x.
+     * @param y  the local y.
+     * @param z  the local z.
+     * @param up if incrementing or decrementing.
+     * @return the index, or -1 if the iterator doesn't visit the position.
+     */
+    protected int getOrderIndex(final int x, final int y, final int z, final boolean up)
+    {
+        return -1;
+    }
+
+    /**
+     * Move the progressPos to an index of the iteration order.
+     *
+     * @param index the index, see {@link #getOrderIndex(int, int, int, boolean)}.
+     * @param up    if incrementing or decrementing.
+     */
+    protected void setOrderIndex(final int index, final boolean up)
+    {
+        throw new UnsupportedOperationException("Iterator has no linear order");
+    }
+
     /**
      * Set the iterator to removal mode.
      */
@@ -0,0 +1,147 @@
+package com.ldtteam.structurize.placement;
+
+import com.ldtteam.structurize.placement.structure.IStructureHandler;
+import net.minecraft.util.math.BlockPos;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Function;
+
+/**
+ * Blueprint iterator which walks every layer in a precomputed {@link LayerOrder}, bottom up or top down.
+ * Stepping and setting the progress are constant time and don't allocate.
+ */
+public abstract class AbstractLayerOrderIterator extends AbstractBlueprintIterator
+{
+    /**
+     * The shared order of a layer.
+     */
+    private final LayerOrder order;
+
+    /**
+     * If every odd layer walks the order backwards, so consecutive layers connect.
+     */
+    private final boolean reverseOddLayers;
+
+    /**
+     * The step within the current layer.
+     */
+    private int step;
+
+    /**
+     * Initialize the blueprint iterator with the structure handler.
+     *
+     * @param structureHandler the structure handler.
+     * @param id               the id the order is shared by.
+     * @param generator        generates the packed positions of the order for a size, see {@link LayerOrder#pack(int, int)}.
+     * @param reverseOddLayers if every odd layer walks the order backwards.
+     */
+    public AbstractLayerOrderIterator(
+      final IStructureHandler structureHandler,
+      final String id,
+      final Function<BlockPos, int[]> generator,
+      final boolean reverseOddLayers)
+    {
+        super(structureHandler);
+        this.order = LayerOrder.get(id, size, generator);
+        this.reverseOddLayers = reverseOddLayers;
+    }
+
+    @Override
+    public Result increment()
+    {
+        return iterate(true);
+    }
+
+    @Override
+    public Result decrement()
+    {
+        return iterate(false);
+    }
+
+    /**
+     * Move to the next position, the next layer starts once the current layer is done.
+     *
+     * @param up if bottom up, or top down.
+     * @return END if finished, or new block if continuous.
+     */
+    private Result iterate(final boolean up)
+    {
+        if (order.size() == 0)
+        {
+            this.reset();
+            return Result.AT_END;
+        }
+
+        int y = this.progressPos.getY();
+        if (this.progressPos.equals(NULL_POS))
+        {
+            this.step = 0;
+            y = up ? 0 : this.size.getY() - 1;
+        }
+        else if (++this.step >= order.size())
+        {
+            this.step = 0;
+            y = up ? y + 1 : y - 1;
+            if (y < 0 || y >= this.size.getY())
+            {
+                this.reset();
+                return Result.AT_END;
+            }
+        }
+
+        final int index = getIndex(y);
+        this.progressPos.set(order.getX(index), y, order.getZ(index));
+        return Result.NEW_BLOCK;
+    }
+
+    /**
+     * Get the index into the order of the current step.
+     *
+     * @param y the layer.
+     * @return the index.
+     */
+    private int getIndex(final int y)
+    {
+        return reverseOddLayers && (y & 1) != 0 ? order.size() - 1 - step : step;
+    }
+
+    @Override
+    protected int getOrderSize()
+    {
+        return order.size() * this.size.getY();
+    }
+
+    @Override
+    protected int getOrderIndex(final int x, final int y, final int z, final boolean up)
+    {
+        final int index = order.indexOf(x, z);
+        if (index < 0)
+        {
+            return -1;
+        }
+
+        final int layerStep = reverseOddLayers && (y & 1) != 0 ? order.size() - 1 - index : index;
+        return (up ? y : this.size.getY() - 1 - y) * order.size() + layerStep;
+    }
+
+    @Override
+    protected void setOrderIndex(final int index, final boolean up)
+    {
+        final int y = up ? index / order.size() : this.size.getY() - 1 - index / order.size();
+        this.step = index % order.size();
+        final int orderIndex = getIndex(y);
+        this.progressPos.set(order.getX(orderIndex), y, order.getZ(orderIndex));
+    }
+
+    @Override
+    public void setProgressPos(@NotNull final BlockPos localPosition)
+    {
+        super.setProgressPos(localPosition);
+
+        if (!this.progressPos.equals(NULL_POS))
+        {
+            final int index = Math.max(0, order.indexOf(this.progressPos.getX(), this.progressPos.getZ()));
+            this.step = reverseOddLayers && (this.progressPos.getY() & 1) != 0 ? order.size() - 1 - index : index;
+        }
+    }
+}
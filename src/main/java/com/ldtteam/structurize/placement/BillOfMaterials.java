@@ -0,0 +1,216 @@
+package com.ldtteam.structurize.placement;
+
+import com.ldtteam.structurize.blocks.ModBlocks;
+import com.ldtteam.structurize.placement.handlers.placement.PlacementHandlers;
+import com.ldtteam.structurize.placement.structure.IStructureHandler;
+import com.ldtteam.structurize.util.BlueprintPositionInfo;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the items needed for a structure, see {@link StructurePlacer.Operation#GET_RES_REQUIREMENTS}.
+ * The items of a block are computed once per blueprint state and tile entity payload and multiplied by the amount of positions still missing it.
+ * Whether a position is already placed is a plain block comparison against the world.
+ * States whose items depend on the surrounding blocks are still computed per position, through {@link StructurePlacer#getResourceRequirements}.
+ */
+public class BillOfMaterials
+{
+    /**
+     * The placer to compute the items with.
+     */
+    private final StructurePlacer placer;
+
+    /**
+     * Items of states without tile entity data.
+     */
+    private final Map<BlockState, List<ItemStack>> stateItems = new HashMap<>();
+
+    /**
+     * Items of states with tile entity data, by the data without its position.
+     */
+    private final Map<BlockState, Map<CompoundNBT, List<ItemStack>>> tileEntityItems = new HashMap<>();
+
+    /**
+     * States whose items have to be computed per position.
+     */
+    private final Set<BlockState> uncachedStates = new ReferenceOpenHashSet<>();
+
+    /**
+     * How often each cached item list is needed.
+     */
+    private final Reference2IntMap<List<ItemStack>> occurrences = new Reference2IntOpenHashMap<>();
+
+    /**
+     * Items computed per position, entities and uncached states.
+     */
+    private final List<ItemStack> positionItems = new ArrayList<>();
+
+    /**
+     * Create a new bill of materials.
+     *
+     * @param placer the placer to compute the items with.
+     */
+    public BillOfMaterials(final StructurePlacer placer)
+    {
+        this.placer = placer;
+    }
+
+    /**
+     * Add the items of a position, if it isn't placed yet.
+     *
+     * @param world    the world.
+     * @param worldPos the world position.
+     * @param localPos the local position.
+     * @param info     the blueprint info of the position.
+     */
+    public void add(final World world, final BlockPos worldPos, final BlockPos localPos, final BlueprintPositionInfo info)
+    {
+        final BlockState localState = info.getBlockInfo().getState();
+        final List<ItemStack> items = getCachedItems(world, worldPos, localPos, localState, info.getBlockInfo().getTileEntityData());
+        if (items == null)
+        {
+            final CompoundNBT tileEntityData = placer.getHandler().getBluePrint().getTileEntityData(worldPos, localPos);
+            positionItems.addAll(placer.getResourceRequirements(world, worldPos, localPos, localState, tileEntityData).getRequiredItems());
+            return;
+        }
+
+        positionItems.addAll(placer.getEntityRequirements(world, info.getEntities()));
+        if (!items.isEmpty() && world.getBlockState(worldPos).getBlock() != localState.getBlock())
+        {
+            occurrences.mergeInt(items, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Get the collected items, the cached items multiplied by the amount of positions needing them.
+     * The totals are split into stacks of at most their max stack size, so the list can be sent and saved like any other.
+     *
+     * @return a new list of stacks.
+     */
+    public List<ItemStack> getRequiredItems()
+    {
+        final List<ItemStack> requiredItems = new ArrayList<>(positionItems);
+        for (final Reference2IntMap.Entry<List<ItemStack>> entry : occurrences.reference2IntEntrySet())
+        {
+            for (final ItemStack stack : entry.getKey())
+            {
+                final int maxStackSize = Math.max(1, stack.getMaxStackSize());
+                for (long remaining = (long) stack.getCount() * entry.getIntValue(); remaining > 0; remaining -= maxStackSize)
+                {
+                    final ItemStack copy = stack.copy();
+                    copy.setCount((int) Math.min(remaining, maxStackSize));
+                    requiredItems.add(copy);
+                }
+            }
+        }
+        return requiredItems;
+    }
+
+    /**
+     * Forget the collected items, the cached items per state are kept.
+     */
+    public void clearCounts()
+    {
+        occurrences.clear();
+        positionItems.clear();
+    }
+
+    /**
+     * Get the cached items of a state and tile entity payload, computing them on the first request.
+     *
+     * @param world          the world.
+     * @param worldPos       the world position.
+     * @param localPos       the local position.
+     * @param localState     the local state.
+     * @param tileEntityData the tile entity data in the blueprint, or null.
+     * @return the items or null if they have to be computed per position.
+     */
+    @Nullable
+    private List<ItemStack> getCachedItems(
+      final World world,
+      final BlockPos worldPos,
+      final BlockPos localPos,
+      final BlockState localState,
+      @Nullable final CompoundNBT tileEntityData)
+    {
+        if (uncachedStates.contains(localState))
+        {
+            return null;
+        }
+
+        if (tileEntityData == null)
+        {
+            List<ItemStack> items = stateItems.get(localState);
+            if (items == null)
+            {
+                if (!isCacheable(world, worldPos, localState))
+                {
+                    uncachedStates.add(localState);
+                    return null;
+                }
+                items = placer.getBlockRequirements(world, worldPos, localState, null);
+                stateItems.put(localState, items);
+            }
+            return items;
+        }
+
+        Map<CompoundNBT, List<ItemStack>> payloads = tileEntityItems.get(localState);
+        if (payloads == null)
+        {
+            if (!isCacheable(world, worldPos, localState))
+            {
+                uncachedStates.add(localState);
+                return null;
+            }
+            payloads = new HashMap<>();
+            tileEntityItems.put(localState, payloads);
+        }
+
+        final CompoundNBT payload = tileEntityData.copy();
+        payload.remove("x");
+        payload.remove("y");
+        payload.remove("z");
+
+        List<ItemStack> items = payloads.get(payload);
+        if (items == null)
+        {
+            items = placer.getBlockRequirements(world, worldPos, localState, placer.getHandler().getBluePrint().getTileEntityData(worldPos, localPos));
+            payloads.put(payload, items);
+        }
+        return items;
+    }
+
+    /**
+     * Check if the items of a state are the same at every position.
+     *
+     * @param world      the world.
+     * @param worldPos   the world position.
+     * @param localState the local state.
+     * @return true if so.
+     */
+    private boolean isCacheable(final World world, final BlockPos worldPos, final BlockState localState)
+    {
+        final IStructureHandler handler = placer.getHandler();
+        if (localState.getBlock() == ModBlocks.blockSolidSubstitution.get() && handler.fancyPlacement())
+        {
+            return false;
+        }
+
+        final BlockState state = localState.getBlock() == ModBlocks.blockTagSubstitution.get() && handler.fancyPlacement() ? Blocks.AIR.defaultBlockState() : localState;
+        return PlacementHandlers.isRequiredItemsCacheable(world, worldPos, state);
+    }
+}
@@ -77,4 +77,24 @@ public class BlueprintIteratorDefault extends AbstractBlueprintIterator
 
         return Result.NEW_BLOCK;
     }
+
+    @Override
+    protected int getOrderSize()
+    {
+        return this.size.getX() * this.size.getY() * this.size.getZ();
+    }
+
+    @Override
+    protected int getOrderIndex(final int x, final int y, final int z, final boolean up)
+    {
+        final int index = (y * this.size.getZ() + z) * this.size.getX() + x;
+        return up ? index : getOrderSize() - 1 - index;
+    }
+
+    @Override
+    protected void setOrderIndex(final int index, final boolean up)
+    {
+        final int localIndex = up ? index : getOrderSize() - 1 - index;
+        this.progressPos.set(localIndex % this.size.getX(), localIndex / (this.size.getX() * this.size.getZ()), (localIndex / this.size.getX()) % this.size.getZ());
+    }
 }
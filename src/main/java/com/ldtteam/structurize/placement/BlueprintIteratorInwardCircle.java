@@ -1,148 +1,79 @@
 package com.ldtteam.structurize.placement;
 
 import com.ldtteam.structurize.placement.structure.IStructureHandler;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.minecraft.util.math.BlockPos;
-import org.jetbrains.annotations.NotNull;
 
 /**
  * Iterator which walks the structure from outside in , in a clockwise rotation
  */
-public class BlueprintIteratorInwardCircle extends AbstractBlueprintIterator
+public class BlueprintIteratorInwardCircle extends AbstractLayerOrderIterator
 {
-    /**
-     * Tracking current state.
-     */
-    private int min_x;
-    private int max_x;
-    private int min_z;
-    private int max_z;
-
     /**
      * Initialize the blueprint iterator with the structure handler.
      * @param structureHandler the structure handler.
      */
     public BlueprintIteratorInwardCircle(final IStructureHandler structureHandler)
     {
-        super(structureHandler, new BlockPos(structureHandler.getBluePrint().getSizeX(), structureHandler.getBluePrint().getSizeY(), structureHandler.getBluePrint().getSizeZ()));
+        super(structureHandler, "inwardcircle", BlueprintIteratorInwardCircle::generateLayerPattern, false);
     }
 
     /**
-     * Iterate progress pos.
-     * @param up if bottom up, or top down.
-     * @return END if finished, or new block if continuous.
+     * Walk a layer from outside in, in a clockwise rotation.
+     *
+     * @param size the size of the structure.
+     * @return the packed positions in order.
      */
-    public Result iterate(final boolean up)
+    private static int[] generateLayerPattern(final BlockPos size)
     {
-        if (this.progressPos.equals(NULL_POS))
-        {
-            this.progressPos.set(-1, up ? 0 : this.size.getY() - 1, 0);
-            this.max_x = this.size.getX()-1;
-            this.max_z = this.size.getZ()-1;
-            this.min_z = 0;
-            this.min_x = 0;
-        }
+        final IntArrayList positions = new IntArrayList(size.getX() * size.getZ());
+        int maxX = size.getX() - 1;
+        int maxZ = size.getZ() - 1;
+        int minZ = 0;
+        int minX = 0;
+        int x = -1;
+        int z = 0;
 
-        if ((this.max_x < this.min_x && this.size.getX() % 2 != 0) || (this.max_z < this.min_z && this.size.getZ() % 2 != 0) || (this.max_z < this.min_z && this.max_x < this.min_x))
+        while ((maxX >= minX || size.getX() % 2 == 0) && (maxZ >= minZ || size.getZ() % 2 == 0) && (maxZ >= minZ || maxX >= minX))
         {
-            this.progressPos.set(-1, up ? this.progressPos.getY() + 1 : this.progressPos.getY() - 1, 0);
-            this.max_x = this.size.getX()-1;
-            this.max_z = this.size.getZ()-1;
-            this.min_z = 0;
-            this.min_x = 0;
-
-            if ((up && this.progressPos.getY() >= this.size.getY()) || (!up && this.progressPos.getY() < 0))
+            if (z == minZ && x < maxX)
             {
-                this.reset();
-                return Result.AT_END;
+                x++;
+                if (x == maxX)
+                {
+                    minZ++;
+                }
             }
-        }
-
-        if (this.progressPos.getZ() == min_z && this.progressPos.getX() < max_x)
-        {
-            this.progressPos.set(this.progressPos.getX() + 1, this.progressPos.getY(), this.progressPos.getZ());
-            if (this.progressPos.getX() == max_x)
+            else if (x == maxX && z < maxZ)
             {
-                this.min_z++;
+                z++;
+                if (z == maxZ)
+                {
+                    maxX--;
+                }
             }
-        }
-        else if (this.progressPos.getX() == max_x && this.progressPos.getZ() < max_z)
-        {
-            this.progressPos.set(this.progressPos.getX(), this.progressPos.getY(), this.progressPos.getZ() + 1);
-            if (this.progressPos.getZ() == max_z)
-            {
-                this.max_x--;
-            }
-        }
-        else if (this.progressPos.getX() == min_x && this.progressPos.getZ() > min_z)
-        {
-            this.progressPos.set(this.progressPos.getX(), this.progressPos.getY(), this.progressPos.getZ() - 1);
-            if (this.progressPos.getZ() == min_z)
+            else if (x == minX && z > minZ)
             {
-                this.min_x++;
+                z--;
+                if (z == minZ)
+                {
+                    minX++;
+                }
             }
-        }
-        else if (this.progressPos.getZ() == max_z && this.progressPos.getX() > min_x)
-        {
-            this.progressPos.set(this.progressPos.getX() - 1, this.progressPos.getY(), this.progressPos.getZ());
-            if (this.progressPos.getX() == min_x)
-            {
-                this.max_z--;
-            }
-        }
-        else
-        {
-            this.progressPos.set(0, up ? this.progressPos.getY() + 1 : this.progressPos.getY() - 1, 0);
-            this.max_x = this.size.getX()-1;
-            this.max_z = this.size.getZ()-1;
-            this.min_z = 0;
-            this.min_x = 0;
-
-            if ((up && this.progressPos.getY() >= this.size.getY()) || (!up && this.progressPos.getY() < 0))
+            else if (z == maxZ && x > minX)
             {
-                this.reset();
-                return Result.AT_END;
+                x--;
+                if (x == minX)
+                {
+                    maxZ--;
+                }
             }
-        }
-
-        return Result.NEW_BLOCK;
-    }
-
-    @Override
-    public Result increment()
-    {
-        return iterate(true);
-    }
-
-    @Override
-    public Result decrement()
-    {
-        return iterate(false);
-    }
-
-    /**
-     * Change the current progressPos. Used when loading progress.
-     *
-     * @param localPosition new progressPos.
-     */
-    @Override
-    public void setProgressPos(@NotNull final BlockPos localPosition)
-    {
-        if (localPosition.equals(NULL_POS))
-        {
-            super.setProgressPos(localPosition);
-        }
-        else if (!this.progressPos.equals(localPosition))
-        {
-            this.progressPos.set(NULL_POS);
-
-            while (progressPos.getX() != localPosition.getX() || progressPos.getZ() != localPosition.getZ())
+            else
             {
-                iterate(true);
+                break;
             }
-
-            this.progressPos.set(localPosition.getX() % size.getX(),
-              localPosition.getY() % size.getY(),
-              localPosition.getZ() % size.getZ());
+            positions.add(LayerOrder.pack(x, z));
         }
+        return positions.toIntArray();
     }
 }
@@ -3,99 +3,50 @@ package com.ldtteam.structurize.placement;
 import com.ldtteam.structurize.placement.structure.IStructureHandler;
 import net.minecraft.util.math.BlockPos;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.Random;
 
 /**
  * Random blueprint iterator.
- * Creates a seeded list of positions and iterates it.
+ * Walks every layer in the same seeded random order.
  */
-public class BlueprintIteratorRandom extends AbstractBlueprintIterator
+public class BlueprintIteratorRandom extends AbstractLayerOrderIterator
 {
-    /**
-     * Random ordered list of positions.
-     */
-    final List<BlockPos> positions = new ArrayList<>();
-
     /**
      * Initialize the blueprint iterator with the structure handler.
      * @param structureHandler the structure handler.
      */
     public BlueprintIteratorRandom(final IStructureHandler structureHandler)
     {
-        super(structureHandler, new BlockPos(structureHandler.getBluePrint().getSizeX(), structureHandler.getBluePrint().getSizeY(), structureHandler.getBluePrint().getSizeZ()));
-        for (int x = 0; x < this.size.getX(); x++)
-        {
-            for (int z = 0; z < this.size.getZ(); z++)
-            {
-                positions.add(new BlockPos(x, 0, z));
-            }
-        }
-        Collections.shuffle(positions, new Random(this.size.hashCode()));
+        super(structureHandler, "random", BlueprintIteratorRandom::generateLayerPattern, false);
     }
 
     /**
-     * Increment progressPos.
+     * Shuffle the positions of a layer, seeded by the size.
      *
-     * @return false if the all the block have been incremented through.
+     * @param size the size of the structure.
+     * @return the packed positions in order.
      */
-    public Result increment()
+    private static int[] generateLayerPattern(final BlockPos size)
     {
-        if (this.progressPos.equals(NULL_POS))
-        {
-            this.progressPos.set(this.positions.get(0).getX(), 0, this.positions.get(0).getZ());
-            return Result.NEW_BLOCK;
-        }
-        else
+        final int[] positions = new int[size.getX() * size.getZ()];
+        int i = 0;
+        for (int x = 0; x < size.getX(); x++)
         {
-            int index = this.positions.indexOf(new BlockPos(this.progressPos.getX(), 0, this.progressPos.getZ())) + 1;
-            if (index >= this.positions.size())
+            for (int z = 0; z < size.getZ(); z++)
             {
-                this.progressPos.set(this.positions.get(0).getX(), this.progressPos.getY() + 1, this.positions.get(0).getZ());
-                if (this.progressPos.getY() >= this.size.getY())
-                {
-                    this.reset();
-                    return Result.AT_END;
-                }
-
-                return Result.NEW_BLOCK;
+                positions[i++] = LayerOrder.pack(x, z);
             }
-            this.progressPos.set(this.positions.get(index).getX(), this.progressPos.getY(), this.positions.get(index).getZ());
         }
 
-        return Result.NEW_BLOCK;
-    }
-
-    /**
-     * Decrement progressPos.
-     *
-     * @return false if progressPos can't be decremented any more.
-     */
-    public Result decrement()
-    {
-        if (this.progressPos.equals(NULL_POS))
+        // Same swaps as Collections.shuffle, so the order matches earlier versions.
+        final Random random = new Random(size.hashCode());
+        for (int j = positions.length; j > 1; j--)
         {
-            this.progressPos.set(this.positions.get(0).getX(), this.size.getY() - 1, this.positions.get(0).getZ());
-            return Result.NEW_BLOCK;
+            final int other = random.nextInt(j);
+            final int tmp = positions[j - 1];
+            positions[j - 1] = positions[other];
+            positions[other] = tmp;
         }
-        else
-        {
-            int index = this.positions.indexOf(new BlockPos(this.progressPos.getX(), 0, this.progressPos.getZ())) + 1;
-            if (index >= this.positions.size())
-            {
-                this.progressPos.set(this.positions.get(0).getX(), this.progressPos.getY() - 1, this.positions.get(0).getZ());
-                if (this.progressPos.getY() < 0)
-                {
-                    this.reset();
-                    return Result.AT_END;
-                }
-                return Result.NEW_BLOCK;
-            }
-            this.progressPos.set(this.positions.get(index).getX(), this.progressPos.getY(), this.positions.get(index).getZ());
-        }
-
-        return Result.NEW_BLOCK;
+        return positions;
     }
 }
@@ -0,0 +1,265 @@
+package com.ldtteam.structurize.placement;
+
+import com.ldtteam.structurize.Structurize;
+import com.ldtteam.structurize.placement.handlers.placement.PlacementHandlers;
+import com.ldtteam.structurize.util.PlacementSettings;
+import it.unimi.dsi.fastutil.longs.Long2BooleanMap;
+import it.unimi.dsi.fastutil.longs.Long2BooleanOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.shorts.ShortIterator;
+import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
+import it.unimi.dsi.fastutil.shorts.ShortSet;
+import net.minecraft.block.BlockState;
+import net.minecraft.entity.player.ServerPlayerEntity;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.network.IPacket;
+import net.minecraft.network.play.server.SChangeBlockPacket;
+import net.minecraft.network.play.server.SChunkDataPacket;
+import net.minecraft.network.play.server.SMultiBlockChangePacket;
+import net.minecraft.network.play.server.SUpdateTileEntityPacket;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.SectionPos;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.gen.Heightmap;
+import net.minecraft.world.lighting.WorldLightManager;
+import net.minecraft.world.server.ServerWorld;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Writes blocks directly into the chunk sections, without neighbor updates, block callbacks or per block packets.
+ * Heightmaps and points of interest are kept up to date per block, lighting and the client sync run once per touched section on {@link #flush()}.
+ * Sections with few changes are synced as a multi block change, sections above the configured density are sent as a whole.
+ * Only meant for creative placement of blocks which don't need the logic of a special placement handler.
+ */
+public class BulkSectionWriter
+{
+    /**
+     * The world to write to.
+     */
+    private final ServerWorld world;
+
+    /**
+     * Touched sections by packed section position, with their emptiness before the first write.
+     */
+    private final Long2BooleanMap touchedSections = new Long2BooleanOpenHashMap();
+
+    /**
+     * Changed positions relative to their section, by packed section position.
+     */
+    private final Long2ObjectMap<ShortSet> changedBlocks = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * Packed positions whose light may have changed.
+     */
+    private final LongList lightChecks = new LongArrayList();
+
+    /**
+     * Create a new writer.
+     *
+     * @param world the world to write to.
+     */
+    public BulkSectionWriter(final ServerWorld world)
+    {
+        this.world = world;
+    }
+
+    /**
+     * Write a block, replacing the existing block and its tile entity.
+     *
+     * @param pos            the world position.
+     * @param state          the state to write.
+     * @param tileEntityData the tile entity data to load, or null.
+     * @param settings       the placement settings to rotate the tile entity with.
+     */
+    public void setBlock(final BlockPos pos, final BlockState state, @Nullable final CompoundNBT tileEntityData, final PlacementSettings settings)
+    {
+        final Chunk chunk = world.getChunkAt(pos);
+        final ChunkSection[] sections = chunk.getSections();
+        final int sectionY = pos.getY() >> 4;
+
+        ChunkSection section = sections[sectionY];
+        final long sectionKey = SectionPos.asLong(pos.getX() >> 4, sectionY, pos.getZ() >> 4);
+        if (!touchedSections.containsKey(sectionKey))
+        {
+            touchedSections.put(sectionKey, ChunkSection.isEmpty(section));
+        }
+
+        if (section == Chunk.EMPTY_SECTION)
+        {
+            if (state.isAir())
+            {
+                return;
+            }
+            section = new ChunkSection(sectionY << 4);
+            sections[sectionY] = section;
+        }
+
+        final BlockState oldState = section.setBlockState(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15, state, false);
+        if (oldState != state || state.hasTileEntity())
+        {
+            changedBlocks.computeIfAbsent(sectionKey, key -> new ShortOpenHashSet()).add(SectionPos.sectionRelativePos(pos));
+        }
+
+        if (oldState != state)
+        {
+            for (final Map.Entry<Heightmap.Type, Heightmap> heightmap : chunk.getHeightmaps())
+            {
+                heightmap.getValue().update(pos.getX() & 15, pos.getY(), pos.getZ() & 15, state);
+            }
+
+            if (oldState.hasTileEntity() && (oldState.getBlock() != state.getBlock() || !state.hasTileEntity()))
+            {
+                world.removeBlockEntity(pos);
+            }
+
+            if (oldState.getLightBlock(world, pos) != state.getLightBlock(world, pos)
+                  || oldState.getLightValue(world, pos) != state.getLightValue(world, pos)
+                  || oldState.useShapeForLightOcclusion()
+                  || state.useShapeForLightOcclusion())
+            {
+                lightChecks.add(pos.asLong());
+            }
+
+            world.onBlockStateChange(pos, oldState, state);
+        }
+
+        if (state.hasTileEntity())
+        {
+            if (tileEntityData != null)
+            {
+                PlacementHandlers.handleTileEntityPlacement(tileEntityData, world, pos, settings);
+            }
+            else
+            {
+                chunk.getBlockEntity(pos, Chunk.CreateEntityType.IMMEDIATE);
+            }
+        }
+    }
+
+    /**
+     * Update the lighting of the touched sections and send the changes to the players tracking their chunks.
+     */
+    public void flush()
+    {
+        if (touchedSections.isEmpty())
+        {
+            return;
+        }
+
+        final WorldLightManager lightManager = world.getChunkSource().getLightEngine();
+        for (final Long2BooleanMap.Entry entry : touchedSections.long2BooleanEntrySet())
+        {
+            final SectionPos sectionPos = SectionPos.of(entry.getLongKey());
+            final boolean isEmpty = ChunkSection.isEmpty(world.getChunk(sectionPos.x(), sectionPos.z()).getSections()[sectionPos.y()]);
+            if (isEmpty != entry.getBooleanValue())
+            {
+                lightManager.updateSectionStatus(sectionPos, isEmpty);
+            }
+        }
+
+        for (int i = 0; i < lightChecks.size(); i++)
+        {
+            lightManager.checkBlock(BlockPos.of(lightChecks.getLong(i)));
+        }
+
+        final int resendThreshold = Structurize.getConfig().getServer().sectionResendThreshold.get();
+        final Long2IntMap resentSections = new Long2IntOpenHashMap();
+        for (final Long2ObjectMap.Entry<ShortSet> entry : changedBlocks.long2ObjectEntrySet())
+        {
+            final SectionPos sectionPos = SectionPos.of(entry.getLongKey());
+            final long chunkKey = ChunkPos.asLong(sectionPos.x(), sectionPos.z());
+            world.getChunk(sectionPos.x(), sectionPos.z()).setUnsaved(true);
+
+            if (entry.getValue().size() >= resendThreshold)
+            {
+                resentSections.put(chunkKey, resentSections.get(chunkKey) | 1 << sectionPos.y());
+            }
+            else
+            {
+                sendChanges(sectionPos, entry.getValue());
+            }
+        }
+
+        for (final Long2IntMap.Entry entry : resentSections.long2IntEntrySet())
+        {
+            final ChunkPos chunkPos = new ChunkPos(entry.getLongKey());
+            final SChunkDataPacket packet = new SChunkDataPacket(world.getChunk(chunkPos.x, chunkPos.z), entry.getIntValue());
+            getPlayers(chunkPos).forEach(player -> player.connection.send(packet));
+        }
+
+        touchedSections.clear();
+        changedBlocks.clear();
+        lightChecks.clear();
+    }
+
+    /**
+     * Send the changes of a section as a block change, or a multi block change, and the tile entities of the changed positions.
+     *
+     * @param sectionPos the section.
+     * @param changes    the changed positions relative to the section.
+     */
+    private void sendChanges(final SectionPos sectionPos, final ShortSet changes)
+    {
+        final List<ServerPlayerEntity> players = getPlayers(new ChunkPos(sectionPos.x(), sectionPos.z()));
+        if (players.isEmpty())
+        {
+            return;
+        }
+
+        final List<IPacket<?>> packets = new ArrayList<>();
+        if (changes.size() == 1)
+        {
+            packets.add(new SChangeBlockPacket(world, sectionPos.relativeToBlockPos(changes.iterator().nextShort())));
+        }
+        else
+        {
+            final ChunkSection section = world.getChunk(sectionPos.x(), sectionPos.z()).getSections()[sectionPos.y()];
+            packets.add(new SMultiBlockChangePacket(sectionPos, changes, section, false));
+        }
+
+        for (final ShortIterator iterator = changes.iterator(); iterator.hasNext(); )
+        {
+            final TileEntity tileEntity = world.getBlockEntity(sectionPos.relativeToBlockPos(iterator.nextShort()));
+            if (tileEntity != null)
+            {
+                final SUpdateTileEntityPacket packet = tileEntity.getUpdatePacket();
+                if (packet != null)
+                {
+                    packets.add(packet);
+                }
+            }
+        }
+
+        for (final ServerPlayerEntity player : players)
+        {
+            for (final IPacket<?> packet : packets)
+            {
+                player.connection.send(packet);
+            }
+        }
+    }
+
+    /**
+     * Get the players tracking a chunk.
+     *
+     * @param chunkPos the chunk position.
+     * @return the players.
+     */
+    private List<ServerPlayerEntity> getPlayers(final ChunkPos chunkPos)
+    {
+        return world.getChunkSource().chunkMap.getPlayers(chunkPos, false).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,275 @@
+package com.ldtteam.structurize.placement;
+
+import com.ldtteam.structurize.api.util.constant.Constants;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.fluid.Fluid;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MutableBoundingBox;
+import net.minecraft.world.ITickList;
+import net.minecraft.world.NextTickListEntry;
+import net.minecraft.world.TickPriority;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.common.util.Constants.NBT;
+import net.minecraftforge.registries.ForgeRegistries;
+import net.minecraftforge.registries.IForgeRegistry;
+import net.minecraftforge.registries.IForgeRegistryEntry;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Defers the neighbor updates and block ticks of a placement job until the job finished.
+ * While a step of the job runs, placement handlers set blocks without neighbor and shape updates, see {@link #getPlacementFlag()}.
+ * After each step the block and fluid ticks scheduled inside the bounds of the job are taken out of the world.
+ * When the job finished one update pass runs over all touched positions, bottom up, and the ticks are scheduled again.
+ * The held back ticks can be saved with a job, a restored job runs its update pass over its whole bounds.
+ */
+public class DeferredUpdates
+{
+    /**
+     * Nbt keys of the saved ticks.
+     */
+    private static final String TAG_BLOCK_TICKS = "blockTicks";
+    private static final String TAG_FLUID_TICKS = "fluidTicks";
+    private static final String TAG_POS         = "pos";
+    private static final String TAG_TYPE        = "type";
+    private static final String TAG_DELAY       = "delay";
+    private static final String TAG_PRIORITY    = "priority";
+
+    /**
+     * The updates of the currently running step, null if no step with deferred updates runs.
+     */
+    @Nullable
+    private static DeferredUpdates active = null;
+
+    /**
+     * The world of the job.
+     */
+    private final ServerWorld world;
+
+    /**
+     * The bounds of the job.
+     */
+    private final MutableBoundingBox bounds;
+
+    /**
+     * Packed positions touched by the job, in order of placement.
+     */
+    private final LongLinkedOpenHashSet touched = new LongLinkedOpenHashSet();
+
+    /**
+     * Block ticks held back until the job finished.
+     */
+    private final List<NextTickListEntry<Block>> blockTicks = new ArrayList<>();
+
+    /**
+     * Fluid ticks held back until the job finished.
+     */
+    private final List<NextTickListEntry<Fluid>> fluidTicks = new ArrayList<>();
+
+    /**
+     * If the update pass covers the whole bounds, set when the touched positions of a restored job are unknown.
+     */
+    private boolean wholeBounds = false;
+
+    /**
+     * Create the deferred updates of a job.
+     *
+     * @param world  the world of the job.
+     * @param bounds the bounds of the job.
+     */
+    public DeferredUpdates(final ServerWorld world, final MutableBoundingBox bounds)
+    {
+        this.world = world;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Get the flag placement handlers should set blocks with.
+     *
+     * @return {@link Constants#DEFERRED_UPDATE_FLAG} while a step with deferred updates runs, else {@link Constants#UPDATE_FLAG}.
+     */
+    public static int getPlacementFlag()
+    {
+        return active == null ? Constants.UPDATE_FLAG : Constants.DEFERRED_UPDATE_FLAG;
+    }
+
+    /**
+     * Start a step of the job.
+     */
+    public void beginStep()
+    {
+        active = this;
+    }
+
+    /**
+     * End a step of the job, taking the ticks scheduled inside its bounds out of the world.
+     */
+    public void endStep()
+    {
+        active = null;
+        blockTicks.addAll(world.getBlockTicks().fetchTicksInArea(bounds, true, false));
+        fluidTicks.addAll(world.getLiquidTicks().fetchTicksInArea(bounds, true, false));
+    }
+
+    /**
+     * Remember a position the job changed.
+     *
+     * @param pos the world position.
+     */
+    public void markTouched(final BlockPos pos)
+    {
+        touched.add(pos.asLong());
+    }
+
+    /**
+     * Save the held back ticks, relative to the current game time.
+     *
+     * @return the ticks.
+     */
+    public CompoundNBT write()
+    {
+        final CompoundNBT compound = new CompoundNBT();
+        compound.put(TAG_BLOCK_TICKS, writeTicks(blockTicks, ForgeRegistries.BLOCKS));
+        compound.put(TAG_FLUID_TICKS, writeTicks(fluidTicks, ForgeRegistries.FLUIDS));
+        return compound;
+    }
+
+    /**
+     * Restore the deferred updates of a saved job, the update pass covers its whole bounds.
+     *
+     * @param world    the world of the job.
+     * @param bounds   the bounds of the job.
+     * @param compound the saved ticks, see {@link #write()}.
+     * @return the deferred updates.
+     */
+    public static DeferredUpdates read(final ServerWorld world, final MutableBoundingBox bounds, final CompoundNBT compound)
+    {
+        final DeferredUpdates updates = new DeferredUpdates(world, bounds);
+        updates.wholeBounds = true;
+        updates.readTicks(compound.getList(TAG_BLOCK_TICKS, NBT.TAG_COMPOUND), ForgeRegistries.BLOCKS, updates.blockTicks);
+        updates.readTicks(compound.getList(TAG_FLUID_TICKS, NBT.TAG_COMPOUND), ForgeRegistries.FLUIDS, updates.fluidTicks);
+        return updates;
+    }
+
+    /**
+     * Run the update pass over all touched positions, bottom up, and schedule the held back ticks again.
+     */
+    public void apply()
+    {
+        if (wholeBounds)
+        {
+            final BlockPos.Mutable pos = new BlockPos.Mutable();
+            for (int y = bounds.y0; y <= bounds.y1; y++)
+            {
+                for (int x = bounds.x0; x <= bounds.x1; x++)
+                {
+                    for (int z = bounds.z0; z <= bounds.z1; z++)
+                    {
+                        touched.add(pos.set(x, y, z).asLong());
+                    }
+                }
+            }
+            wholeBounds = false;
+        }
+
+        final long[] positions = touched.toLongArray();
+        LongArrays.quickSort(positions, (a, b) -> {
+            final int compareY = Integer.compare(BlockPos.getY(a), BlockPos.getY(b));
+            if (compareY != 0)
+            {
+                return compareY;
+            }
+            final int compareX = Integer.compare(BlockPos.getX(a), BlockPos.getX(b));
+            return compareX != 0 ? compareX : Integer.compare(BlockPos.getZ(a), BlockPos.getZ(b));
+        });
+
+        final BlockPos.Mutable pos = new BlockPos.Mutable();
+        for (final long packed : positions)
+        {
+            pos.set(packed);
+            final BlockState state = world.getBlockState(pos);
+            state.updateNeighbourShapes(world, pos, Constants.UPDATE_FLAG);
+            world.updateNeighborsAt(pos, state.getBlock());
+        }
+
+        reschedule(world.getBlockTicks(), blockTicks);
+        reschedule(world.getLiquidTicks(), fluidTicks);
+
+        touched.clear();
+        blockTicks.clear();
+        fluidTicks.clear();
+    }
+
+    /**
+     * Save held back ticks.
+     *
+     * @param ticks    the ticks.
+     * @param registry the registry of the tick type.
+     * @param <T>      the tick type.
+     * @return the saved ticks.
+     */
+    private <T extends IForgeRegistryEntry<T>> ListNBT writeTicks(final List<NextTickListEntry<T>> ticks, final IForgeRegistry<T> registry)
+    {
+        final long gameTime = world.getGameTime();
+        final ListNBT list = new ListNBT();
+        for (final NextTickListEntry<T> tick : ticks)
+        {
+            final CompoundNBT tickCompound = new CompoundNBT();
+            tickCompound.putLong(TAG_POS, tick.pos.asLong());
+            tickCompound.putString(TAG_TYPE, registry.getKey(tick.getType()).toString());
+            tickCompound.putLong(TAG_DELAY, tick.triggerTick - gameTime);
+            tickCompound.putInt(TAG_PRIORITY, tick.priority.getValue());
+            list.add(tickCompound);
+        }
+        return list;
+    }
+
+    /**
+     * Restore saved ticks, ticks of unknown types are dropped.
+     *
+     * @param list     the saved ticks.
+     * @param registry the registry of the tick type.
+     * @param ticks    the list to add the ticks to.
+     * @param <T>      the tick type.
+     */
+    private <T extends IForgeRegistryEntry<T>> void readTicks(final ListNBT list, final IForgeRegistry<T> registry, final List<NextTickListEntry<T>> ticks)
+    {
+        final long gameTime = world.getGameTime();
+        for (int i = 0; i < list.size(); i++)
+        {
+            final CompoundNBT tickCompound = list.getCompound(i);
+            final ResourceLocation type = new ResourceLocation(tickCompound.getString(TAG_TYPE));
+            if (registry.containsKey(type))
+            {
+                ticks.add(new NextTickListEntry<>(BlockPos.of(tickCompound.getLong(TAG_POS)),
+                  registry.getValue(type),
+                  gameTime + tickCompound.getLong(TAG_DELAY),
+                  TickPriority.byValue(tickCompound.getInt(TAG_PRIORITY))));
+            }
+        }
+    }
+
+    /**
+     * Schedule held back ticks again, ticks which are overdue run in the next tick.
+     *
+     * @param tickList the tick list of the world.
+     * @param ticks    the held back ticks.
+     * @param <T>      the tick type.
+     */
+    private <T> void reschedule(final ITickList<T> tickList, final List<NextTickListEntry<T>> ticks)
+    {
+        final long gameTime = world.getGameTime();
+        for (final NextTickListEntry<T> tick : ticks)
+        {
+            tickList.scheduleTick(tick.pos, tick.getType(), (int) Math.max(1, tick.triggerTick - gameTime), tick.priority);
+        }
+    }
+}
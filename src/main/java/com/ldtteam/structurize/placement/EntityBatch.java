@@ -0,0 +1,135 @@
+package com.ldtteam.structurize.placement;
+
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityType;
+import net.minecraft.util.math.AxisAlignedBB;
+import net.minecraft.util.math.vector.Vector3d;
+import net.minecraft.world.World;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the entities of a placement step to spawn them in one batch.
+ * The entities already in the structure are looked up with a single query over its bounds and indexed by type and position,
+ * instead of one query per blueprint entity.
+ */
+public class EntityBatch
+{
+    /**
+     * Totals over all placements, see {@link #getStats()}.
+     */
+    private static final LongAdder spawnedEntities = new LongAdder();
+    private static final LongAdder presentEntities = new LongAdder();
+    private static final LongAdder queries         = new LongAdder();
+    private static final LongAdder queryNanos      = new LongAdder();
+    private static final LongAdder spawnNanos      = new LongAdder();
+
+    /**
+     * The world to spawn in.
+     */
+    private final World world;
+
+    /**
+     * The positions of the entities in the structure by type, including the entities of this batch.
+     */
+    private final Map<EntityType<?>, Set<Vector3d>> present = new HashMap<>();
+
+    /**
+     * The entities to spawn.
+     */
+    private final List<Entity> pending = new ArrayList<>();
+
+    /**
+     * Create a new batch, indexing the entities within the bounds of the structure.
+     *
+     * @param world  the world to spawn in.
+     * @param bounds the bounds of the structure.
+     */
+    public EntityBatch(final World world, final AxisAlignedBB bounds)
+    {
+        this.world = world;
+
+        final long start = System.nanoTime();
+        for (final Entity entity : world.getEntitiesOfClass(Entity.class, bounds))
+        {
+            index(entity);
+        }
+        queryNanos.add(System.nanoTime() - start);
+        queries.increment();
+    }
+
+    /**
+     * Check if an entity of the same type is already at the position of an entity.
+     *
+     * @param entity the entity to place.
+     * @return true if so, the entity is counted as present then.
+     */
+    public boolean isPresent(final Entity entity)
+    {
+        final Set<Vector3d> positions = present.get(entity.getType());
+        if (positions != null && positions.contains(entity.position()))
+        {
+            presentEntities.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Add an entity to be spawned with the batch.
+     *
+     * @param entity the entity.
+     */
+    public void add(final Entity entity)
+    {
+        pending.add(entity);
+        index(entity);
+    }
+
+    /**
+     * Spawn the collected entities.
+     */
+    public void spawn()
+    {
+        if (pending.isEmpty())
+        {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        for (final Entity entity : pending)
+        {
+            world.addFreshEntity(entity);
+        }
+        spawnNanos.add(System.nanoTime() - start);
+        spawnedEntities.add(pending.size());
+        pending.clear();
+    }
+
+    /**
+     * Add an entity to the index.
+     *
+     * @param entity the entity.
+     */
+    private void index(final Entity entity)
+    {
+        present.computeIfAbsent(entity.getType(), type -> new HashSet<>()).add(entity.position());
+    }
+
+    /**
+     * Get the totals over all placements: spawned entities, entities which were present already,
+     * lookup queries, time spent looking up and time spent spawning in milliseconds.
+     *
+     * @return the totals in this order.
+     */
+    public static long[] getStats()
+    {
+        return new long[] {spawnedEntities.sum(), presentEntities.sum(), queries.sum(), queryNanos.sum() / 1_000_000L, spawnNanos.sum() / 1_000_000L};
+    }
+}
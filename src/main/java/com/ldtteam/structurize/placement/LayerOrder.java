@@ -0,0 +1,216 @@
+package com.ldtteam.structurize.placement;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The order an iterator walks the positions of a single layer in, as packed x and z coordinates.
+ * Orders only depend on the iterator and the size of the structure, so they are generated once and shared by all iterators of the same kind and size.
+ */
+public final class LayerOrder
+{
+    /**
+     * Upper bound of cached orders, new orders are not cached above it.
+     */
+    private static final int MAX_ENTRIES = 256;
+
+    /**
+     * The shared orders by iterator id and size.
+     */
+    private static final Map<Key, LayerOrder> orders = new ConcurrentHashMap<>();
+
+    /**
+     * The x size of the layer.
+     */
+    private final int sizeX;
+
+    /**
+     * The positions in order, packed by {@link #pack(int, int)}.
+     */
+    private final int[] order;
+
+    /**
+     * The index into {@link #order} by {@code z * sizeX + x}, -1 for positions which are not part of the order.
+     */
+    private final int[] indices;
+
+    /**
+     * Create a new order, duplicate positions are dropped.
+     *
+     * @param size  the size of the structure.
+     * @param order the packed positions in order.
+     */
+    private LayerOrder(final BlockPos size, final int[] order)
+    {
+        this.sizeX = size.getX();
+        this.indices = new int[size.getX() * size.getZ()];
+        Arrays.fill(indices, -1);
+
+        final IntArrayList unique = new IntArrayList(order.length);
+        for (final int packed : order)
+        {
+            final int layerIndex = unpackZ(packed) * sizeX + unpackX(packed);
+            if (indices[layerIndex] == -1)
+            {
+                indices[layerIndex] = unique.size();
+                unique.add(packed);
+            }
+        }
+        this.order = unique.toIntArray();
+    }
+
+    /**
+     * Get the shared order of an iterator.
+     *
+     * @param id        the id of the iterator.
+     * @param size      the size of the structure.
+     * @param generator generates the packed positions of the order for a size, only called if the order isn't cached yet.
+     * @return the order.
+     */
+    public static LayerOrder get(final String id, final BlockPos size, final Function<BlockPos, int[]> generator)
+    {
+        final Key key = new Key(id, size);
+        final LayerOrder cached = orders.get(key);
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        final LayerOrder order = new LayerOrder(size, generator.apply(size));
+        if (orders.size() < MAX_ENTRIES)
+        {
+            orders.putIfAbsent(key, order);
+        }
+        return order;
+    }
+
+    /**
+     * Pack a position of a layer.
+     *
+     * @param x the x coordinate.
+     * @param z the z coordinate.
+     * @return the packed position.
+     */
+    public static int pack(final int x, final int z)
+    {
+        return x << 16 | z;
+    }
+
+    /**
+     * Get the x coordinate of a packed position.
+     *
+     * @param packed the packed position.
+     * @return the x coordinate.
+     */
+    private static int unpackX(final int packed)
+    {
+        return packed >>> 16;
+    }
+
+    /**
+     * Get the z coordinate of a packed position.
+     *
+     * @param packed the packed position.
+     * @return the z coordinate.
+     */
+    private static int unpackZ(final int packed)
+    {
+        return packed & 0xFFFF;
+    }
+
+    /**
+     * @return the amount of positions in the order.
+     */
+    public int size()
+    {
+        return order.length;
+    }
+
+    /**
+     * Get the x coordinate at an index of the order.
+     *
+     * @param index the index.
+     * @return the x coordinate.
+     */
+    public int getX(final int index)
+    {
+        return unpackX(order[index]);
+    }
+
+    /**
+     * Get the z coordinate at an index of the order.
+     *
+     * @param index the index.
+     * @return the z coordinate.
+     */
+    public int getZ(final int index)
+    {
+        return unpackZ(order[index]);
+    }
+
+    /**
+     * Get the index of a position in the order.
+     *
+     * @param x the x coordinate.
+     * @param z the z coordinate.
+     * @return the index or -1 if the position isn't part of the order.
+     */
+    public int indexOf(final int x, final int z)
+    {
+        return indices[z * sizeX + x];
+    }
+
+    /**
+     * Key of the shared orders.
+     */
+    private static final class Key
+    {
+        /**
+         * The id of the iterator.
+         */
+        private final String id;
+
+        /**
+         * The size of the structure.
+         */
+        private final BlockPos size;
+
+        /**
+         * Create a new key.
+         *
+         * @param id   the id of the iterator.
+         * @param size the size of the structure.
+         */
+        private Key(final String id, final BlockPos size)
+        {
+            this.id = id;
+            this.size = size.immutable();
+        }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            final Key other = (Key) o;
+            return id.equals(other.id) && size.equals(other.size);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * id.hashCode() + size.hashCode();
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.ldtteam.structurize.placement;
+
+import com.ldtteam.structures.blueprints.v1.Blueprint;
+import com.ldtteam.structurize.api.util.Log;
+import com.ldtteam.structurize.blocks.ModBlocks;
+import com.ldtteam.structurize.placement.handlers.placement.IPlacementHandler;
+import com.ldtteam.structurize.placement.handlers.placement.PlacementHandlers;
+import com.ldtteam.structurize.placement.structure.IStructureHandler;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.util.Util;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Prepares the placements of a structure on a worker thread, so the server thread only has to commit them.
+ * Per blueprint state the final state, the placement handler and the required items are resolved once,
+ * per tile entity the data is copied and moved to its world position ahead of time.
+ * States whose handler or items depend on the world around them aren't prepared and take the normal path.
+ * The worker only asks handlers which declare their decisions world independent, see {@link IPlacementHandler#isCacheable()} and
+ * {@link IPlacementHandler#isRequiredItemsCacheable()}, so the world they are given is never read off the server thread.
+ */
+public class PreparedPlacements
+{
+    /**
+     * The origin of the structure in the world.
+     */
+    private final BlockPos origin;
+
+    /**
+     * The size of the blueprint.
+     */
+    private final int sizeX;
+    private final int sizeZ;
+
+    /**
+     * The running preparation.
+     */
+    private CompletableFuture<Result> future;
+
+    /**
+     * Create new prepared placements.
+     *
+     * @param origin    the origin of the structure in the world.
+     * @param blueprint the blueprint.
+     */
+    private PreparedPlacements(final BlockPos origin, final Blueprint blueprint)
+    {
+        this.origin = origin;
+        this.sizeX = blueprint.getSizeX();
+        this.sizeZ = blueprint.getSizeZ();
+    }
+
+    /**
+     * Start the preparation on a worker thread, to be called on the server thread.
+     *
+     * @param world   the world.
+     * @param handler the structure handler.
+     * @return the running preparation.
+     */
+    public static PreparedPlacements start(final World world, final IStructureHandler handler)
+    {
+        final Blueprint blueprint = handler.getBluePrint();
+        final PreparedPlacements prepared = new PreparedPlacements(handler.getProgressPosInWorld(BlockPos.ZERO), blueprint);
+
+        // Decode the tile entities on this thread, the worker only reads them.
+        blueprint.getTileEntities();
+        prepared.future = CompletableFuture.supplyAsync(() -> prepared.prepare(world, handler), Util.backgroundExecutor());
+        prepared.future.exceptionally(e -> {
+            Log.getLogger().warn("Couldn't prepare the placement", e);
+            return null;
+        });
+        return prepared;
+    }
+
+    /**
+     * @return true if the preparation finished.
+     */
+    public boolean isDone()
+    {
+        return future.isDone() && !future.isCompletedExceptionally();
+    }
+
+    /**
+     * Get the prepared placement of a blueprint state.
+     *
+     * @param localState the state in the blueprint.
+     * @return the placement or null if it isn't prepared.
+     */
+    @Nullable
+    public Placement get(final BlockState localState)
+    {
+        return isDone() ? future.join().placements.get(localState) : null;
+    }
+
+    /**
+     * Take the prepared tile entity data of a position, it is only handed out once.
+     *
+     * @param localPos the local position.
+     * @return the data with world coordinates or null if there is none or it was taken already.
+     */
+    @Nullable
+    public CompoundNBT takeTileEntityData(final BlockPos localPos)
+    {
+        return isDone() ? future.join().tileEntities.remove(getIndex(localPos.getX(), localPos.getY(), localPos.getZ())) : null;
+    }
+
+    /**
+     * Prepare the placements, runs on a worker thread.
+     *
+     * @param world   the world.
+     * @param handler the structure handler.
+     * @return the result.
+     */
+    private Result prepare(final World world, final IStructureHandler handler)
+    {
+        final Result result = new Result();
+        final Blueprint blueprint = handler.getBluePrint();
+        final BlockPos.Mutable localPos = new BlockPos.Mutable();
+
+        for (int y = 0; y < blueprint.getSizeY(); y++)
+        {
+            for (int z = 0; z < sizeZ; z++)
+            {
+                for (int x = 0; x < sizeX; x++)
+                {
+                    localPos.set(x, y, z);
+                    final BlockState localState = blueprint.getBlockState(localPos);
+                    if (localState == null)
+                    {
+                        continue;
+                    }
+
+                    final BlockPos worldPos = origin.offset(x, y, z);
+                    if (!result.placements.containsKey(localState))
+                    {
+                        result.placements.put(localState, preparePlacement(world, worldPos, localState, handler));
+                    }
+
+                    if (localState.hasTileEntity())
+                    {
+                        final CompoundNBT tileEntityData = blueprint.getTileEntityData(worldPos, localPos);
+                        if (tileEntityData != null)
+                        {
+                            result.tileEntities.put(getIndex(x, y, z), tileEntityData);
+                        }
+                    }
+                }
+            }
+        }
+
+        result.placements.values().removeIf(placement -> placement == null);
+        return result;
+    }
+
+    /**
+     * Prepare the placement of a blueprint state.
+     *
+     * @param world      the world.
+     * @param worldPos   a world position of the state.
+     * @param localState the state in the blueprint.
+     * @param handler    the structure handler.
+     * @return the placement or null if it can't be prepared.
+     */
+    @Nullable
+    private static Placement preparePlacement(final World world, final BlockPos worldPos, final BlockState localState, final IStructureHandler handler)
+    {
+        if (localState.getBlock() == ModBlocks.blockSolidSubstitution.get() && handler.fancyPlacement())
+        {
+            return null;
+        }
+
+        final BlockState state = localState.getBlock() == ModBlocks.blockTagSubstitution.get() && handler.fancyPlacement() ? Blocks.AIR.defaultBlockState() : localState;
+        final IPlacementHandler placementHandler = PlacementHandlers.getStateHandler(world, worldPos, state);
+        if (placementHandler == null)
+        {
+            return null;
+        }
+
+        List<ItemStack> requiredItems = null;
+        if (!handler.isCreative() && placementHandler.isRequiredItemsCacheable() && !state.hasTileEntity())
+        {
+            requiredItems = new ArrayList<>();
+            for (final ItemStack stack : placementHandler.getRequiredItems(world, worldPos, state, null, false))
+            {
+                if (!stack.isEmpty() && !handler.isStackFree(stack))
+                {
+                    requiredItems.add(stack);
+                }
+            }
+        }
+        return new Placement(state, placementHandler, requiredItems);
+    }
+
+    /**
+     * Get the index of a local position.
+     *
+     * @param x the local x.
+     * @param y the local y.
+     * @param z the local z.
+     * @return the index.
+     */
+    private int getIndex(final int x, final int y, final int z)
+    {
+        return (y * sizeZ + z) * sizeX + x;
+    }
+
+    /**
+     * The prepared placement of a blueprint state.
+     */
+    public static final class Placement
+    {
+        /**
+         * The state to place.
+         */
+        private final BlockState state;
+
+        /**
+         * The handler to place it with.
+         */
+        private final IPlacementHandler placementHandler;
+
+        /**
+         * The required items, null if they have to be computed at placement.
+         */
+        @Nullable
+        private final List<ItemStack> requiredItems;
+
+        /**
+         * Create a new placement.
+         *
+         * @param state            the state to place.
+         * @param placementHandler the handler to place it with.
+         * @param requiredItems    the required items or null.
+         */
+        private Placement(final BlockState state, final IPlacementHandler placementHandler, @Nullable final List<ItemStack> requiredItems)
+        {
+            this.state = state;
+            this.placementHandler = placementHandler;
+            this.requiredItems = requiredItems == null ? null : Collections.unmodifiableList(requiredItems);
+        }
+
+        /**
+         * @return the state to place.
+         */
+        public BlockState getState()
+        {
+            return state;
+        }
+
+        /**
+         * @return the handler to place it with.
+         */
+        public IPlacementHandler getPlacementHandler()
+        {
+            return placementHandler;
+        }
+
+        /**
+         * Get a copy of the required items, the stacks may be consumed.
+         *
+         * @return the items or null if they have to be computed at placement.
+         */
+        @Nullable
+        public List<ItemStack> copyRequiredItems()
+        {
+            if (requiredItems == null)
+            {
+                return null;
+            }
+
+            final List<ItemStack> copy = new ArrayList<>(requiredItems.size());
+            for (final ItemStack stack : requiredItems)
+            {
+                copy.add(stack.copy());
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * The result of the preparation.
+     */
+    private static final class Result
+    {
+        /**
+         * The placements by blueprint state.
+         */
+        private final Reference2ObjectMap<BlockState, Placement> placements = new Reference2ObjectOpenHashMap<>();
+
+        /**
+         * The tile entity data with world coordinates by local index.
+         */
+        private final Int2ObjectMap<CompoundNBT> tileEntities = new Int2ObjectOpenHashMap<>();
+    }
+}
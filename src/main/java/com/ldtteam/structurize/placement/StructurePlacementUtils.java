@@ -32,6 +32,7 @@ public class StructurePlacementUtils
     public static void unloadStructure(@NotNull final World world, @NotNull final BlockPos startPos, @NotNull final String name, final Rotation rotation, @NotNull final Mirror mirror)
     {
         @NotNull final IStructureHandler structure = new CreativeStructureHandler(world, startPos, name, new PlacementSettings(mirror, rotation), false);
+        structure.setBlueprint(structure.getBluePrint().copy());
         structure.getBluePrint().rotateWithMirror(rotation, mirror, world);
 
         @NotNull final StructurePlacer placer = new StructurePlacer(structure);
@@ -61,6 +62,7 @@ public class StructurePlacementUtils
         try
         {
             @NotNull final IStructureHandler structure = new CreativeStructureHandler(worldObj, pos, name, new PlacementSettings(mirror, rotation), fancyPlacement);
+            structure.setBlueprint(structure.getBluePrint().copy());
             structure.getBluePrint().rotateWithMirror(rotation, mirror, worldObj);
 
             @NotNull final StructurePlacer instantPlacer = new StructurePlacer(structure);
@@ -93,7 +95,7 @@ public class StructurePlacementUtils
     {
         try
         {
-            @NotNull final IStructureHandler structure = new CreativeStructureHandler(worldObj, pos, blueprint, new PlacementSettings(mirror, rotation), fancyPlacement);
+            @NotNull final IStructureHandler structure = new CreativeStructureHandler(worldObj, pos, blueprint.copy(), new PlacementSettings(mirror, rotation), fancyPlacement);
             if (fancyPlacement)
             {
                 structure.fancyPlacement();
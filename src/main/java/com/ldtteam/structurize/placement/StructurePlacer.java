@@ -1,5 +1,6 @@
 package com.ldtteam.structurize.placement;
 
+import com.ldtteam.structures.blueprints.v1.Blueprint;
 import com.ldtteam.structurize.Structurize;
 import com.ldtteam.structurize.api.util.ItemStackUtils;
 import com.ldtteam.structurize.api.util.Log;
@@ -20,9 +21,12 @@ import net.minecraft.nbt.CompoundNBT;
 import net.minecraft.state.properties.DoubleBlockHalf;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MutableBoundingBox;
 import net.minecraft.util.math.vector.Vector3d;
 import net.minecraft.world.World;
+import net.minecraft.world.server.ServerWorld;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -41,11 +45,51 @@ public class StructurePlacer
      */
     protected final AbstractBlueprintIterator iterator;
 
+    /**
+     * The id of the iterator type.
+     */
+    protected final String iteratorId;
+
     /**
      * The handler.
      */
     protected final IStructureHandler handler;
 
+    /**
+     * The bulk writer of the running step, null if the step doesn't use bulk placement.
+     */
+    @Nullable
+    protected BulkSectionWriter bulkWriter;
+
+    /**
+     * The deferred neighbor updates and ticks of the placement, null if not deferred or not started.
+     */
+    @Nullable
+    protected DeferredUpdates deferredUpdates;
+
+    /**
+     * The items needed for the structure, with the items per state cached between steps.
+     */
+    protected final BillOfMaterials billOfMaterials = new BillOfMaterials(this);
+
+    /**
+     * The comparison of the world with the blueprint, null if not enabled or not started.
+     */
+    @Nullable
+    protected WorldDiff worldDiff;
+
+    /**
+     * The placements prepared on a worker thread, null if not enabled or not started.
+     */
+    @Nullable
+    protected PreparedPlacements preparedPlacements;
+
+    /**
+     * The entities of the running step, null if the step doesn't include entities.
+     */
+    @Nullable
+    protected EntityBatch entityBatch;
+
     /**
      * Create a new structure placer.
      *
@@ -53,8 +97,7 @@ public class StructurePlacer
      */
     public StructurePlacer(final IStructureHandler handler)
     {
-        this.iterator = StructureIterators.getIterator(Structurize.getConfig().getServer().iteratorType.get().toString(), handler);
-        this.handler = handler;
+        this(handler, Structurize.getConfig().getServer().iteratorType.get().toString());
     }
 
     /**
@@ -65,6 +108,7 @@ public class StructurePlacer
     public StructurePlacer(final IStructureHandler handler, final String id)
     {
         this.iterator = StructureIterators.getIterator(id, handler);
+        this.iteratorId = id;
         this.handler = handler;
     }
 
@@ -86,7 +130,130 @@ public class StructurePlacer
       final Supplier<AbstractBlueprintIterator.Result> iterateFunction,
       final boolean includeEntities)
     {
-        final List<ItemStack> requiredItems = new ArrayList<>();
+        if (handler.isWorldDiffEnabled() && world instanceof ServerWorld)
+        {
+            if (worldDiff == null)
+            {
+                worldDiff = WorldDiff.start((ServerWorld) world, handler);
+            }
+            iterator.setWorldDiff(worldDiff.isDone() ? worldDiff : null);
+        }
+
+        if (operation == Operation.BLOCK_PLACEMENT && handler.isPreparedPlacement() && preparedPlacements == null && world instanceof ServerWorld)
+        {
+            preparedPlacements = PreparedPlacements.start(world, handler);
+        }
+
+        if (operation == Operation.BLOCK_PLACEMENT && handler.isBulkPlacement() && world instanceof ServerWorld)
+        {
+            bulkWriter = new BulkSectionWriter((ServerWorld) world);
+        }
+
+        final boolean deferred = operation != Operation.GET_RES_REQUIREMENTS && handler.isDeferredUpdates() && world instanceof ServerWorld;
+        if (deferred)
+        {
+            if (deferredUpdates == null)
+            {
+                deferredUpdates = new DeferredUpdates((ServerWorld) world, getBounds());
+            }
+            deferredUpdates.beginStep();
+        }
+
+        if (includeEntities && operation == Operation.BLOCK_PLACEMENT)
+        {
+            final Blueprint blueprint = handler.getBluePrint();
+            entityBatch = new EntityBatch(world, new AxisAlignedBB(handler.getProgressPosInWorld(BlockPos.ZERO),
+              handler.getProgressPosInWorld(new BlockPos(blueprint.getSizeX(), blueprint.getSizeY(), blueprint.getSizeZ()))).inflate(1));
+        }
+
+        try
+        {
+            return iterateStructureStep(world, storage, inputPos, operation, iterateFunction, includeEntities);
+        }
+        finally
+        {
+            if (entityBatch != null)
+            {
+                entityBatch.spawn();
+                entityBatch = null;
+            }
+            if (bulkWriter != null)
+            {
+                bulkWriter.flush();
+                bulkWriter = null;
+            }
+            if (deferred)
+            {
+                deferredUpdates.endStep();
+            }
+        }
+    }
+
+    /**
+     * Get the world bounds of the structure.
+     *
+     * @return the bounds.
+     */
+    private MutableBoundingBox getBounds()
+    {
+        final Blueprint blueprint = handler.getBluePrint();
+        return new MutableBoundingBox(handler.getProgressPosInWorld(BlockPos.ZERO),
+          handler.getProgressPosInWorld(new BlockPos(blueprint.getSizeX() - 1, blueprint.getSizeY() - 1, blueprint.getSizeZ() - 1)));
+    }
+
+    /**
+     * Get the deferred neighbor updates and ticks held back by the placement, for example to save them with the job.
+     *
+     * @return the updates or null if none are held back.
+     */
+    @Nullable
+    public DeferredUpdates getDeferredUpdates()
+    {
+        return deferredUpdates;
+    }
+
+    /**
+     * Restore the deferred updates saved with the job, see {@link DeferredUpdates#read(ServerWorld, MutableBoundingBox, CompoundNBT)}.
+     *
+     * @param world    the world of the placement.
+     * @param compound the saved updates.
+     */
+    public void restoreDeferredUpdates(final ServerWorld world, final CompoundNBT compound)
+    {
+        deferredUpdates = DeferredUpdates.read(world, getBounds(), compound);
+    }
+
+    /**
+     * Run the deferred neighbor updates and ticks of the placement, to be called once the placement finished or was cancelled.
+     */
+    public void applyDeferredUpdates()
+    {
+        if (deferredUpdates != null)
+        {
+            deferredUpdates.apply();
+            deferredUpdates = null;
+        }
+    }
+
+    /**
+     * Iterate over the structure for a single step.
+     * @param world the world.
+     * @param storage the change storage.
+     * @param inputPos the pos to start from.
+     * @param operation the operation to execute.
+     * @param iterateFunction the function to iterate.
+     * @param includeEntities if entities should be included.
+     * @return the result.
+     */
+    private StructurePhasePlacementResult iterateStructureStep(
+      final World world,
+      final ChangeStorage storage,
+      final BlockPos inputPos,
+      final Operation operation,
+      final Supplier<AbstractBlueprintIterator.Result> iterateFunction,
+      final boolean includeEntities)
+    {
+        billOfMaterials.clearCounts();
 
         if (includeEntities)
         {
@@ -104,9 +271,9 @@ public class StructurePlacer
             @NotNull final BlockPos localPos = iterator.getProgressPos();
             final BlockPos worldPos = handler.getProgressPosInWorld(localPos);
 
-            if (count >= handler.getStepsPerCall())
+            if (handler.isStepLimitReached(count))
             {
-                return new StructurePhasePlacementResult(lastPos, new BlockPlacementResult(worldPos, BlockPlacementResult.Result.LIMIT_REACHED, requiredItems));
+                return new StructurePhasePlacementResult(lastPos, new BlockPlacementResult(worldPos, BlockPlacementResult.Result.LIMIT_REACHED, billOfMaterials.getRequiredItems()));
             }
 
             final BlockState localState = handler.getBluePrint().getBlockState(localPos);
@@ -145,14 +312,19 @@ public class StructurePlacer
                     result = new BlockPlacementResult(worldPos, BlockPlacementResult.Result.SUCCESS);
                     break;
                 case GET_RES_REQUIREMENTS:
-                    result = getResourceRequirements(world, worldPos, localPos, localState, handler.getBluePrint().getTileEntityData(worldPos, localPos));
-                    requiredItems.addAll(result.getRequiredItems());
+                    billOfMaterials.add(world, worldPos, localPos, iterator.getBluePrintPositionInfo(localPos));
+                    result = new BlockPlacementResult(worldPos, BlockPlacementResult.Result.MISSING_ITEMS);
                     break;
                 default:
-                    result = handleBlockPlacement(world, worldPos, localPos, storage, localState, handler.getBluePrint().getTileEntityData(worldPos, localPos));
+                    result = handleBlockPlacement(world, worldPos, localPos, storage, localState, getTileEntityData(worldPos, localPos));
             }
             count++;
 
+            if (deferredUpdates != null && operation != Operation.GET_RES_REQUIREMENTS && result.getResult() == BlockPlacementResult.Result.SUCCESS)
+            {
+                deferredUpdates.markTouched(worldPos);
+            }
+
             if (operation != Operation.GET_RES_REQUIREMENTS && (result.getResult() == BlockPlacementResult.Result.MISSING_ITEMS || result.getResult() == BlockPlacementResult.Result.FAIL || result.getResult() == BlockPlacementResult.Result.BREAK_BLOCK))
             {
                 return new StructurePhasePlacementResult(lastPos, result);
@@ -161,7 +333,7 @@ public class StructurePlacer
             lastPos = localPos;
             iterationResult = iterateFunction.get();
 
-            if (operation != Operation.GET_RES_REQUIREMENTS && count >= handler.getStepsPerCall())
+            if (operation != Operation.GET_RES_REQUIREMENTS && handler.isStepLimitReached(count))
             {
                 return new StructurePhasePlacementResult(lastPos, result);
             }
@@ -171,9 +343,30 @@ public class StructurePlacer
         {
             iterator.reset();
             return new StructurePhasePlacementResult(iterator.getProgressPos(),
-              new BlockPlacementResult(iterator.getProgressPos(), BlockPlacementResult.Result.FINISHED, requiredItems));
+              new BlockPlacementResult(iterator.getProgressPos(), BlockPlacementResult.Result.FINISHED, billOfMaterials.getRequiredItems()));
+        }
+        return new StructurePhasePlacementResult(iterator.getProgressPos(), new BlockPlacementResult(this.handler.getProgressPosInWorld(iterator.getProgressPos()), BlockPlacementResult.Result.LIMIT_REACHED, billOfMaterials.getRequiredItems()));
+    }
+
+    /**
+     * Get the tile entity data of a position with world coordinates, prepared ahead of time if possible.
+     *
+     * @param worldPos the world position.
+     * @param localPos the local position.
+     * @return the data or null if there is none.
+     */
+    @Nullable
+    private CompoundNBT getTileEntityData(final BlockPos worldPos, final BlockPos localPos)
+    {
+        if (preparedPlacements != null)
+        {
+            final CompoundNBT prepared = preparedPlacements.takeTileEntityData(localPos);
+            if (prepared != null)
+            {
+                return prepared;
+            }
         }
-        return new StructurePhasePlacementResult(iterator.getProgressPos(), new BlockPlacementResult(this.handler.getProgressPosInWorld(iterator.getProgressPos()), BlockPlacementResult.Result.LIMIT_REACHED, requiredItems));
+        return handler.getBluePrint().getTileEntityData(worldPos, localPos);
     }
 
     /**
@@ -225,14 +418,21 @@ public class StructurePlacer
                             final Vector3d posInWorld = entity.position().add(pos.getX(), pos.getY(), pos.getZ());
                             entity.setPos(posInWorld.x, posInWorld.y, posInWorld.z);
 
-                            final List<? extends Entity> list = world.getEntitiesOfClass(entity.getClass(), new AxisAlignedBB(posInWorld.add(1,1,1), posInWorld.add(-1,-1,-1)));
                             boolean foundEntity = false;
-                            for (Entity worldEntity: list)
+                            if (entityBatch != null)
                             {
-                                if (worldEntity.position().equals(posInWorld))
+                                foundEntity = entityBatch.isPresent(entity);
+                            }
+                            else
+                            {
+                                final List<? extends Entity> list = world.getEntitiesOfClass(entity.getClass(), new AxisAlignedBB(posInWorld.add(1,1,1), posInWorld.add(-1,-1,-1)));
+                                for (Entity worldEntity: list)
                                 {
-                                    foundEntity = true;
-                                    break;
+                                    if (worldEntity.position().equals(posInWorld))
+                                    {
+                                        foundEntity = true;
+                                        break;
+                                    }
                                 }
                             }
 
@@ -251,7 +451,14 @@ public class StructurePlacer
                                 }
                             }
 
-                            world.addFreshEntity(entity);
+                            if (entityBatch != null)
+                            {
+                                entityBatch.add(entity);
+                            }
+                            else
+                            {
+                                world.addFreshEntity(entity);
+                            }
                             if (storage != null)
                             {
                                 storage.addToBeKilledEntity(entity);
@@ -280,22 +487,39 @@ public class StructurePlacer
             return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.SUCCESS);
         }
 
-        if (localState.getBlock() == ModBlocks.blockSolidSubstitution.get() && handler.fancyPlacement())
+        final PreparedPlacements.Placement prepared = preparedPlacements == null ? null : preparedPlacements.get(localState);
+        final IPlacementHandler placementHandler;
+        if (prepared != null)
         {
-            localState = this.handler.getSolidBlockForPos(worldPos);
+            localState = prepared.getState();
+            placementHandler = prepared.getPlacementHandler();
+            PlacementHandlers.countHit(placementHandler);
         }
-        if (localState.getBlock() == ModBlocks.blockTagSubstitution.get() && handler.fancyPlacement())
+        else
         {
-            localState = Blocks.AIR.defaultBlockState();
+            if (localState.getBlock() == ModBlocks.blockSolidSubstitution.get() && handler.fancyPlacement())
+            {
+                localState = this.handler.getSolidBlockForPos(worldPos);
+            }
+            if (localState.getBlock() == ModBlocks.blockTagSubstitution.get() && handler.fancyPlacement())
+            {
+                localState = Blocks.AIR.defaultBlockState();
+            }
+            placementHandler = PlacementHandlers.getHandler(world, worldPos, localState);
         }
 
-        for (final IPlacementHandler placementHandler : PlacementHandlers.handlers)
+        if (placementHandler != null)
         {
-            if (placementHandler.canHandle(world, worldPos, localState))
-            {
-                final List<ItemStack> requiredItems = new ArrayList<>();
+            final List<ItemStack> requiredItems = new ArrayList<>();
 
-                if (!sameBlockInWorld && !this.handler.isCreative())
+            if (!sameBlockInWorld && !this.handler.isCreative())
+            {
+                final List<ItemStack> preparedItems = prepared == null || tileEntityData != null ? null : prepared.copyRequiredItems();
+                if (preparedItems != null)
+                {
+                    requiredItems.addAll(preparedItems);
+                }
+                else
                 {
                     for (final ItemStack stack : placementHandler.getRequiredItems(world, worldPos, localState, tileEntityData, false))
                     {
@@ -304,51 +528,59 @@ public class StructurePlacer
                             requiredItems.add(stack);
                         }
                     }
-
-                    if (!this.handler.hasRequiredItems(requiredItems))
-                    {
-                        return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.MISSING_ITEMS, requiredItems);
-                    }
                 }
 
-                if (!(worldState.getBlock() instanceof AirBlock))
+                if (!this.handler.hasRequiredItems(requiredItems))
                 {
-                    if (!sameBlockInWorld
-                          && worldState.getMaterial() != Material.AIR
-                          && !(worldState.getBlock() instanceof DoublePlantBlock && worldState.getValue(DoublePlantBlock.HALF).equals(DoubleBlockHalf.UPPER)))
-                    {
-                        placementHandler.handleRemoval(handler, world, worldPos, tileEntityData);
-                    }
+                    return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.MISSING_ITEMS, requiredItems);
                 }
+            }
 
+            if (bulkWriter != null && placementHandler.supportsBulkPlacement())
+            {
                 this.handler.prePlacementLogic(worldPos, localState);
+                bulkWriter.setBlock(worldPos, localState, tileEntityData, this.handler.getSettings());
+                this.handler.triggerSuccess(localPos, requiredItems, true);
+                return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.SUCCESS);
+            }
 
-                final IPlacementHandler.ActionProcessingResult result = placementHandler.handle(world, worldPos, localState, tileEntityData, !this.handler.fancyPlacement(), this.handler.getWorldPos(), this.handler.getSettings());
-                if (result == IPlacementHandler.ActionProcessingResult.DENY)
+            if (!(worldState.getBlock() instanceof AirBlock))
+            {
+                if (!sameBlockInWorld
+                      && worldState.getMaterial() != Material.AIR
+                      && !(worldState.getBlock() instanceof DoublePlantBlock && worldState.getValue(DoublePlantBlock.HALF).equals(DoubleBlockHalf.UPPER)))
                 {
-                    return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.FAIL);
+                    placementHandler.handleRemoval(handler, world, worldPos, tileEntityData);
                 }
+            }
 
-                this.handler.triggerSuccess(localPos, requiredItems, true);
+            this.handler.prePlacementLogic(worldPos, localState);
 
-                if (result == IPlacementHandler.ActionProcessingResult.PASS)
-                {
-                    return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.SUCCESS);
-                }
+            final IPlacementHandler.ActionProcessingResult result = placementHandler.handle(world, worldPos, localState, tileEntityData, !this.handler.fancyPlacement(), this.handler.getWorldPos(), this.handler.getSettings());
+            if (result == IPlacementHandler.ActionProcessingResult.DENY)
+            {
+                return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.FAIL);
+            }
+
+            this.handler.triggerSuccess(localPos, requiredItems, true);
+
+            if (result == IPlacementHandler.ActionProcessingResult.PASS)
+            {
+                return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.SUCCESS);
+            }
 
-                if (!this.handler.isCreative() && !sameBlockInWorld)
+            if (!this.handler.isCreative() && !sameBlockInWorld)
+            {
+                for (final ItemStack tempStack : requiredItems)
                 {
-                    for (final ItemStack tempStack : requiredItems)
+                    if (!ItemStackUtils.isEmpty(tempStack))
                     {
-                        if (!ItemStackUtils.isEmpty(tempStack))
-                        {
-                            InventoryUtils.consumeStack(tempStack, handler.getInventory());
-                        }
+                        InventoryUtils.consumeStack(tempStack, handler.getInventory());
                     }
                 }
-
-                return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.SUCCESS);
             }
+
+            return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.SUCCESS);
         }
         return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.FAIL);
     }
@@ -356,6 +588,8 @@ public class StructurePlacer
     /**
      * This method handles the block placement.
      * When we extract this into another mod, we have to override the method.
+     * The {@link BillOfMaterials} only calls it for states whose items depend on the world around them,
+     * the items of all other states come from {@link #getBlockRequirements} and {@link #getEntityRequirements}, which can be overridden as well.
      *  @param world          the world.
      * @param worldPos       the world position.
      * @param localPos       the local pos.
@@ -366,18 +600,28 @@ public class StructurePlacer
       final World world,
       final BlockPos worldPos,
       final BlockPos localPos,
-      BlockState localState,
+      final BlockState localState,
       final CompoundNBT tileEntityData)
     {
-        final BlockState worldState = world.getBlockState(worldPos);
-        boolean sameBlockInWorld = false;
-        if (worldState.getBlock() == localState.getBlock())
+        final List<ItemStack> requiredItems = getEntityRequirements(world, iterator.getBluePrintPositionInfo(localPos).getEntities());
+        if (world.getBlockState(worldPos).getBlock() != localState.getBlock())
         {
-            sameBlockInWorld = true;
+            requiredItems.addAll(getBlockRequirements(world, worldPos, localState, tileEntityData));
         }
+        return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.MISSING_ITEMS, requiredItems);
+    }
 
+    /**
+     * Get the items needed for the entities of a position which don't exist in the world yet.
+     *
+     * @param world    the world.
+     * @param entities the entities of the position in the blueprint.
+     * @return the list of items.
+     */
+    protected List<ItemStack> getEntityRequirements(final World world, final CompoundNBT[] entities)
+    {
         final List<ItemStack> requiredItems = new ArrayList<>();
-        for (final CompoundNBT compound : iterator.getBluePrintPositionInfo(localPos).getEntities())
+        for (final CompoundNBT compound : entities)
         {
             if (compound != null)
             {
@@ -420,7 +664,20 @@ public class StructurePlacer
                 }
             }
         }
+        return requiredItems;
+    }
 
+    /**
+     * Get the items needed to place a block, regardless of what is in the world at the moment.
+     *
+     * @param world          the world.
+     * @param worldPos       the world position.
+     * @param localState     the local state.
+     * @param tileEntityData the tileEntity.
+     * @return the list of items, without the free ones.
+     */
+    protected List<ItemStack> getBlockRequirements(final World world, final BlockPos worldPos, BlockState localState, @Nullable final CompoundNBT tileEntityData)
+    {
         if (localState.getBlock() == ModBlocks.blockSolidSubstitution.get() && handler.fancyPlacement())
         {
             localState = this.handler.getSolidBlockForPos(worldPos);
@@ -430,27 +687,21 @@ public class StructurePlacer
             localState = Blocks.AIR.defaultBlockState();
         }
 
-        for (final IPlacementHandler placementHandler : PlacementHandlers.handlers)
+        final List<ItemStack> requiredItems = new ArrayList<>();
+        final IPlacementHandler placementHandler = PlacementHandlers.getHandler(world, worldPos, localState);
+        if (placementHandler != null)
         {
-            if (placementHandler.canHandle(world, worldPos, localState))
+            for (final ItemStack stack : placementHandler.getRequiredItems(world, worldPos, localState, tileEntityData, false))
             {
-                if (!sameBlockInWorld)
+                if (!stack.isEmpty() && !this.handler.isStackFree(stack))
                 {
-                    for (final ItemStack stack : placementHandler.getRequiredItems(world, worldPos, localState, tileEntityData, false))
-                    {
-                        if (!stack.isEmpty() && !this.handler.isStackFree(stack))
-                        {
-                            requiredItems.add(stack);
-                        }
-                    }
+                    requiredItems.add(stack);
                 }
-                return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.MISSING_ITEMS, requiredItems);
             }
         }
-        return new BlockPlacementResult(worldPos, BlockPlacementResult.Result.MISSING_ITEMS, requiredItems);
+        return requiredItems;
     }
 
-
     /**
      * Check if there is enough free space to place a structure in the world.
      *
@@ -499,6 +750,15 @@ public class StructurePlacer
         return iterator;
     }
 
+    /**
+     * Get the id of the iterator type.
+     * @return the id, see {@link StructureIterators#getIterator(String, IStructureHandler)}.
+     */
+    public String getIteratorId()
+    {
+        return iteratorId;
+    }
+
     /**
      * Get the handler instance.
      * @return the IStructureHandler.
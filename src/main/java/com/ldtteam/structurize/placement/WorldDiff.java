@@ -0,0 +1,277 @@
+package com.ldtteam.structurize.placement;
+
+import com.ldtteam.structures.blueprints.v1.Blueprint;
+import com.ldtteam.structurize.api.util.Log;
+import com.ldtteam.structurize.placement.structure.IStructureHandler;
+import com.ldtteam.structurize.util.BlockUtils;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.util.Util;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.SectionPos;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.common.util.Constants;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Compares the world with a blueprint off the server thread, to find the positions which actually need work.
+ * The chunk sections covering the structure are copied on the server thread, the comparison runs on a worker thread.
+ * The iterator walks the positions which need work from its cursor, positions which matched the blueprint aren't compared with the world again.
+ * Changes to those positions after the snapshot are only picked up by the next placement.
+ * The equal rules of the handler are only used on the worker thread if it declares them world independent, see {@link IStructureHandler#hasWorldIndependentEqualRules()}.
+ */
+public class WorldDiff
+{
+    /**
+     * Nbt keys of the copied sections.
+     */
+    private static final String TAG_PALETTE = "Palette";
+    private static final String TAG_STATES  = "BlockStates";
+
+    /**
+     * The world position of the local origin of the blueprint.
+     */
+    private final BlockPos origin;
+
+    /**
+     * The size of the blueprint.
+     */
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+
+    /**
+     * The copied sections by packed section position, an empty compound for empty sections. Unloaded sections are missing.
+     */
+    private final Long2ObjectMap<CompoundNBT> copies = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * The running comparison.
+     */
+    private CompletableFuture<BitSet> future;
+
+    /**
+     * Create a new diff.
+     *
+     * @param origin the world position of the local origin.
+     * @param blueprint the blueprint.
+     */
+    private WorldDiff(final BlockPos origin, final Blueprint blueprint)
+    {
+        this.origin = origin;
+        this.sizeX = blueprint.getSizeX();
+        this.sizeY = blueprint.getSizeY();
+        this.sizeZ = blueprint.getSizeZ();
+    }
+
+    /**
+     * Copy the sections covering a structure and start the comparison on a worker thread, to be called on the server thread.
+     *
+     * @param world   the world.
+     * @param handler the structure handler.
+     * @return the running diff.
+     */
+    public static WorldDiff start(final ServerWorld world, final IStructureHandler handler)
+    {
+        final WorldDiff diff = new WorldDiff(handler.getProgressPosInWorld(BlockPos.ZERO), handler.getBluePrint());
+        diff.copySections(world);
+
+        final Blueprint blueprint = handler.getBluePrint();
+        final boolean fancy = handler.fancyPlacement();
+        final Predicate<BlockState> shallReplace;
+        final BiPredicate<BlockState, BlockState> specialEqualRule;
+        if (handler.hasWorldIndependentEqualRules())
+        {
+            shallReplace = handler::replaceWithSolidBlock;
+            specialEqualRule = handler::shouldBlocksBeConsideredEqual;
+        }
+        else
+        {
+            // Without the rules of the handler fewer positions match, the placement decides on those.
+            shallReplace = state -> true;
+            specialEqualRule = (state, worldState) -> false;
+        }
+        diff.future = CompletableFuture.supplyAsync(() -> diff.compare(blueprint, fancy, shallReplace, specialEqualRule), Util.backgroundExecutor());
+        diff.future.exceptionally(e -> {
+            Log.getLogger().warn("Couldn't compare the world with the blueprint", e);
+            return null;
+        });
+        return diff;
+    }
+
+    /**
+     * @return true if the comparison finished.
+     */
+    public boolean isDone()
+    {
+        return future.isDone() && !future.isCompletedExceptionally();
+    }
+
+    /**
+     * Check if a position didn't match the blueprint or wasn't loaded.
+     *
+     * @param localPos the local position.
+     * @return true if it needs work, or the comparison isn't finished.
+     */
+    public boolean isDirty(final BlockPos localPos)
+    {
+        return !isDone() || future.join().get(getIndex(localPos.getX(), localPos.getY(), localPos.getZ()));
+    }
+
+    /**
+     * Map the positions which need work into the iteration order of an iterator, see {@link AbstractBlueprintIterator#getOrderIndex(int, int, int, boolean)}.
+     *
+     * @param iterator the iterator.
+     * @param up       if walking up (increment), or down (decrement).
+     * @return the indices in the iteration order, or null if the comparison isn't finished.
+     */
+    @Nullable
+    public BitSet getDirty(final AbstractBlueprintIterator iterator, final boolean up)
+    {
+        if (!isDone())
+        {
+            return null;
+        }
+
+        final BitSet dirty = future.join();
+        final BitSet ordered = new BitSet();
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1))
+        {
+            final int orderIndex = iterator.getOrderIndex(i % sizeX, i / (sizeX * sizeZ), (i / sizeX) % sizeZ, up);
+            if (orderIndex >= 0)
+            {
+                ordered.set(orderIndex);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Copy the palettes of the loaded sections covering the structure.
+     *
+     * @param world the world.
+     */
+    private void copySections(final ServerWorld world)
+    {
+        final int minSectionY = Math.max(0, origin.getY() >> 4);
+        final int maxSectionY = Math.min(15, (origin.getY() + sizeY - 1) >> 4);
+
+        for (int chunkX = origin.getX() >> 4; chunkX <= (origin.getX() + sizeX - 1) >> 4; chunkX++)
+        {
+            for (int chunkZ = origin.getZ() >> 4; chunkZ <= (origin.getZ() + sizeZ - 1) >> 4; chunkZ++)
+            {
+                if (!world.hasChunk(chunkX, chunkZ))
+                {
+                    continue;
+                }
+
+                final ChunkSection[] sections = world.getChunk(chunkX, chunkZ).getSections();
+                for (int sectionY = minSectionY; sectionY <= maxSectionY; sectionY++)
+                {
+                    final ChunkSection section = sections[sectionY];
+                    final CompoundNBT copy = new CompoundNBT();
+                    if (!ChunkSection.isEmpty(section))
+                    {
+                        section.getStates().write(copy, TAG_PALETTE, TAG_STATES);
+                    }
+                    copies.put(SectionPos.asLong(chunkX, sectionY, chunkZ), copy);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare the copied sections with the blueprint, runs on a worker thread.
+     *
+     * @param blueprint        the blueprint.
+     * @param fancy            if the placement is fancy.
+     * @param shallReplace     if a world state should be replaced by the solid placeholder.
+     * @param specialEqualRule the special equal rule.
+     * @return the positions which need work, by local index.
+     */
+    private BitSet compare(
+      final Blueprint blueprint,
+      final boolean fancy,
+      final Predicate<BlockState> shallReplace,
+      final BiPredicate<BlockState, BlockState> specialEqualRule)
+    {
+        final Long2ObjectMap<ChunkSection> sections = new Long2ObjectOpenHashMap<>();
+        for (final Long2ObjectMap.Entry<CompoundNBT> entry : copies.long2ObjectEntrySet())
+        {
+            final SectionPos sectionPos = SectionPos.of(entry.getLongKey());
+            final ChunkSection section = new ChunkSection(sectionPos.y() << 4);
+            if (entry.getValue().contains(TAG_PALETTE, Constants.NBT.TAG_LIST))
+            {
+                section.getStates().read(entry.getValue().getList(TAG_PALETTE, Constants.NBT.TAG_COMPOUND), entry.getValue().getLongArray(TAG_STATES));
+            }
+            sections.put(entry.getLongKey(), section);
+        }
+        copies.clear();
+
+        final BitSet dirty = new BitSet();
+        final BlockPos.Mutable localPos = new BlockPos.Mutable();
+        final BlockPos.Mutable worldPos = new BlockPos.Mutable();
+        for (int y = 0; y < sizeY; y++)
+        {
+            for (int z = 0; z < sizeZ; z++)
+            {
+                for (int x = 0; x < sizeX; x++)
+                {
+                    localPos.set(x, y, z);
+                    worldPos.set(origin.getX() + x, origin.getY() + y, origin.getZ() + z);
+
+                    final BlockState worldState = getState(sections, worldPos);
+                    if (worldState == null || !BlockUtils.areBlockStatesEqual(blueprint.getBlockState(localPos), worldState, shallReplace, fancy, specialEqualRule))
+                    {
+                        dirty.set(getIndex(x, y, z));
+                    }
+                }
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Get the index of a local position in the dirty positions.
+     *
+     * @param x the local x.
+     * @param y the local y.
+     * @param z the local z.
+     * @return the index.
+     */
+    private int getIndex(final int x, final int y, final int z)
+    {
+        return (y * sizeZ + z) * sizeX + x;
+    }
+
+    /**
+     * Get the state of the snapshot at a world position.
+     *
+     * @param sections the copied sections by packed section position.
+     * @param worldPos the world position.
+     * @return the state or null if the section wasn't loaded or is outside of the world.
+     */
+    @Nullable
+    private static BlockState getState(final Long2ObjectMap<ChunkSection> sections, final BlockPos worldPos)
+    {
+        if (worldPos.getY() < 0 || worldPos.getY() >= 256)
+        {
+            return null;
+        }
+
+        final ChunkSection section = sections.get(SectionPos.asLong(worldPos.getX() >> 4, worldPos.getY() >> 4, worldPos.getZ() >> 4));
+        if (section == null)
+        {
+            return null;
+        }
+        return section.getBlockState(worldPos.getX() & 15, worldPos.getY() & 15, worldPos.getZ() & 15);
+    }
+}
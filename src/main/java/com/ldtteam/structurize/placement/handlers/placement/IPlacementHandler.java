@@ -29,6 +29,44 @@ public interface IPlacementHandler
      */
     boolean canHandle(@NotNull final World world, @NotNull final BlockPos pos, @NotNull final BlockState blockState);
 
+    /**
+     * Check if a handler which isn't cacheable might handle a certain block, looking at the blockState only.
+     * If this returns false, {@link #canHandle(World, BlockPos, BlockState)} must be false at every position, so the handler isn't asked for the state at all.
+     * This may be called off the server thread.
+     *
+     * @param blockState the blockState.
+     * @return false if the handler never handles the state.
+     */
+    default boolean mayHandle(@NotNull final BlockState blockState)
+    {
+        return true;
+    }
+
+    /**
+     * Check if the result of {@link #canHandle(World, BlockPos, BlockState)} only depends on the blockState, so it may be cached per state.
+     * Handlers have to opt in, handlers which also look at the world or the position must keep returning false.
+     * The canHandle of cacheable handlers may be called off the server thread, see {@link com.ldtteam.structurize.placement.PreparedPlacements}.
+     *
+     * @return true if so.
+     */
+    default boolean isCacheable()
+    {
+        return false;
+    }
+
+    /**
+     * Check if the result of {@link #getRequiredItems(World, BlockPos, BlockState, CompoundNBT, boolean)} only depends on the blockState and the tileEntityData,
+     * so it may be computed once per state and tile entity payload.
+     * Handlers have to opt in, handlers which also look at the world or the surrounding blocks must keep returning false.
+     * The getRequiredItems of such handlers may be called off the server thread, see {@link com.ldtteam.structurize.placement.PreparedPlacements}.
+     *
+     * @return true if so.
+     */
+    default boolean isRequiredItemsCacheable()
+    {
+        return false;
+    }
+
     /**
      * Method used to handle the processing of a Placement of a block.
      *
@@ -119,6 +157,17 @@ public interface IPlacementHandler
         world.removeBlock(pos, false);
     }
 
+    /**
+     * Check if blocks of this handler may be written directly into the chunk sections by a creative bulk placement.
+     * Only handlers which do nothing but set the state and load the tile entity data should allow this.
+     *
+     * @return true if so.
+     */
+    default boolean supportsBulkPlacement()
+    {
+        return false;
+    }
+
     /**
      * Method used to get the required items to place a block.
      *
@@ -3,6 +3,7 @@ package com.ldtteam.structurize.placement.handlers.placement;
 import com.ldtteam.structurize.api.util.ItemStackUtils;
 import com.ldtteam.structurize.blocks.ModBlocks;
 import com.ldtteam.structurize.blocks.schematic.BlockFluidSubstitution;
+import com.ldtteam.structurize.placement.DeferredUpdates;
 import com.ldtteam.structurize.placement.structure.IStructureHandler;
 import com.ldtteam.structurize.util.BlockUtils;
 import com.ldtteam.structurize.util.PlacementSettings;
@@ -28,8 +29,10 @@ import org.jetbrains.annotations.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-
-import static com.ldtteam.structurize.api.util.constant.Constants.UPDATE_FLAG;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.ldtteam.structurize.placement.handlers.placement.IPlacementHandler.ActionProcessingResult;
 
@@ -63,6 +66,21 @@ public final class PlacementHandlers
         handlers.add(new GeneralBlockPlacementHandler());
     }
 
+    /**
+     * Handler candidates by state: the non cacheable handlers which may handle it in front of the first matching cacheable handler, followed by it.
+     */
+    private static final Map<BlockState, IPlacementHandler[]> dispatchCache = new ConcurrentHashMap<>();
+
+    /**
+     * The size of the handler list the dispatch cache was built for.
+     */
+    private static volatile int dispatchCacheHandlerCount = -1;
+
+    /**
+     * Dispatches per handler.
+     */
+    private static final Map<IPlacementHandler, LongAdder> handlerHits = new ConcurrentHashMap<>();
+
     /**
      * Allows for adding new handlers without having to clear the list
      * in other mods just to override one
@@ -76,6 +94,7 @@ public final class PlacementHandlers
             if (override.isInstance(handlers.get(i)))
             {
                 handlers.set(i, handler);
+                clearDispatchCache();
                 return;
             }
         }
@@ -91,6 +110,142 @@ public final class PlacementHandlers
     public static void add(IPlacementHandler handler)
     {
         handlers.add(1, handler);
+        clearDispatchCache();
+    }
+
+    /**
+     * Get the handler for a state, the first handler of the list which can handle it.
+     * The decision of cacheable handlers is cached per state, the other handlers are asked every time.
+     *
+     * @param world the world.
+     * @param pos   the position.
+     * @param state the state to place.
+     * @return the handler or null if no handler can handle it.
+     */
+    @Nullable
+    public static IPlacementHandler getHandler(final World world, final BlockPos pos, final BlockState state)
+    {
+        for (final IPlacementHandler placementHandler : getCandidates(world, pos, state))
+        {
+            if (placementHandler.isCacheable() || placementHandler.canHandle(world, pos, state))
+            {
+                countHit(placementHandler);
+                return placementHandler;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the handler for a state if the choice doesn't depend on the position, without counting it as a dispatch.
+     * Only cacheable handlers are asked, so this may be called off the server thread.
+     *
+     * @param world the world.
+     * @param pos   a position of the state.
+     * @param state the state to place.
+     * @return the handler or null if no handler can handle it or the choice depends on the position.
+     */
+    @Nullable
+    public static IPlacementHandler getStateHandler(final World world, final BlockPos pos, final BlockState state)
+    {
+        final IPlacementHandler[] candidates = getCandidates(world, pos, state);
+        return candidates.length == 1 && candidates[0].isCacheable() ? candidates[0] : null;
+    }
+
+    /**
+     * Count a dispatch to a handler which was looked up ahead of time, see {@link #getStateHandler(World, BlockPos, BlockState)}.
+     *
+     * @param placementHandler the handler.
+     */
+    public static void countHit(final IPlacementHandler placementHandler)
+    {
+        handlerHits.computeIfAbsent(placementHandler, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Check if the items required for a state are the same at every position, so they may be computed once per state and tile entity data.
+     * This is the case if the handler doesn't depend on the position and its required items don't depend on the surrounding blocks.
+     *
+     * @param world the world.
+     * @param pos   a position of the state.
+     * @param state the state.
+     * @return true if so.
+     */
+    public static boolean isRequiredItemsCacheable(final World world, final BlockPos pos, final BlockState state)
+    {
+        for (final IPlacementHandler placementHandler : getCandidates(world, pos, state))
+        {
+            if (!placementHandler.isCacheable() || !placementHandler.isRequiredItemsCacheable())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the handlers which may handle a state, in order.
+     * These are the handlers which can't be cached but may handle the state, up to the first cacheable handler which can handle the state.
+     *
+     * @param world the world.
+     * @param pos   the position.
+     * @param state the state.
+     * @return the candidates.
+     */
+    private static IPlacementHandler[] getCandidates(final World world, final BlockPos pos, final BlockState state)
+    {
+        if (dispatchCacheHandlerCount != handlers.size())
+        {
+            clearDispatchCache();
+        }
+
+        IPlacementHandler[] candidates = dispatchCache.get(state);
+        if (candidates == null)
+        {
+            final List<IPlacementHandler> candidateList = new ArrayList<>();
+            for (final IPlacementHandler placementHandler : handlers)
+            {
+                if (!placementHandler.isCacheable())
+                {
+                    if (placementHandler.mayHandle(state))
+                    {
+                        candidateList.add(placementHandler);
+                    }
+                }
+                else if (placementHandler.canHandle(world, pos, state))
+                {
+                    candidateList.add(placementHandler);
+                    break;
+                }
+            }
+            candidates = candidateList.toArray(new IPlacementHandler[0]);
+            dispatchCache.put(state, candidates);
+        }
+        return candidates;
+    }
+
+    /**
+     * Drop the cached handler decisions, needed if the handler list was modified directly.
+     */
+    public static void clearDispatchCache()
+    {
+        dispatchCache.clear();
+        dispatchCacheHandlerCount = handlers.size();
+    }
+
+    /**
+     * Get the amount of dispatches per handler since the start.
+     *
+     * @return the handler class names and their dispatch counts.
+     */
+    public static Map<String, Long> getHandlerHits()
+    {
+        final Map<String, Long> hits = new TreeMap<>();
+        for (final Map.Entry<IPlacementHandler, LongAdder> entry : handlerHits.entrySet())
+        {
+            hits.merge(entry.getKey().getClass().getSimpleName(), entry.getValue().sum(), Long::sum);
+        }
+        return hits;
     }
 
     /**
@@ -111,6 +266,12 @@ public final class PlacementHandlers
             return blockState.getBlock() instanceof BlockFluidSubstitution;
         }
 
+        @Override
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
         @Override
         public List<ItemStack> getRequiredItems(
           @NotNull World world,
@@ -156,17 +317,17 @@ public final class PlacementHandlers
         {
             if (complete)
             {
-                world.setBlock(pos, ModBlocks.blockFluidSubstitution.get().defaultBlockState(), UPDATE_FLAG);
+                world.setBlock(pos, ModBlocks.blockFluidSubstitution.get().defaultBlockState(), DeferredUpdates.getPlacementFlag());
                 return ActionProcessingResult.PASS;
             }
 
             if (world.getBlockState(pos).hasProperty(BlockStateProperties.WATERLOGGED))
             {
-                world.setBlock(pos, world.getBlockState(pos).setValue(BlockStateProperties.WATERLOGGED, true), UPDATE_FLAG);
+                world.setBlock(pos, world.getBlockState(pos).setValue(BlockStateProperties.WATERLOGGED, true), DeferredUpdates.getPlacementFlag());
             }
             else
             {
-                world.setBlock(pos, BlockUtils.getFluidForDimension(world), UPDATE_FLAG);
+                world.setBlock(pos, BlockUtils.getFluidForDimension(world), DeferredUpdates.getPlacementFlag());
             }
 
             return ActionProcessingResult.PASS;
@@ -181,6 +342,18 @@ public final class PlacementHandlers
             return blockState.getBlock() instanceof FireBlock;
         }
 
+        @Override
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isRequiredItemsCacheable()
+        {
+            return true;
+        }
+
         @Override
         public List<ItemStack> getRequiredItems(
           @NotNull final World world,
@@ -203,7 +376,7 @@ public final class PlacementHandlers
           final boolean complete,
           final BlockPos centerPos)
         {
-            world.setBlock(pos, blockState, UPDATE_FLAG);
+            world.setBlock(pos, blockState, DeferredUpdates.getPlacementFlag());
             return ActionProcessingResult.PASS;
         }
     }
@@ -216,6 +389,12 @@ public final class PlacementHandlers
             return blockState.getBlock() instanceof FallingBlock;
         }
 
+        @Override
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
         @Override
         public List<ItemStack> getRequiredItems(
           @NotNull final World world,
@@ -250,9 +429,9 @@ public final class PlacementHandlers
 
             if (!world.getBlockState(pos.below()).getMaterial().isSolid())
             {
-                world.setBlock(pos.below(), BlockUtils.getSubstitutionBlockAtWorld(world, pos), UPDATE_FLAG);
+                world.setBlock(pos.below(), BlockUtils.getSubstitutionBlockAtWorld(world, pos), DeferredUpdates.getPlacementFlag());
             }
-            if (!world.setBlock(pos, blockState, UPDATE_FLAG))
+            if (!world.setBlock(pos, blockState, DeferredUpdates.getPlacementFlag()))
             {
                 return ActionProcessingResult.DENY;
             }
@@ -271,7 +450,19 @@ public final class PlacementHandlers
         @Override
         public boolean canHandle(@NotNull final World world, @NotNull final BlockPos pos, @NotNull final BlockState blockState)
         {
-            return blockState.getBlock() == Blocks.GRASS_BLOCK || (blockState.getBlock() != Blocks.DIRT && blockState.getBlock().is(Tags.Blocks.DIRT) && world.getBiome(pos).generationSettings.getSurfaceBuilderConfig().getTopMaterial().getBlock() == blockState.getBlock());
+            return blockState.getBlock() == Blocks.GRASS_BLOCK || (mayHandle(blockState) && world.getBiome(pos).generationSettings.getSurfaceBuilderConfig().getTopMaterial().getBlock() == blockState.getBlock());
+        }
+
+        @Override
+        public boolean mayHandle(@NotNull final BlockState blockState)
+        {
+            return blockState.getBlock() == Blocks.GRASS_BLOCK || (blockState.getBlock() != Blocks.DIRT && blockState.getBlock().is(Tags.Blocks.DIRT));
+        }
+
+        @Override
+        public boolean isRequiredItemsCacheable()
+        {
+            return true;
         }
 
         @Override
@@ -283,7 +474,7 @@ public final class PlacementHandlers
           final boolean complete,
           final BlockPos centerPos)
         {
-            if (!world.setBlock(pos, blockState, UPDATE_FLAG))
+            if (!world.setBlock(pos, blockState, DeferredUpdates.getPlacementFlag()))
             {
                 return ActionProcessingResult.DENY;
             }
@@ -312,6 +503,18 @@ public final class PlacementHandlers
             return blockState.getBlock() instanceof DoorBlock;
         }
 
+        @Override
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isRequiredItemsCacheable()
+        {
+            return true;
+        }
+
         @Override
         public ActionProcessingResult handle(
           @NotNull final World world,
@@ -323,8 +526,8 @@ public final class PlacementHandlers
         {
             if (blockState.getValue(DoorBlock.HALF).equals(DoubleBlockHalf.LOWER))
             {
-                world.setBlock(pos, blockState.setValue(DoorBlock.HALF, DoubleBlockHalf.LOWER), UPDATE_FLAG);
-                world.setBlock(pos.above(), blockState.setValue(DoorBlock.HALF, DoubleBlockHalf.UPPER), UPDATE_FLAG);
+                world.setBlock(pos, blockState.setValue(DoorBlock.HALF, DoubleBlockHalf.LOWER), DeferredUpdates.getPlacementFlag());
+                world.setBlock(pos.above(), blockState.setValue(DoorBlock.HALF, DoubleBlockHalf.UPPER), DeferredUpdates.getPlacementFlag());
             }
 
             return ActionProcessingResult.SUCCESS;
@@ -355,6 +558,18 @@ public final class PlacementHandlers
             return blockState.getBlock() instanceof BedBlock;
         }
 
+        @Override
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isRequiredItemsCacheable()
+        {
+            return true;
+        }
+
         @Override
         public ActionProcessingResult handle(
           @NotNull final World world,
@@ -369,8 +584,8 @@ public final class PlacementHandlers
                 final Direction facing = blockState.getValue(BedBlock.FACING);
 
                 // pos.offset(facing) will get the other part of the bed
-                world.setBlock(pos.relative(facing.getOpposite()), blockState.setValue(BedBlock.PART, BedPart.FOOT), UPDATE_FLAG);
-                world.setBlock(pos, blockState.setValue(BedBlock.PART, BedPart.HEAD), UPDATE_FLAG);
+                world.setBlock(pos.relative(facing.getOpposite()), blockState.setValue(BedBlock.PART, BedPart.FOOT), DeferredUpdates.getPlacementFlag());
+                world.setBlock(pos, blockState.setValue(BedBlock.PART, BedPart.HEAD), DeferredUpdates.getPlacementFlag());
 
                 if (tileEntityData != null)
                 {
@@ -409,6 +624,18 @@ public final class PlacementHandlers
             return blockState.getBlock() instanceof DoublePlantBlock;
         }
 
+        @Override
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isRequiredItemsCacheable()
+        {
+            return true;
+        }
+
         @Override
         public ActionProcessingResult handle(
           @NotNull final World world,
@@ -420,8 +647,8 @@ public final class PlacementHandlers
         {
             if (blockState.getValue(DoublePlantBlock.HALF).equals(DoubleBlockHalf.LOWER))
             {
-                world.setBlock(pos, blockState.setValue(DoublePlantBlock.HALF, DoubleBlockHalf.LOWER), UPDATE_FLAG);
-                world.setBlock(pos.above(), blockState.setValue(DoublePlantBlock.HALF, DoubleBlockHalf.UPPER), UPDATE_FLAG);
+                world.setBlock(pos, blockState.setValue(DoublePlantBlock.HALF, DoubleBlockHalf.LOWER), DeferredUpdates.getPlacementFlag());
+                world.setBlock(pos.above(), blockState.setValue(DoublePlantBlock.HALF, DoubleBlockHalf.UPPER), DeferredUpdates.getPlacementFlag());
                 return ActionProcessingResult.SUCCESS;
             }
             return ActionProcessingResult.PASS;
@@ -450,6 +677,18 @@ public final class PlacementHandlers
                      blockState.getBlock() instanceof DragonEggBlock;
         }
 
+        @Override
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isRequiredItemsCacheable()
+        {
+            return true;
+        }
+
         @Override
         public ActionProcessingResult handle(
           @NotNull final World world,
@@ -482,6 +721,18 @@ public final class PlacementHandlers
             return blockState.getBlock() instanceof FlowerPotBlock;
         }
 
+        @Override
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isRequiredItemsCacheable()
+        {
+            return true;
+        }
+
         @Override
         public ActionProcessingResult handle(
           @NotNull final World world,
@@ -495,7 +746,7 @@ public final class PlacementHandlers
             {
                 return ActionProcessingResult.PASS;
             }
-            if (!world.setBlock(pos, blockState, UPDATE_FLAG))
+            if (!world.setBlock(pos, blockState, DeferredUpdates.getPlacementFlag()))
             {
                 return ActionProcessingResult.DENY;
             }
@@ -532,6 +783,18 @@ public final class PlacementHandlers
             return blockState.getBlock() instanceof AirBlock;
         }
 
+        @Override
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isRequiredItemsCacheable()
+        {
+            return true;
+        }
+
         @Override
         public ActionProcessingResult handle(
           @NotNull final World world,
@@ -578,6 +841,18 @@ public final class PlacementHandlers
             return blockState.getBlock() instanceof GrassPathBlock;
         }
 
+        @Override
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isRequiredItemsCacheable()
+        {
+            return true;
+        }
+
         @Override
         public ActionProcessingResult handle(
           @NotNull final World world,
@@ -587,7 +862,7 @@ public final class PlacementHandlers
           final boolean complete,
           final BlockPos centerPos)
         {
-            if (!world.setBlock(pos, Blocks.GRASS_PATH.defaultBlockState(), UPDATE_FLAG))
+            if (!world.setBlock(pos, Blocks.GRASS_PATH.defaultBlockState(), DeferredUpdates.getPlacementFlag()))
             {
                 return ActionProcessingResult.DENY;
             }
@@ -620,6 +895,18 @@ public final class PlacementHandlers
                      && blockState.getBlock() == world.getBlockState(pos).getBlock();
         }
 
+        @Override
+        public boolean mayHandle(@NotNull final BlockState blockState)
+        {
+            return blockState.getBlock() instanceof StairsBlock;
+        }
+
+        @Override
+        public boolean isRequiredItemsCacheable()
+        {
+            return true;
+        }
+
         @Override
         public ActionProcessingResult handle(
           @NotNull final World world,
@@ -652,6 +939,18 @@ public final class PlacementHandlers
             return true;
         }
 
+        @Override
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isRequiredItemsCacheable()
+        {
+            return true;
+        }
+
         @Override
         public ActionProcessingResult handle(
           @NotNull final World world,
@@ -671,7 +970,7 @@ public final class PlacementHandlers
                 return ActionProcessingResult.PASS;
             }
 
-            if (!world.setBlock(pos, blockState, UPDATE_FLAG))
+            if (!world.setBlock(pos, blockState, DeferredUpdates.getPlacementFlag()))
             {
                 return ActionProcessingResult.DENY;
             }
@@ -697,6 +996,12 @@ public final class PlacementHandlers
             itemList.removeIf(ItemStackUtils::isEmpty);
             return itemList;
         }
+
+        @Override
+        public boolean supportsBulkPlacement()
+        {
+            return true;
+        }
     }
 
     public static class ContainerPlacementHandler implements IPlacementHandler
@@ -707,6 +1012,18 @@ public final class PlacementHandlers
             return blockState.getBlock() instanceof ContainerBlock;
         }
 
+        @Override
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isRequiredItemsCacheable()
+        {
+            return true;
+        }
+
         @Override
         public ActionProcessingResult handle(
           @NotNull final World world,
@@ -716,7 +1033,7 @@ public final class PlacementHandlers
           final boolean complete,
           final BlockPos centerPos)
         {
-            if (!world.setBlock(pos, blockState, UPDATE_FLAG))
+            if (!world.setBlock(pos, blockState, DeferredUpdates.getPlacementFlag()))
             {
                 return ActionProcessingResult.DENY;
             }
@@ -795,6 +1112,18 @@ public final class PlacementHandlers
             return blockState.getBlock() instanceof BannerBlock;
         }
 
+        @Override
+        public boolean isCacheable()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isRequiredItemsCacheable()
+        {
+            return true;
+        }
+
         @Override
         public ActionProcessingResult handle(
           @NotNull final World world,
@@ -813,7 +1142,7 @@ public final class PlacementHandlers
                 return ActionProcessingResult.PASS;
             }
 
-            if (!world.setBlock(pos, blockState, UPDATE_FLAG))
+            if (!world.setBlock(pos, blockState, DeferredUpdates.getPlacementFlag()))
             {
                 return ActionProcessingResult.DENY;
             }
@@ -879,12 +1208,10 @@ public final class PlacementHandlers
      */
     public static List<ItemStack> getRequiredItemsForState(final World world, final BlockPos pos, final BlockState state, final CompoundNBT data, final boolean complete)
     {
-        for (final IPlacementHandler placementHandler : PlacementHandlers.handlers)
+        final IPlacementHandler placementHandler = getHandler(world, pos, state);
+        if (placementHandler != null)
         {
-            if (placementHandler.canHandle(world, pos, state))
-            {
-                return placementHandler.getRequiredItems(world, pos, state, data, complete);
-            }
+            return placementHandler.getRequiredItems(world, pos, state, data, complete);
         }
         return Collections.emptyList();
     }
@@ -4,6 +4,7 @@ import com.ldtteam.structures.blueprints.v1.Blueprint;
 import com.ldtteam.structurize.Structurize;
 import com.ldtteam.structurize.util.BlockUtils;
 import com.ldtteam.structurize.util.PlacementSettings;
+import com.ldtteam.structurize.util.TickBudget;
 import net.minecraft.block.BlockState;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.math.BlockPos;
@@ -78,6 +79,12 @@ public class CreativeStructureHandler extends AbstractStructureHandler
         return Structurize.getConfig().getServer().maxOperationsPerTick.get();
     }
 
+    @Override
+    public boolean isCheckLimitReached(final int count)
+    {
+        return TickBudget.isCheckLimitReached(count);
+    }
+
     @Override
     public boolean isStackFree(@Nullable final ItemStack stack)
     {
@@ -120,6 +127,50 @@ public class CreativeStructureHandler extends AbstractStructureHandler
         return Structurize.getConfig().getServer().maxOperationsPerTick.get();
     }
 
+    @Override
+    public boolean isBulkPlacement()
+    {
+        return Structurize.getConfig().getServer().bulkCreativePlacement.get();
+    }
+
+    @Override
+    public boolean isDeferredUpdates()
+    {
+        return Structurize.getConfig().getServer().deferCreativeUpdates.get();
+    }
+
+    @Override
+    public boolean isWorldDiffEnabled()
+    {
+        return Structurize.getConfig().getServer().worldDiffPrepass.get();
+    }
+
+    @Override
+    public boolean hasWorldIndependentEqualRules()
+    {
+        // Subclasses may look at the world in their rules.
+        return getClass() == CreativeStructureHandler.class;
+    }
+
+    @Override
+    public boolean isPreparedPlacement()
+    {
+        return Structurize.getConfig().getServer().preparePlacements.get();
+    }
+
+    @Override
+    public boolean isPersistent()
+    {
+        // Subclasses can't be restored from the saved blueprint and settings alone.
+        return getClass() == CreativeStructureHandler.class && Structurize.getConfig().getServer().persistJobs.get();
+    }
+
+    @Override
+    public boolean isStepLimitReached(final int count)
+    {
+        return TickBudget.isOperationLimitReached(count);
+    }
+
     @Override
     public boolean shouldBlocksBeConsideredEqual(final BlockState state, final BlockState state1)
     {
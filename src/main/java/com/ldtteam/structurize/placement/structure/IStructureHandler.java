@@ -9,15 +9,12 @@ import com.ldtteam.structurize.util.StructureLoadingUtils;
 import com.ldtteam.structurize.util.StructureUtils;
 import net.minecraft.block.BlockState;
 import net.minecraft.item.ItemStack;
-import net.minecraft.nbt.CompoundNBT;
-import net.minecraft.nbt.CompressedStreamTools;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import net.minecraftforge.items.IItemHandler;
 import org.apache.commons.io.IOUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
@@ -64,8 +61,7 @@ public interface IStructureHandler
                 final byte[] data = StructureLoadingUtils.getStreamAsByteArray(inputStream);
                 inputStream.close();
                 setMd5(StructureUtils.calculateMD5(data));
-                final CompoundNBT CompoundNBT = CompressedStreamTools.readCompressed(new ByteArrayInputStream(data));
-                setBlueprint(BlueprintUtil.readBlueprintFromNBT(CompoundNBT));
+                setBlueprint(BlueprintUtil.readBlueprint(data));
             }
             catch (final IOException e)
             {
@@ -183,6 +179,84 @@ public interface IStructureHandler
      */
     int getMaxBlocksCheckedPerCall();
 
+    /**
+     * Check if simple blocks may be written directly into the chunk sections, skipping neighbor updates and per block packets.
+     * @return true if so.
+     */
+    default boolean isBulkPlacement()
+    {
+        return false;
+    }
+
+    /**
+     * Check if neighbor updates and block ticks inside the structure should be held back until the placement finished.
+     * @return true if so.
+     */
+    default boolean isDeferredUpdates()
+    {
+        return false;
+    }
+
+    /**
+     * Check if the placement may skip positions a snapshot of the world already matched, see {@link com.ldtteam.structurize.placement.WorldDiff}.
+     * Positions the snapshot matched aren't compared with the world again, they are reported by {@link #triggerSuccess(BlockPos, List, boolean)} unless the skip condition of the iteration skips them.
+     * @return true if so.
+     */
+    default boolean isWorldDiffEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * Check if {@link #replaceWithSolidBlock(BlockState)} and {@link #shouldBlocksBeConsideredEqual(BlockState, BlockState)} only look at the given states.
+     * Only then {@link com.ldtteam.structurize.placement.WorldDiff} calls them off the server thread, else it treats more positions as needing work and leaves the decision to the placement.
+     * @return true if so.
+     */
+    default boolean hasWorldIndependentEqualRules()
+    {
+        return false;
+    }
+
+    /**
+     * Check if the placement may be prepared on a worker thread, see {@link com.ldtteam.structurize.placement.PreparedPlacements}.
+     * The handler methods used for the preparation ({@link #isStackFree(ItemStack)}, {@link #fancyPlacement()}, {@link #isCreative()}) have to be thread safe then.
+     * @return true if so.
+     */
+    default boolean isPreparedPlacement()
+    {
+        return false;
+    }
+
+    /**
+     * Check if a placement with this handler may be saved with the world and resumed after a restart, see {@link com.ldtteam.structurize.management.JobCheckpoints}.
+     * A resumed placement gets a new {@link CreativeStructureHandler} for the saved blueprint and settings.
+     * @return true if so.
+     */
+    default boolean isPersistent()
+    {
+        return false;
+    }
+
+    /**
+     * Check if the steps of this call are used up.
+     * @param count the steps executed in this call.
+     * @return true if the call should stop.
+     */
+    default boolean isStepLimitReached(final int count)
+    {
+        return count >= getStepsPerCall();
+    }
+
+    /**
+     * Check if the block checks of this call are used up.
+     * @param count the blocks checked in this call.
+     * @return true if the call should stop.
+     */
+    default boolean isCheckLimitReached(final int count)
+    {
+        return count >= getMaxBlocksCheckedPerCall();
+    }
+
     /**
      * Check if the stack is free for this handler.
      * @param stack the stack to check.
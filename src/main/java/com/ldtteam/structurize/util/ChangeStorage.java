@@ -1,27 +1,107 @@
 package com.ldtteam.structurize.util;
 
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.ldtteam.structures.blueprints.v1.PalettedBlockStorage;
 import com.ldtteam.structurize.Structurize;
-import com.ldtteam.structurize.api.util.PositionStorage;
+import com.ldtteam.structurize.placement.BulkSectionWriter;
+import com.ldtteam.structurize.placement.DeferredUpdates;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.block.BlockState;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityType;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.INBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.nbt.NBTUtil;
+import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MutableBoundingBox;
+import net.minecraft.util.math.SectionPos;
 import net.minecraft.world.World;
+import net.minecraft.world.server.ServerWorld;
+import net.minecraftforge.common.util.Constants;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 
 /**
  * Change storage to store changes to an area to be able to undo them.
+ * The original states are kept per chunk section as a palette and packed indices, tileEntities are serialized when recorded.
  */
 public class ChangeStorage
 {
     /**
-     * List of blocks with position.
+     * Section entry of positions which weren't changed, recorded states are stored as palette index + 1.
      */
-    private final Map<BlockPos, PositionStorage> blocks = new HashMap<>();
+    private static final short UNCHANGED = 0;
+
+    /**
+     * Estimated memory of a section besides its packed data, and of the storage itself.
+     */
+    private static final int SECTION_OVERHEAD_BYTES = 96;
+    private static final int STORAGE_OVERHEAD_BYTES = 256;
+
+    /**
+     * Nbt keys of the journal segments and the serialized storage.
+     */
+    private static final String TAG_PALETTE       = "palette";
+    private static final String TAG_POSITIONS     = "positions";
+    private static final String TAG_STATES        = "states";
+    private static final String TAG_TILE_ENTITIES = "tileEntities";
+    private static final String TAG_INDEX         = "index";
+    private static final String TAG_DATA          = "data";
+    private static final String TAG_ENTITIES      = "entities";
+    private static final String TAG_KILLS         = "kills";
+    private static final String TAG_OWNER         = "owner";
+    private static final String TAG_SECTIONS      = "sections";
+    private static final String TAG_POS           = "pos";
+
+    /**
+     * Settings to restore tileEntities with, the recorded data isn't transformed.
+     */
+    private static final PlacementSettings UNDO_SETTINGS = new PlacementSettings();
+
+    /**
+     * The original states by packed section position, in order of the first change in the section.
+     */
+    private final Long2ObjectLinkedOpenHashMap<PalettedBlockStorage.Section> sections = new Long2ObjectLinkedOpenHashMap<>();
+
+    /**
+     * The original states referenced by the sections.
+     */
+    private final List<BlockState> palette = new ArrayList<>();
+
+    /**
+     * The index of each state in the palette.
+     */
+    private final Reference2IntMap<BlockState> paletteIds = new Reference2IntOpenHashMap<>();
+
+    /**
+     * The original tileEntity data by packed world position.
+     */
+    private final Long2ObjectMap<CompoundNBT> tileEntities = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * Amount of recorded positions.
+     */
+    private int size = 0;
 
     /**
      * List of entities in range.
@@ -29,22 +109,68 @@ public class ChangeStorage
     private final List<CompoundNBT> entities = new ArrayList<>();
 
     /**
-     * List of entities to kill in range.
+     * Ids of the entities to kill in range.
+     */
+    private final List<UUID> entitiesToKill = new ArrayList<>();
+
+    /**
+     * The uuid of the responsible player.
+     */
+    @Nullable
+    private final UUID owner;
+
+    /**
+     * Packed positions added since the last journal segment, null until the first segment was taken.
+     */
+    @Nullable
+    private LongArrayList journal = null;
+
+    /**
+     * Amount of entities and entities to kill covered by the journal segments so far.
+     */
+    private int journaledEntities = 0;
+    private int journaledKills    = 0;
+
+    /**
+     * The estimated memory of this storage, -1 if it has to be computed again.
+     */
+    private long byteSize = -1;
+
+    /**
+     * The sections in the order they are undone, null until the undo started.
      */
-    private final List<Entity> entitiesToKill = new ArrayList<>();
+    @Nullable
+    private long[] undoOrder = null;
 
     /**
-     * The responsible player.
+     * The cursor of the undo, the index into {@link #undoOrder} and the index within that section.
      */
-    private final PlayerEntity player;
+    private int undoSection = 0;
+    private int undoIndex   = 0;
+
+    /**
+     * The deferred neighbor updates and ticks of the undo, null if not deferred or not started.
+     */
+    @Nullable
+    private DeferredUpdates undoUpdates = null;
 
     /**
      * Initiate an empty changeStorage to manually fill it.
      * @param player the player owner of it.
      */
-    public ChangeStorage(final PlayerEntity player)
+    public ChangeStorage(@Nullable final PlayerEntity player)
+    {
+        this(player == null ? null : player.getUUID());
+    }
+
+    /**
+     * Initiate an empty changeStorage to manually fill it.
+     * @param owner the uuid of the owner of it.
+     */
+    public ChangeStorage(@Nullable final UUID owner)
     {
-        this.player = player;
+        this.owner = owner;
+        this.paletteIds.defaultReturnValue(-1);
     }
 
     /**
@@ -56,7 +182,7 @@ public class ChangeStorage
      */
     public ChangeStorage(final World world, final BlockPos from, final BlockPos to, final PlayerEntity player)
     {
-        this.player = player;
+        this(player);
 
         for (int x = Math.min(from.getX(), to.getX()); x <= Math.max(from.getX(), to.getX()); x++)
         {
@@ -64,27 +190,29 @@ public class ChangeStorage
             {
                 for (int z = Math.min(from.getZ(), to.getZ()); z <= Math.max(from.getZ(), to.getZ()); z++)
                 {
-                    final BlockPos place = new BlockPos(x, y, z);
-                    blocks.put(place, new PositionStorage(world.getBlockState(place), world.getBlockEntity(place)));
+                    addPositionStorage(new BlockPos(x, y, z), world);
                 }
             }
         }
 
-        final List<Entity> tempEntities = world.getEntitiesOfClass(Entity.class, new AxisAlignedBB(from, to));
-        entities.addAll(tempEntities.stream().map(Entity::serializeNBT).collect(Collectors.toList()));
+        addEntities(world.getEntitiesOfClass(Entity.class, new AxisAlignedBB(from, to)));
     }
 
     /**
-     * Add a position storage to the list.
+     * Record the current state of a position, if it wasn't recorded yet.
      * @param place the place.
      * @param world the world.
      */
     public void addPositionStorage(final BlockPos place, final World world)
     {
-        if (!blocks.containsKey(place))
+        final PalettedBlockStorage.Section section = sections.get(getSectionKey(place));
+        if (section != null && section.get(getIndex(place)) != UNCHANGED)
         {
-            blocks.put(place, new PositionStorage(world.getBlockState(place), world.getBlockEntity(place)));
+            return;
         }
+
+        final TileEntity tileEntity = world.getBlockEntity(place);
+        record(place.asLong(), world.getBlockState(place), tileEntity == null ? null : tileEntity.save(new CompoundNBT()));
     }
 
     /**
@@ -93,7 +221,11 @@ public class ChangeStorage
      */
     public void addEntities(final List<Entity> list)
     {
-        entities.addAll(list.stream().map(Entity::serializeNBT).collect(Collectors.toList()));
+        for (final Entity entity : list)
+        {
+            entities.add(entity.serializeNBT());
+        }
+        byteSize = -1;
     }
 
     /**
@@ -102,32 +234,53 @@ public class ChangeStorage
      */
     public void addToBeKilledEntity(final Entity entity)
     {
-        entitiesToKill.add(entity);
+        entitiesToKill.add(entity.getUUID());
     }
 
     /**
      * Reload the previous state of the positions.
+     * The positions are restored section by section from a cursor kept between calls, like a creative placement
+     * with bulk writes and deferred updates if those are enabled. Finished sections are dropped from the storage.
      * @param world the world to manipulate.
      * @return true if successful.
      */
     public boolean undo(final World world)
     {
-        int count = 0;
-        for (final Map.Entry<BlockPos, PositionStorage> entry : new ArrayList<>(blocks.entrySet()))
+        if (undoOrder == null)
         {
-            world.setBlockAndUpdate(entry.getKey(), entry.getValue().getState());
-            if (entry.getValue().getEntity() != null)
+            undoOrder = sections.keySet().toLongArray();
+            if (undoOrder.length > 0 && world instanceof ServerWorld && Structurize.getConfig().getServer().deferCreativeUpdates.get())
             {
-                world.setBlockEntity(entry.getKey(), entry.getValue().getEntity());
+                undoUpdates = new DeferredUpdates((ServerWorld) world, getBounds());
             }
-            blocks.remove(entry.getKey());
-            count++;
+        }
+
+        final BulkSectionWriter writer =
+          world instanceof ServerWorld && Structurize.getConfig().getServer().bulkCreativePlacement.get() ? new BulkSectionWriter((ServerWorld) world) : null;
+        if (undoUpdates != null)
+        {
+            undoUpdates.beginStep();
+        }
 
-            if (count >= Structurize.getConfig().getServer().maxOperationsPerTick.get())
+        try
+        {
+            if (!undoBlocks(world, writer))
             {
                 return false;
             }
         }
+        finally
+        {
+            if (writer != null)
+            {
+                writer.flush();
+            }
+            if (undoUpdates != null)
+            {
+                undoUpdates.endStep();
+            }
+        }
+        applyDeferredUpdates();
 
         for (final CompoundNBT data : entities)
         {
@@ -142,11 +295,119 @@ public class ChangeStorage
                 }
             }
         }
-        entitiesToKill.forEach(Entity::remove);
 
+        if (world instanceof ServerWorld)
+        {
+            for (final UUID id : entitiesToKill)
+            {
+                final Entity entity = ((ServerWorld) world).getEntity(id);
+                if (entity != null)
+                {
+                    entity.remove();
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Run the deferred neighbor updates and ticks of the undo, to be called once the undo finished or was cancelled.
+     */
+    public void applyDeferredUpdates()
+    {
+        if (undoUpdates != null)
+        {
+            undoUpdates.apply();
+            undoUpdates = null;
+        }
+    }
+
+    /**
+     * Stop a running undo so it can be run again later, also after the storage was serialized.
+     * The deferred updates are run and the positions restored so far are dropped from the storage.
+     */
+    public void suspendUndo()
+    {
+        applyDeferredUpdates();
+        if (undoOrder != null && undoSection < undoOrder.length)
+        {
+            final PalettedBlockStorage.Section section = sections.get(undoOrder[undoSection]);
+            for (int i = 0; i < undoIndex; i++)
+            {
+                section.set(i, UNCHANGED);
+            }
+        }
+        undoOrder = null;
+        undoSection = 0;
+        undoIndex = 0;
+        byteSize = -1;
+    }
+
+    /**
+     * Restore the recorded positions from the cursor on, up to the operation limit.
+     *
+     * @param world  the world.
+     * @param writer the bulk writer or null to set the blocks one by one.
+     * @return true if all positions are restored.
+     */
+    private boolean undoBlocks(final World world, @Nullable final BulkSectionWriter writer)
+    {
+        int count = 0;
+        final BlockPos.Mutable pos = new BlockPos.Mutable();
+        for (; undoSection < undoOrder.length; undoSection++)
+        {
+            final long sectionKey = undoOrder[undoSection];
+            final PalettedBlockStorage.Section section = sections.get(sectionKey);
+            for (; undoIndex < PalettedBlockStorage.SECTION_VOLUME; undoIndex++)
+            {
+                final short value = section.get(undoIndex);
+                if (value == UNCHANGED)
+                {
+                    continue;
+                }
+
+                setPos(pos, sectionKey, undoIndex);
+                restore(world, writer, pos, palette.get(value - 1));
+                if (undoUpdates != null)
+                {
+                    undoUpdates.markTouched(pos);
+                }
+                size--;
+                count++;
+
+                if (TickBudget.isOperationLimitReached(count))
+                {
+                    undoIndex++;
+                    byteSize = -1;
+                    return false;
+                }
+            }
+            undoIndex = 0;
+            sections.remove(sectionKey);
+        }
+        byteSize = -1;
         return true;
     }
 
+    /**
+     * Get the bounds of the recorded sections.
+     *
+     * @return the bounds.
+     */
+    private MutableBoundingBox getBounds()
+    {
+        final MutableBoundingBox bounds = MutableBoundingBox.getUnknownBox();
+        for (final long sectionKey : sections.keySet())
+        {
+            final int x = SectionPos.x(sectionKey) << 4;
+            final int y = SectionPos.y(sectionKey) << 4;
+            final int z = SectionPos.z(sectionKey) << 4;
+            bounds.expand(new MutableBoundingBox(x, y, z, x + 15, y + 15, z + 15));
+        }
+        return bounds;
+    }
+
     /**
      * Check if a certain player is owner of this change.
      * @param player the player to check.
@@ -154,6 +415,461 @@ public class ChangeStorage
      */
     public boolean isOwner(final PlayerEntity player)
     {
-        return this.player.getUUID().equals(player.getUUID());
+        return player.getUUID().equals(owner);
+    }
+
+    /**
+     * Get the uuid of the owner.
+     * @return the uuid or null if there is none.
+     */
+    @Nullable
+    public UUID getOwner()
+    {
+        return owner;
+    }
+
+    /**
+     * Get the amount of recorded positions.
+     * @return the amount.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Get the estimated memory used by this storage.
+     * The packed sections are counted exactly, tileEntity and entity data by their serialized size.
+     * @return the size in bytes.
+     */
+    public long getByteSize()
+    {
+        if (byteSize == -1)
+        {
+            long bytes = STORAGE_OVERHEAD_BYTES + (long) palette.size() * Long.BYTES;
+            for (final PalettedBlockStorage.Section section : sections.values())
+            {
+                bytes += SECTION_OVERHEAD_BYTES + getDataBytes(section.getBits());
+            }
+            for (final CompoundNBT data : tileEntities.values())
+            {
+                bytes += Long.BYTES + getNbtBytes(data);
+            }
+            for (final CompoundNBT data : entities)
+            {
+                bytes += getNbtBytes(data);
+            }
+            byteSize = bytes + (long) entitiesToKill.size() * 2 * Long.BYTES;
+        }
+        return byteSize;
+    }
+
+    /**
+     * Serialize the storage, for example to move it out of memory.
+     * @return the serialized storage.
+     */
+    public CompoundNBT writeToNBT()
+    {
+        final CompoundNBT compound = new CompoundNBT();
+        if (owner != null)
+        {
+            compound.putUUID(TAG_OWNER, owner);
+        }
+
+        final ListNBT paletteList = new ListNBT();
+        for (final BlockState state : palette)
+        {
+            paletteList.add(NBTUtil.writeBlockState(state));
+        }
+        compound.put(TAG_PALETTE, paletteList);
+
+        final ListNBT sectionList = new ListNBT();
+        for (final Long2ObjectMap.Entry<PalettedBlockStorage.Section> entry : sections.long2ObjectEntrySet())
+        {
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+            try
+            {
+                entry.getValue().write(new DataOutputStream(data));
+            }
+            catch (final IOException e)
+            {
+                throw new IllegalStateException("Couldn't write a section into memory", e);
+            }
+
+            final CompoundNBT sectionCompound = new CompoundNBT();
+            sectionCompound.putLong(TAG_POS, entry.getLongKey());
+            sectionCompound.putByteArray(TAG_DATA, data.toByteArray());
+            sectionList.add(sectionCompound);
+        }
+        compound.put(TAG_SECTIONS, sectionList);
+
+        final ListNBT tileEntityList = new ListNBT();
+        for (final Long2ObjectMap.Entry<CompoundNBT> entry : tileEntities.long2ObjectEntrySet())
+        {
+            final CompoundNBT tileEntityCompound = new CompoundNBT();
+            tileEntityCompound.putLong(TAG_POS, entry.getLongKey());
+            tileEntityCompound.put(TAG_DATA, entry.getValue());
+            tileEntityList.add(tileEntityCompound);
+        }
+        compound.put(TAG_TILE_ENTITIES, tileEntityList);
+
+        final ListNBT entityList = new ListNBT();
+        entityList.addAll(entities);
+        compound.put(TAG_ENTITIES, entityList);
+        compound.put(TAG_KILLS, writeIds(entitiesToKill));
+        return compound;
+    }
+
+    /**
+     * Deserialize a storage written by {@link #writeToNBT()}.
+     * @param compound the serialized storage.
+     * @return the storage.
+     * @throws IOException if a section is malformed.
+     */
+    public static ChangeStorage readFromNBT(final CompoundNBT compound) throws IOException
+    {
+        final ChangeStorage storage = new ChangeStorage(compound.hasUUID(TAG_OWNER) ? compound.getUUID(TAG_OWNER) : null);
+
+        final ListNBT paletteList = compound.getList(TAG_PALETTE, Constants.NBT.TAG_COMPOUND);
+        for (int i = 0; i < paletteList.size(); i++)
+        {
+            final BlockState state = NBTUtil.readBlockState(paletteList.getCompound(i));
+            storage.paletteIds.put(state, storage.palette.size());
+            storage.palette.add(state);
+        }
+
+        final ListNBT sectionList = compound.getList(TAG_SECTIONS, Constants.NBT.TAG_COMPOUND);
+        for (int i = 0; i < sectionList.size(); i++)
+        {
+            final CompoundNBT sectionCompound = sectionList.getCompound(i);
+            final PalettedBlockStorage.Section section =
+              PalettedBlockStorage.Section.read(new DataInputStream(new ByteArrayInputStream(sectionCompound.getByteArray(TAG_DATA))));
+            for (int index = 0; index < PalettedBlockStorage.SECTION_VOLUME; index++)
+            {
+                final short value = section.get(index);
+                if (value < UNCHANGED || value > storage.palette.size())
+                {
+                    throw new IOException("Section entry out of palette range");
+                }
+                if (value != UNCHANGED)
+                {
+                    storage.size++;
+                }
+            }
+            storage.sections.put(sectionCompound.getLong(TAG_POS), section);
+        }
+
+        final ListNBT tileEntityList = compound.getList(TAG_TILE_ENTITIES, Constants.NBT.TAG_COMPOUND);
+        for (int i = 0; i < tileEntityList.size(); i++)
+        {
+            storage.tileEntities.put(tileEntityList.getCompound(i).getLong(TAG_POS), tileEntityList.getCompound(i).getCompound(TAG_DATA));
+        }
+
+        final ListNBT entityList = compound.getList(TAG_ENTITIES, Constants.NBT.TAG_COMPOUND);
+        for (int i = 0; i < entityList.size(); i++)
+        {
+            storage.entities.add(entityList.getCompound(i));
+        }
+        readIds(compound.getList(TAG_KILLS, Constants.NBT.TAG_INT_ARRAY), storage.entitiesToKill);
+        return storage;
+    }
+
+    /**
+     * Take the changes since the last segment as a journal segment, the first segment covers all changes so far.
+     *
+     * @return the segment or null if nothing changed.
+     */
+    @Nullable
+    public CompoundNBT takeJournalSegment()
+    {
+        final LongArrayList positions = journal == null ? getRecordedPositions() : journal;
+        journal = new LongArrayList();
+        if (positions.isEmpty() && journaledEntities == entities.size() && journaledKills == entitiesToKill.size())
+        {
+            return null;
+        }
+
+        final Reference2IntMap<BlockState> segmentIds = new Reference2IntOpenHashMap<>();
+        segmentIds.defaultReturnValue(-1);
+        final ListNBT segmentPalette = new ListNBT();
+        final long[] packedPositions = new long[positions.size()];
+        final int[] states = new int[positions.size()];
+        final ListNBT tileEntityList = new ListNBT();
+
+        int count = 0;
+        final BlockPos.Mutable pos = new BlockPos.Mutable();
+        for (int i = 0; i < positions.size(); i++)
+        {
+            pos.set(positions.getLong(i));
+            final PalettedBlockStorage.Section section = sections.get(getSectionKey(pos));
+            final short value = section == null ? UNCHANGED : section.get(getIndex(pos));
+            if (value == UNCHANGED)
+            {
+                continue;
+            }
+
+            final BlockState state = palette.get(value - 1);
+            int id = segmentIds.getInt(state);
+            if (id == -1)
+            {
+                id = segmentPalette.size();
+                segmentIds.put(state, id);
+                segmentPalette.add(NBTUtil.writeBlockState(state));
+            }
+
+            final CompoundNBT tileEntity = tileEntities.get(positions.getLong(i));
+            if (tileEntity != null)
+            {
+                final CompoundNBT tileEntityCompound = new CompoundNBT();
+                tileEntityCompound.putInt(TAG_INDEX, count);
+                tileEntityCompound.put(TAG_DATA, tileEntity);
+                tileEntityList.add(tileEntityCompound);
+            }
+            packedPositions[count] = positions.getLong(i);
+            states[count] = id;
+            count++;
+        }
+
+        final CompoundNBT segment = new CompoundNBT();
+        segment.put(TAG_PALETTE, segmentPalette);
+        segment.putLongArray(TAG_POSITIONS, Arrays.copyOf(packedPositions, count));
+        segment.putIntArray(TAG_STATES, Arrays.copyOf(states, count));
+        segment.put(TAG_TILE_ENTITIES, tileEntityList);
+
+        final ListNBT newEntities = new ListNBT();
+        newEntities.addAll(entities.subList(journaledEntities, entities.size()));
+        segment.put(TAG_ENTITIES, newEntities);
+        segment.put(TAG_KILLS, writeIds(entitiesToKill.subList(journaledKills, entitiesToKill.size())));
+
+        journaledEntities = entities.size();
+        journaledKills = entitiesToKill.size();
+        return segment;
+    }
+
+    /**
+     * Restore the changes of a journal segment, see {@link #takeJournalSegment()}.
+     * Changes restored this way aren't part of later segments.
+     *
+     * @param segment the segment.
+     */
+    public void readJournalSegment(final CompoundNBT segment)
+    {
+        final ListNBT segmentPalette = segment.getList(TAG_PALETTE, Constants.NBT.TAG_COMPOUND);
+        final BlockState[] states = new BlockState[segmentPalette.size()];
+        for (int i = 0; i < states.length; i++)
+        {
+            states[i] = NBTUtil.readBlockState(segmentPalette.getCompound(i));
+        }
+
+        final long[] packedPositions = segment.getLongArray(TAG_POSITIONS);
+        final int[] stateIds = segment.getIntArray(TAG_STATES);
+        final CompoundNBT[] tileEntityData = new CompoundNBT[packedPositions.length];
+        final ListNBT tileEntityList = segment.getList(TAG_TILE_ENTITIES, Constants.NBT.TAG_COMPOUND);
+        for (int i = 0; i < tileEntityList.size(); i++)
+        {
+            tileEntityData[tileEntityList.getCompound(i).getInt(TAG_INDEX)] = tileEntityList.getCompound(i).getCompound(TAG_DATA);
+        }
+
+        for (int i = 0; i < packedPositions.length; i++)
+        {
+            record(packedPositions[i], states[stateIds[i]], tileEntityData[i]);
+        }
+
+        final ListNBT entityList = segment.getList(TAG_ENTITIES, Constants.NBT.TAG_COMPOUND);
+        for (int i = 0; i < entityList.size(); i++)
+        {
+            entities.add(entityList.getCompound(i));
+        }
+        readIds(segment.getList(TAG_KILLS, Constants.NBT.TAG_INT_ARRAY), entitiesToKill);
+
+        journal = new LongArrayList();
+        journaledEntities = entities.size();
+        journaledKills = entitiesToKill.size();
+    }
+
+    /**
+     * Record the original state of a position.
+     *
+     * @param packedPos      the packed world position.
+     * @param state          the original state.
+     * @param tileEntityData the original tileEntity data or null.
+     */
+    private void record(final long packedPos, final BlockState state, @Nullable final CompoundNBT tileEntityData)
+    {
+        int id = paletteIds.getInt(state);
+        if (id == -1)
+        {
+            id = palette.size();
+            paletteIds.put(state, id);
+            palette.add(state);
+        }
+
+        final int x = BlockPos.getX(packedPos);
+        final int y = BlockPos.getY(packedPos);
+        final int z = BlockPos.getZ(packedPos);
+        sections.computeIfAbsent(SectionPos.asLong(x >> 4, y >> 4, z >> 4), key -> new PalettedBlockStorage.Section(UNCHANGED))
+          .set(PalettedBlockStorage.indexInSection(x, y, z), (short) (id + 1));
+        if (tileEntityData != null)
+        {
+            tileEntities.put(packedPos, tileEntityData);
+        }
+
+        size++;
+        byteSize = -1;
+        if (journal != null)
+        {
+            journal.add(packedPos);
+        }
+    }
+
+    /**
+     * Restore the original state and tileEntity of a position.
+     *
+     * @param world  the world.
+     * @param writer the bulk writer or null to set the block directly.
+     * @param pos    the position.
+     * @param state  the original state.
+     */
+    private void restore(final World world, @Nullable final BulkSectionWriter writer, final BlockPos pos, final BlockState state)
+    {
+        final CompoundNBT tileEntityData = tileEntities.remove(pos.asLong());
+        if (writer != null)
+        {
+            writer.setBlock(pos, state, tileEntityData, UNDO_SETTINGS);
+            return;
+        }
+
+        world.setBlock(pos, state, DeferredUpdates.getPlacementFlag());
+        if (tileEntityData != null)
+        {
+            final TileEntity tileEntity = TileEntity.loadStatic(state, tileEntityData);
+            if (tileEntity != null)
+            {
+                world.setBlockEntity(pos, tileEntity);
+            }
+        }
+    }
+
+    /**
+     * @return the packed positions of all recorded changes, in section order.
+     */
+    private LongArrayList getRecordedPositions()
+    {
+        final LongArrayList positions = new LongArrayList(size);
+        final BlockPos.Mutable pos = new BlockPos.Mutable();
+        for (final Long2ObjectMap.Entry<PalettedBlockStorage.Section> entry : sections.long2ObjectEntrySet())
+        {
+            for (int index = 0; index < PalettedBlockStorage.SECTION_VOLUME; index++)
+            {
+                if (entry.getValue().get(index) != UNCHANGED)
+                {
+                    positions.add(setPos(pos, entry.getLongKey(), index).asLong());
+                }
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Set a position to an index of a section.
+     *
+     * @param pos        the position to set.
+     * @param sectionKey the packed section position.
+     * @param index      the index in the section, see {@link PalettedBlockStorage#indexInSection(int, int, int)}.
+     * @return the position.
+     */
+    private static BlockPos.Mutable setPos(final BlockPos.Mutable pos, final long sectionKey, final int index)
+    {
+        return pos.set(SectionPos.x(sectionKey) << 4 | (index & 15),
+          SectionPos.y(sectionKey) << 4 | (index >> 8 & 15),
+          SectionPos.z(sectionKey) << 4 | (index >> 4 & 15));
+    }
+
+    /**
+     * Get the packed section position of a position.
+     *
+     * @param pos the position.
+     * @return the packed section position.
+     */
+    private static long getSectionKey(final BlockPos pos)
+    {
+        return SectionPos.asLong(pos.getX() >> 4, pos.getY() >> 4, pos.getZ() >> 4);
+    }
+
+    /**
+     * Get the index of a position in its section.
+     *
+     * @param pos the position.
+     * @return the index.
+     */
+    private static int getIndex(final BlockPos pos)
+    {
+        return PalettedBlockStorage.indexInSection(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    /**
+     * Get the size of the packed data of a section.
+     *
+     * @param bits the bits per entry, 0 if uniform.
+     * @return the size in bytes.
+     */
+    private static long getDataBytes(final int bits)
+    {
+        if (bits == 0)
+        {
+            return 0;
+        }
+        final int perLong = 64 / bits;
+        return (long) (PalettedBlockStorage.SECTION_VOLUME + perLong - 1) / perLong * Long.BYTES;
+    }
+
+    /**
+     * Get the serialized size of nbt data.
+     *
+     * @param tag the data.
+     * @return the size in bytes.
+     */
+    private static long getNbtBytes(final INBT tag)
+    {
+        final CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+        try
+        {
+            tag.write(new DataOutputStream(counter));
+        }
+        catch (final IOException e)
+        {
+            // Writing to memory doesn't fail.
+        }
+        return counter.getCount();
+    }
+
+    /**
+     * Write a list of entity ids.
+     *
+     * @param ids the ids.
+     * @return the list tag.
+     */
+    private static ListNBT writeIds(final List<UUID> ids)
+    {
+        final ListNBT list = new ListNBT();
+        for (final UUID id : ids)
+        {
+            list.add(NBTUtil.createUUID(id));
+        }
+        return list;
+    }
+
+    /**
+     * Read a list of entity ids.
+     *
+     * @param list the list tag.
+     * @param ids  the list to add the ids to.
+     */
+    private static void readIds(final ListNBT list, final List<UUID> ids)
+    {
+        for (final INBT id : list)
+        {
+            ids.add(NBTUtil.loadUUID(id));
+        }
     }
 }
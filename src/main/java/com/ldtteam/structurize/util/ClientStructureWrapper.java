@@ -1,5 +1,6 @@
 package com.ldtteam.structurize.util;
 
+import com.ldtteam.structures.blueprints.v1.BlueprintUtil;
 import com.ldtteam.structures.helpers.Settings;
 import com.ldtteam.structurize.api.util.Log;
 import com.ldtteam.structurize.api.util.Utils;
@@ -8,7 +9,6 @@ import com.ldtteam.structurize.management.StructureName;
 import com.ldtteam.structurize.management.Structures;
 import net.minecraft.client.Minecraft;
 import net.minecraft.nbt.CompoundNBT;
-import net.minecraft.nbt.CompressedStreamTools;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -46,7 +46,7 @@ public final class ClientStructureWrapper
 
         try (final OutputStream outputstream = new FileOutputStream(file))
         {
-            CompressedStreamTools.writeCompressed(CompoundNBT, outputstream);
+            BlueprintUtil.writeCompressed(CompoundNBT, outputstream);
         }
         catch (final IOException e)
         {
@@ -0,0 +1,232 @@
+package com.ldtteam.structurize.util;
+
+import com.ldtteam.structurize.Structurize;
+import com.ldtteam.structurize.config.ServerConfiguration;
+import net.minecraft.server.MinecraftServer;
+
+/**
+ * Wall clock budget for all Structurize world operations of a server tick.
+ * The budget shrinks while the server is above the target tick time and grows into the spare headroom while it is idle,
+ * operations check it inside their loops instead of counting blocks.
+ * Only the time spent inside of slices is charged to the budget, vanilla world and entity ticking is not,
+ * and every call may do at least one operation so placement always progresses.
+ * If the budget is disabled in the config the old count limits are used.
+ */
+public final class TickBudget
+{
+    /**
+     * Length of a tick in milliseconds.
+     */
+    private static final float TICK_MS = 50f;
+
+    /**
+     * Cheap checks sample the clock only every this many iterations (mask).
+     */
+    private static final int CHECK_SAMPLE_MASK = 63;
+
+    /**
+     * Weight of the newest value in the smoothed budget.
+     */
+    private static final float SMOOTHING = 0.2f;
+
+    /**
+     * Share of the spare headroom below the target tick time which may be used additionally.
+     */
+    private static final float HEADROOM_SHARE = 0.5f;
+
+    /**
+     * Smallest budget, so that placement still progresses on a lagging server.
+     */
+    private static final long MIN_BUDGET_MICROS = 500;
+
+    /**
+     * The smoothed budget in microseconds, negative until the first tick.
+     */
+    private static float budgetMicros = -1;
+
+    /**
+     * The budget of the current tick in nanoseconds, 0 if disabled.
+     */
+    private static long budgetNanos = 0;
+
+    /**
+     * The time charged to the budget in the current tick, in nanoseconds.
+     */
+    private static long spentNanos = 0;
+
+    /**
+     * The start of the current slice in System.nanoTime() terms, a share of the tick given to a single operation.
+     */
+    private static long sliceStart = 0;
+
+    /**
+     * The deadline of the current slice, or of the last call made outside of a slice. Long.MAX_VALUE if neither ran yet.
+     */
+    private static long sliceDeadline = Long.MAX_VALUE;
+
+    /**
+     * If a slice is active.
+     */
+    private static boolean inSlice = false;
+
+    /**
+     * The operation count of the current slice if the budget is disabled, negative if no slice is active.
+     */
+    private static int sliceOperations = -1;
+
+    /**
+     * Private constructor to hide implicit one.
+     */
+    private TickBudget()
+    {
+        /*
+         * Intentionally left empty.
+         */
+    }
+
+    /**
+     * Start the budget of a new server tick, called once at the start of every server tick.
+     *
+     * @param server the server.
+     */
+    public static void startTick(final MinecraftServer server)
+    {
+        final ServerConfiguration config = Structurize.getConfig().getServer();
+        final long baseBudget = config.placementBudgetMicros.get();
+        if (baseBudget <= 0)
+        {
+            budgetNanos = 0;
+            return;
+        }
+
+        final float mspt = server.getAverageTickTime();
+        final float target = config.targetMspt.get();
+        final float wanted;
+        if (mspt > target)
+        {
+            // Scale down linearly until the full tick is used.
+            wanted = baseBudget * Math.max(0, (TICK_MS - mspt) / Math.max(1, TICK_MS - target));
+        }
+        else
+        {
+            wanted = Math.min(Math.max(baseBudget, config.maxPlacementBudgetMicros.get()), baseBudget + (target - mspt) * 1000 * HEADROOM_SHARE);
+        }
+
+        budgetMicros = budgetMicros < 0 ? wanted : budgetMicros + (wanted - budgetMicros) * SMOOTHING;
+        budgetNanos = Math.max(MIN_BUDGET_MICROS, (long) budgetMicros) * 1000;
+        spentNanos = 0;
+    }
+
+    /**
+     * @return true if the time budget is in use.
+     */
+    public static boolean isEnabled()
+    {
+        return budgetNanos != 0;
+    }
+
+    /**
+     * @return the current budget in microseconds, 0 if disabled.
+     */
+    public static long getBudgetMicros()
+    {
+        return isEnabled() ? Math.max(MIN_BUDGET_MICROS, (long) budgetMicros) : 0;
+    }
+
+    /**
+     * Start a slice of the remaining tick budget for a single operation, the time until {@link #endSlice()} is charged to the budget.
+     * The remaining time, or the operation count if the budget is disabled, is split by weight.
+     *
+     * @param weight          the weight of the operation.
+     * @param remainingWeight the sum of the weights of this and all operations still waiting for their slice in this tick.
+     */
+    public static void startSlice(final int weight, final int remainingWeight)
+    {
+        if (isEnabled())
+        {
+            inSlice = true;
+            sliceStart = System.nanoTime();
+            sliceDeadline = sliceStart + Math.max(0, budgetNanos - spentNanos) * weight / Math.max(weight, remainingWeight);
+        }
+        else
+        {
+            sliceOperations = Math.max(1, Structurize.getConfig().getServer().maxOperationsPerTick.get() * weight / Math.max(weight, remainingWeight));
+        }
+    }
+
+    /**
+     * End the current slice, the full tick budget applies again.
+     */
+    public static void endSlice()
+    {
+        if (inSlice)
+        {
+            spentNanos += System.nanoTime() - sliceStart;
+            inSlice = false;
+        }
+        sliceDeadline = Long.MAX_VALUE;
+        sliceOperations = -1;
+    }
+
+    /**
+     * Check if an operation loop has to stop for this tick, for world modifications.
+     * The first operation of a call is always allowed.
+     *
+     * @param count the amount of operations done in the current call.
+     * @return true if it should stop.
+     */
+    public static boolean isOperationLimitReached(final int count)
+    {
+        if (!isEnabled())
+        {
+            return count >= getOperationLimit();
+        }
+        if (count == 0)
+        {
+            startCall();
+            return false;
+        }
+        return System.nanoTime() >= sliceDeadline;
+    }
+
+    /**
+     * Check if a checking loop has to stop for this tick, for cheap checks which don't modify the world.
+     * The clock is only sampled every few iterations.
+     *
+     * @param count the amount of checks done in the current call.
+     * @return true if it should stop.
+     */
+    public static boolean isCheckLimitReached(final int count)
+    {
+        if (!isEnabled())
+        {
+            return count >= getOperationLimit();
+        }
+        if (count == 0)
+        {
+            startCall();
+            return false;
+        }
+        return (count & CHECK_SAMPLE_MASK) == CHECK_SAMPLE_MASK && System.nanoTime() >= sliceDeadline;
+    }
+
+    /**
+     * Start a call outside of a slice, it may use what is left of the tick budget.
+     * Such calls aren't charged, within a slice nothing changes.
+     */
+    private static void startCall()
+    {
+        if (!inSlice)
+        {
+            sliceDeadline = System.nanoTime() + Math.max(0, budgetNanos - spentNanos);
+        }
+    }
+
+    /**
+     * @return the operation count limit of the current slice or tick, if the budget is disabled.
+     */
+    private static int getOperationLimit()
+    {
+        return sliceOperations < 0 ? Structurize.getConfig().getServer().maxOperationsPerTick.get() : sliceOperations;
+    }
+}
@@ -1,6 +1,5 @@
 package com.ldtteam.structurize.util;
 
-import com.ldtteam.structurize.Structurize;
 import com.ldtteam.structurize.placement.BlockPlacementResult;
 import com.ldtteam.structurize.placement.StructurePhasePlacementResult;
 import com.ldtteam.structurize.placement.StructurePlacer;
@@ -12,7 +11,9 @@ import net.minecraft.item.ItemStack;
 import net.minecraft.item.Items;
 import net.minecraft.state.properties.BedPart;
 import net.minecraft.state.properties.DoubleBlockHalf;
+import net.minecraft.util.RegistryKey;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
 import net.minecraft.world.server.ServerWorld;
 import net.minecraftforge.common.util.FakePlayer;
 import org.jetbrains.annotations.Nullable;
@@ -86,6 +87,11 @@ public class TickedWorldOperation
     private final StructurePlacer placer;
     private int structurePhase = 0;
 
+    /**
+     * The dimension the operation runs in.
+     */
+    private final RegistryKey<World> dimension;
+
     /**
      * Create a ScanToolOperation.
      *
@@ -113,6 +119,7 @@ public class TickedWorldOperation
         this.secondBlock = secondBlock;
         this.storage = new ChangeStorage(player);
         this.placer = null;
+        this.dimension = player == null ? World.OVERWORLD : player.level.dimension();
     }
 
     /**
@@ -131,6 +138,7 @@ public class TickedWorldOperation
         this.secondBlock = ItemStack.EMPTY;
         this.storage = storage;
         this.placer = null;
+        this.dimension = player == null ? World.OVERWORLD : player.level.dimension();
     }
 
     /**
@@ -149,6 +157,29 @@ public class TickedWorldOperation
         this.secondBlock = ItemStack.EMPTY;
         this.storage = new ChangeStorage(player);
         this.placer = placer;
+        this.dimension = placer.getHandler().getWorld().dimension();
+    }
+
+    /**
+     * Create a ScanToolOperation for a structure placement restored from a checkpoint.
+     * @param placer the structure for the placement.
+     * @param storage the changes done so far.
+     * @param structurePhase the phase of the placement.
+     * @param currentPos the iterator position within the phase.
+     */
+    public TickedWorldOperation(final StructurePlacer placer, final ChangeStorage storage, final int structurePhase, final BlockPos currentPos)
+    {
+        this.operation = OperationType.PLACE_STRUCTURE;
+        this.startPos = BlockPos.ZERO;
+        this.currentPos = currentPos;
+        this.endPos = BlockPos.ZERO;
+        this.player = null;
+        this.firstBlock = ItemStack.EMPTY;
+        this.secondBlock = ItemStack.EMPTY;
+        this.storage = storage;
+        this.placer = placer;
+        this.structurePhase = structurePhase;
+        this.dimension = placer.getHandler().getWorld().dimension();
     }
 
     /**
@@ -159,11 +190,6 @@ public class TickedWorldOperation
      */
     public boolean apply(final ServerWorld world)
     {
-        if (player != null && player.level.dimension() != world.dimension())
-        {
-            return false;
-        }
-
         if (operation == OperationType.UNDO)
         {
             return storage.undo(world);
@@ -198,6 +224,13 @@ public class TickedWorldOperation
                         break;
                     default:
                         // entities
+                        if (placer.getHandler().getBluePrint().getEntities().length == 0)
+                        {
+                            structurePhase = 0;
+                            currentPos = null;
+                            placer.applyDeferredUpdates();
+                            return true;
+                        }
                         result = placer.executeStructureStep(world, storage, currentPos, StructurePlacer.Operation.BLOCK_PLACEMENT,
                           () -> placer.getIterator().increment((info, pos, handler) -> info.getEntities().length == 0), true);
                         currentPos = result.getIteratorPos();
@@ -214,7 +247,12 @@ public class TickedWorldOperation
                     }
                 }
 
-                return currentPos == null;
+                if (currentPos == null)
+                {
+                    placer.applyDeferredUpdates();
+                    return true;
+                }
+                return false;
             }
             return false;
         }
@@ -257,7 +295,7 @@ public class TickedWorldOperation
                             BlockUtils.removeFluid(world, here);
                             if (firstBlock.getItem() instanceof BucketItem && !(blockState.getBlock() instanceof FlowingFluidBlock))
                             {
-                                if (count >= Structurize.getConfig().getServer().maxOperationsPerTick.get())
+                                if (TickBudget.isOperationLimitReached(count))
                                 {
                                     currentPos = new BlockPos(x, y, z);
                                     return false;
@@ -278,7 +316,7 @@ public class TickedWorldOperation
                             world.removeBlock(here, false);
                         }
 
-                        if (count >= Structurize.getConfig().getServer().maxOperationsPerTick.get())
+                        if (TickBudget.isOperationLimitReached(count))
                         {
                             currentPos = new BlockPos(x, y, z);
                             return false;
@@ -309,6 +347,37 @@ public class TickedWorldOperation
                   || (compareStack.getItem() == Items.AIR && (worldState.getBlock() == Blocks.AIR)));
     }
 
+    /**
+     * Run the held back neighbor updates and ticks of a structure placement or undo, the operation can continue afterwards.
+     */
+    public void applyDeferredUpdates()
+    {
+        if (placer != null)
+        {
+            placer.applyDeferredUpdates();
+        }
+        if (operation == OperationType.UNDO)
+        {
+            storage.applyDeferredUpdates();
+        }
+    }
+
+    /**
+     * Called when the operation is cancelled before it finished, runs the pending updates of a structure placement or undo.
+     * The storage of a cancelled undo only keeps the positions which aren't restored yet.
+     */
+    public void cancel()
+    {
+        if (placer != null)
+        {
+            placer.applyDeferredUpdates();
+        }
+        if (operation == OperationType.UNDO)
+        {
+            storage.suspendUndo();
+        }
+    }
+
     /**
      * Get the current change storage of this operation.
      *
@@ -319,6 +388,69 @@ public class TickedWorldOperation
         return this.storage;
     }
 
+    /**
+     * Get the structure placer of this operation.
+     *
+     * @return the placer or null if this isn't a structure placement.
+     */
+    @Nullable
+    public StructurePlacer getPlacer()
+    {
+        return placer;
+    }
+
+    /**
+     * Get the phase of a structure placement.
+     *
+     * @return the phase.
+     */
+    public int getStructurePhase()
+    {
+        return structurePhase;
+    }
+
+    /**
+     * Get the position the operation continues at.
+     *
+     * @return the position, null once a structure placement finished.
+     */
+    @Nullable
+    public BlockPos getCurrentPos()
+    {
+        return currentPos;
+    }
+
+    /**
+     * Get the type of this operation.
+     *
+     * @return the type.
+     */
+    public OperationType getType()
+    {
+        return operation;
+    }
+
+    /**
+     * Get the dimension the operation runs in.
+     *
+     * @return the dimension key.
+     */
+    public RegistryKey<World> getDimension()
+    {
+        return dimension;
+    }
+
+    /**
+     * Get the player who created this operation.
+     *
+     * @return the player or null.
+     */
+    @Nullable
+    public PlayerEntity getPlayer()
+    {
+        return player;
+    }
+
     /**
      * Check if operation is an undo already.
      * @return true if so.